@@ -299,6 +299,20 @@ project(":") {
             token.set(System.getenv("IDEA_PUBLISH_TOKEN"))
         }
 
+        test {
+            exclude("com/tarantoollua/intellij/benchmark/**")
+        }
+
+        // benchmarks print their numbers, run them with `gradlew benchmark`
+        register<Test>("benchmark") {
+            group = "verification"
+            testClassesDirs = sourceSets["test"].output.classesDirs
+            classpath = sourceSets["test"].runtimeClasspath
+            include("com/tarantoollua/intellij/benchmark/**")
+            testLogging.showStandardStreams = true
+            outputs.upToDateWhen { false }
+        }
+
         withType<org.jetbrains.intellij.tasks.PrepareSandboxTask> {
             doLast {
                 copy {
@@ -37,6 +37,7 @@ import com.tarantoollua.intellij.lua.lang.LuaIcons
 import com.tarantoollua.intellij.lua.psi.*
 import com.tarantoollua.intellij.lua.psi.search.LuaClassInheritorsSearch
 import com.tarantoollua.intellij.lua.psi.search.LuaOverridingMethodsSearch
+import com.tarantoollua.intellij.lua.psi.search.LuaRequireGraph
 import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tarantoollua.intellij.lua.ty.TyClass
@@ -187,6 +188,19 @@ class LuaLineMarkerProvider : AbstractLineMarkerProvider() {
                     }
                 }
             }
+
+            // the export of a module
+            val file = element.parent
+            if (file is LuaPsiFile) {
+                val dependents = LuaRequireGraph.getInstance(file.project).getDependents(file)
+                if (dependents.isNotEmpty()) {
+                    val returnKeyWord = element.firstChild
+                    val builder = NavigationGutterIconBuilder.create(LuaIcons.LineMarker.RequiredBy)
+                            .setTargets(dependents)
+                            .setTooltipText("Required by ${dependents.size} file(s)")
+                    result.add(builder.createLineMarkerInfo(returnKeyWord))
+                }
+            }
         }
     }
 
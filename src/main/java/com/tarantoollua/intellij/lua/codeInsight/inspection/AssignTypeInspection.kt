@@ -22,7 +22,6 @@ import com.intellij.psi.PsiElementVisitor
 import com.tarantoollua.intellij.lua.psi.LuaAssignStat
 import com.tarantoollua.intellij.lua.psi.LuaIndexExpr
 import com.tarantoollua.intellij.lua.psi.LuaVisitor
-import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.ty.Ty
 import com.tarantoollua.intellij.lua.ty.TyClass
 
@@ -34,7 +33,8 @@ class AssignTypeInspection : StrictInspection() {
 
                     val assignees = o.varExprList.exprList
                     val values = o.valueExprList?.exprList ?: listOf()
-                    val searchContext = SearchContext.get(o.project)
+                    val searchContext = searchContext(o)
+                    val model = semanticModel(o)
 
                     // Check right number of fields/assignments
                     if (assignees.size > values.size) {
@@ -51,12 +51,12 @@ class AssignTypeInspection : StrictInspection() {
                             val field = assignees[i]
                             val name = field.name ?: ""
                             val value = values[i]
-                            val valueType = value.guessType(searchContext)
+                            val valueType = model.getType(value)
 
                             // Field access
                             if (field is LuaIndexExpr) {
                                 // Get owner class
-                                val parent = field.guessParentType(searchContext)
+                                val parent = model.getParentType(field)
 
                                 if (parent is TyClass) {
                                     val fieldType = parent.findMemberType(name, searchContext) ?: Ty.NIL
@@ -68,7 +68,7 @@ class AssignTypeInspection : StrictInspection() {
                             } else {
                                 // Local/global var assignments, only check type if there is no comment defining it
                                 if (o.comment == null) {
-                                    val fieldType = field.guessType(searchContext)
+                                    val fieldType = model.getType(field)
 
                                     if (!valueType.subTypeOf(fieldType, searchContext, false)) {
                                         myHolder.registerProblem(value, "Type mismatch. Required: '%s' Found: '%s'".format(fieldType, valueType))
@@ -33,9 +33,9 @@ class MatchFunctionSignatureInspection : StrictInspection() {
                     if (id != null) {
                         if (o.parent is LuaCallExpr && o.colon != null) {
                             // Guess parent types
-                            val context = SearchContext.get(o.project)
+                            val model = semanticModel(o)
                             o.exprList.forEach { expr ->
-                                if (expr.guessType(context) == Ty.NIL) {
+                                if (model.getType(expr) == Ty.NIL) {
                                     // If parent type is nil add error
                                     myHolder.registerProblem(expr, "Trying to index a nil type.")
                                 }
@@ -47,16 +47,17 @@ class MatchFunctionSignatureInspection : StrictInspection() {
                 override fun visitCallExpr(o: LuaCallExpr) {
                     super.visitCallExpr(o)
 
-                    val searchContext = SearchContext.get(o.project)
+                    val searchContext = searchContext(o)
+                    val model = semanticModel(o)
                     val prefixExpr = o.expr
-                    val type = prefixExpr.guessType(searchContext)
+                    val type = model.getType(prefixExpr)
 
                     if (type is TyFunction) {
                         val perfectSig = type.findPerfectSignature(o)
                         annotateCall(o, perfectSig, searchContext)
                     } else if (prefixExpr is LuaIndexExpr) {
                         // Get parent type
-                        val parentType = prefixExpr.guessParentType(searchContext)
+                        val parentType = model.getParentType(prefixExpr)
                         if (parentType is TyClass) {
                             val fType = prefixExpr.name?.let { parentType.findSuperMember(it, searchContext) }
                             if (fType == null)
@@ -70,8 +71,9 @@ class MatchFunctionSignatureInspection : StrictInspection() {
                 private fun annotateCall(call: LuaCallExpr, signature: IFunSignature, searchContext: SearchContext) {
                     val concreteParams = call.argList
                     val concreteTypes = mutableListOf<ConcreteTypeInfo>()
+                    val model = semanticModel(call)
                     concreteParams.forEachIndexed { index, luaExpr ->
-                        val ty = luaExpr.guessType(searchContext)
+                        val ty = model.getType(luaExpr)
                         if (ty is TyTuple) {
                             if (index == concreteParams.lastIndex) {
                                 concreteTypes.addAll(ty.list.map { ConcreteTypeInfo(luaExpr, it) })
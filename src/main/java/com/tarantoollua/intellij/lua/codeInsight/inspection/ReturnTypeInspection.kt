@@ -22,7 +22,7 @@ import com.intellij.psi.PsiElementVisitor
 import com.intellij.psi.PsiFile
 import com.intellij.psi.util.PsiTreeUtil
 import com.tarantoollua.intellij.lua.psi.*
-import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.search.LuaSemanticModel
 import com.tarantoollua.intellij.lua.ty.ITy
 import com.tarantoollua.intellij.lua.ty.Ty
 import com.tarantoollua.intellij.lua.ty.TyTuple
@@ -35,15 +35,16 @@ class ReturnTypeInspection : StrictInspection() {
                     if (o.parent is PsiFile)
                         return
 
-                    val context = SearchContext.get(o.project)
+                    val model = semanticModel(o)
+                    val context = searchContext(o)
                     val bodyOwner = PsiTreeUtil.getParentOfType(o, LuaFuncBodyOwner::class.java) ?: return
                     val abstractType = if (bodyOwner is LuaClassMethodDef) {
-                        guessSuperReturnTypes(bodyOwner, context)
+                        guessSuperReturnTypes(bodyOwner, model)
                     } else {
                         val returnDef = (bodyOwner as? LuaCommentOwner)?.comment?.tagReturn
                         returnDef?.type
                     }
-                    val concreteType = guessReturnType(o, -1, context)
+                    val concreteType = model.getReturnType(o)
                     var abstractTypes = toList(abstractType)
                     val concreteTypes = toList(concreteType)
 
@@ -79,16 +80,11 @@ class ReturnTypeInspection : StrictInspection() {
                     }
                 }
 
-                private fun guessSuperReturnTypes(function: LuaClassMethodDef, context: SearchContext): ITy? {
+                private fun guessSuperReturnTypes(function: LuaClassMethodDef, model: LuaSemanticModel): ITy? {
                     val comment = function.comment
                     if (comment != null) {
                         if (comment.isOverride()) {
-                            // Find super type
-                            val superClass = function.guessClassType(context)
-                            val superMember = superClass?.findSuperMember(function.name ?: "", context)
-                            if (superMember is LuaClassMethodDef) {
-                                return superMember.guessReturnType(context)
-                            }
+                            return model.getSuperReturnType(function)
                         } else {
                             return comment.tagReturn?.type
                         }
@@ -104,11 +100,10 @@ class ReturnTypeInspection : StrictInspection() {
 
                     if (returnStat == null) {
                         // Find function definition
-                        val context = SearchContext.get(o.project)
                         val bodyOwner = PsiTreeUtil.getParentOfType(o, LuaFuncBodyOwner::class.java)
 
                         val type = if (bodyOwner is LuaClassMethodDef) {
-                            guessSuperReturnTypes(bodyOwner, context)
+                            guessSuperReturnTypes(bodyOwner, semanticModel(o))
                         } else {
                             /*if (bodyOwner == null) {
                                 myHolder.registerProblem(o, "Return statement needs to be in function.")
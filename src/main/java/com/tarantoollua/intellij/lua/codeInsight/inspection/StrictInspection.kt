@@ -17,6 +17,24 @@
 package com.tarantoollua.intellij.lua.codeInsight.inspection
 
 import com.intellij.codeInspection.LocalInspectionTool
+import com.intellij.psi.PsiElement
+import com.tarantoollua.intellij.lua.search.LuaSemanticModel
+import com.tarantoollua.intellij.lua.search.SearchContext
 
+/**
+ * Type checking inspections, they read types and declarations from the [LuaSemanticModel] of the file
+ * so an element is inferred once for all of them.
+ */
 abstract class StrictInspection : LocalInspectionTool() {
+
+    protected fun semanticModel(element: PsiElement): LuaSemanticModel {
+        return LuaSemanticModel.get(element.containingFile)
+    }
+
+    /**
+     * context of the checks not read from the model, without the time limit of the editor
+     */
+    protected fun searchContext(element: PsiElement): SearchContext {
+        return SearchContext.getUntimed(element.project)
+    }
 }
\ No newline at end of file
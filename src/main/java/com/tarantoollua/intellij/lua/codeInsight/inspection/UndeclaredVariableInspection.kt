@@ -21,15 +21,13 @@ import com.intellij.codeInspection.ProblemsHolder
 import com.intellij.psi.PsiElementVisitor
 import com.tarantoollua.intellij.lua.psi.LuaNameExpr
 import com.tarantoollua.intellij.lua.psi.LuaVisitor
-import com.tarantoollua.intellij.lua.psi.resolve
-import com.tarantoollua.intellij.lua.search.SearchContext
 
 class UndeclaredVariableInspection : StrictInspection() {
     override fun buildVisitor(myHolder: ProblemsHolder, isOnTheFly: Boolean, session: LocalInspectionToolSession): PsiElementVisitor =
             object : LuaVisitor() {
                 override fun visitNameExpr(o: LuaNameExpr) {
                     super.visitNameExpr(o)
-                    val res = resolve(o, SearchContext.get(o.project))
+                    val res = semanticModel(o).resolve(o)
 
                     if (res == null) {
                         myHolder.registerProblem(o, "Undeclared variable '%s'.".format(o.text))
@@ -19,8 +19,9 @@ package com.tarantoollua.intellij.lua.editor
 import com.intellij.navigation.GotoClassContributor
 import com.intellij.navigation.NavigationItem
 import com.intellij.openapi.project.Project
+import com.intellij.util.Processor
+import com.tarantoollua.intellij.lua.psi.search.LuaShortNamesManager
 import com.tarantoollua.intellij.lua.search.SearchContext
-import com.tarantoollua.intellij.lua.stubs.index.LuaClassIndex
 
 /**
  * Goto Class
@@ -34,12 +35,13 @@ class LuaClassNavigationContributor : GotoClassContributor {
     }
 
     override fun getNames(project: Project, b: Boolean): Array<String> {
-        val allClasses = LuaClassIndex.instance.getAllKeys(project)
+        val allClasses = mutableSetOf<String>()
+        LuaShortNamesManager.getInstance(project).processAllClassNames(project, Processor { allClasses.add(it) })
         return allClasses.toTypedArray()
     }
 
     override fun getItemsByName(s: String, s1: String, project: Project, b: Boolean): Array<NavigationItem> {
-        val classDef = LuaClassIndex.find(s, SearchContext.get(project))
+        val classDef = LuaShortNamesManager.getInstance(project).findClass(s, SearchContext.get(project))
         return if (classDef == null)
             emptyArray()
         else
@@ -57,7 +57,7 @@ open class ClassMemberCompletionProvider : LuaCompletionProvider() {
             val project = indexExpr.project
             val contextTy = LuaPsiTreeUtil.findContextClass(indexExpr)
             val context = SearchContext.get(project)
-            val prefixType = indexExpr.guessParentType(context)
+            val prefixType = guessMemberOwners(indexExpr, context)
             if (!Ty.isInvalid(prefixType)) {
                 complete(isColon, project, contextTy, prefixType, completionResultSet, completionResultSet.prefixMatcher, null)
             }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.ext
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.fileTypes.FileTypeEvent
+import com.intellij.openapi.fileTypes.FileTypeListener
+import com.intellij.openapi.fileTypes.FileTypeManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import com.tarantoollua.intellij.lua.lang.LuaFileType
+import com.tarantoollua.intellij.lua.project.LuaSettings
+import com.tarantoollua.intellij.lua.project.LuaSettingsListener
+import com.tarantoollua.intellij.lua.project.LuaSourceRootListener
+import com.tarantoollua.intellij.lua.project.LuaSourceRootManager
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Project level cache of [ILuaFileResolver.findLuaFile], from short path to file, files not found included.
+ *
+ * Everything is dropped when lua files or directories are created, deleted, moved or renamed,
+ * when source roots or the additional sources roots change and when the lua file associations change.
+ * Content changes keep the cache. Nothing is remembered in dumb mode, the fuzzy resolver needs the indexes.
+ */
+class LuaFileResolveCache(val project: Project) : Disposable {
+
+    private data class Key(val shortUrl: String, val extNames: List<String>)
+
+    /**
+     * @param file null if not found
+     * @param generation [generation] when the lookup started, entries of an older generation are stale
+     */
+    private class Entry(val file: VirtualFile?, val generation: Long)
+
+    private val files = ConcurrentHashMap<Key, Entry>()
+
+    // changed by every clear, a lookup running across a clear stores a stale entry
+    private val generation = AtomicLong()
+
+    init {
+        val connection = project.messageBus.connect(this)
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun after(events: List<VFileEvent>) {
+                if (events.any { isStructureChange(it) })
+                    clear()
+            }
+        })
+        ApplicationManager.getApplication().messageBus.connect(this).subscribe(LuaSettings.TOPIC, object : LuaSettingsListener {
+            override fun additionalSourcesRootChanged() = clear()
+        })
+        connection.subscribe(LuaSourceRootManager.TOPIC, object : LuaSourceRootListener {
+            override fun onChanged() = clear()
+        })
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun beforeRootsChange(event: ModuleRootEvent) {}
+
+            override fun rootsChanged(event: ModuleRootEvent) = clear()
+        })
+        connection.subscribe(FileTypeManager.TOPIC, object : FileTypeListener {
+            override fun beforeFileTypesChanged(event: FileTypeEvent) {}
+
+            override fun fileTypesChanged(event: FileTypeEvent) = clear()
+        })
+        connection.subscribe(DumbService.DUMB_MODE, object : DumbService.DumbModeListener {
+            override fun enteredDumbMode() {}
+
+            override fun exitDumbMode() = clear()
+        })
+    }
+
+    private fun isStructureChange(event: VFileEvent): Boolean {
+        return when (event) {
+            is VFileContentChangeEvent -> false
+            is VFilePropertyChangeEvent -> event.propertyName == VirtualFile.PROP_NAME &&
+                    (event.file.isDirectory || isLuaFile(event.oldValue as String) || isLuaFile(event.newValue as String))
+            is VFileCreateEvent -> event.isDirectory || isLuaFile(event.childName)
+            is VFileCopyEvent -> event.file.isDirectory || isLuaFile(event.newChildName)
+            // delete and move
+            else -> {
+                val file = event.file
+                file == null || file.isDirectory || isLuaFile(file.name)
+            }
+        }
+    }
+
+    private fun isLuaFile(name: String): Boolean {
+        return FileTypeManager.getInstance().getFileTypeByFileName(name) == LuaFileType.INSTANCE
+    }
+
+    fun find(shortUrl: String, extNames: Array<String>): VirtualFile? {
+        val key = Key(shortUrl, extNames.asList())
+        val current = generation.get()
+        val cached = files[key]
+        if (cached != null && cached.generation == current) {
+            val file = cached.file
+            if (file == null || file.isValid)
+                return file
+        }
+
+        val file = ILuaFileResolver.findLuaFile(project, shortUrl, extNames)
+        if (!DumbService.isDumb(project))
+            files[key] = Entry(file, current)
+        return file
+    }
+
+    fun clear() {
+        generation.incrementAndGet()
+        files.clear()
+    }
+
+    override fun dispose() {
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaFileResolveCache {
+            return ServiceManager.getService(project, LuaFileResolveCache::class.java)
+        }
+    }
+}
@@ -69,6 +69,7 @@ public class LuaIcons {
 
     public static class LineMarker {
         public static final Icon TailCall = getIcon("/icons/tail.png");
+        public static final Icon RequiredBy = getIcon("/icons/module.png");
     }
 
     public static class Debugger {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.profiler
+
+import com.google.gson.GsonBuilder
+import com.intellij.psi.PsiElement
+import com.tarantoollua.intellij.lua.search.LuaInferBudget
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Counters of the type engine, off until enabled from the "Lua Inference" tool window.
+ *
+ * Category times are wall times including nested calls. A file is charged with the self time of the
+ * measured calls made for it, nested calls for other files are charged to those files, and parsing is
+ * counted apart from inference, so the file totals add up to the time actually spent.
+ */
+object LuaInferProfiler {
+
+    enum class Category(val displayName: String) {
+        INFER_EXPR("inferExpr"),
+        INFER_INNER("inferInner"),
+        MEMBER_CHAIN("getMemberChain"),
+        SHORT_NAMES("LuaShortNamesManager"),
+        PARSE("parseContents"),
+        SUBSTITUTION("substitute"),
+        MODULE_SUMMARY("moduleSummary"),
+        SEMANTIC_MODEL("semanticModel")
+    }
+
+    class Counter {
+        val calls = LongAdder()
+        val nanos = LongAdder()
+        val parseNanos = LongAdder()
+        val hits = LongAdder()
+        val misses = LongAdder()
+        val guardTrips = LongAdder()
+        val budgetTrips = LongAdder()
+    }
+
+    data class Row(val category: String,
+                   val kind: String,
+                   val calls: Long,
+                   val timeMs: Double,
+                   val parseMs: Double,
+                   val hits: Long,
+                   val misses: Long,
+                   val guardTrips: Long,
+                   val budgetTrips: Long) {
+        val hitRatio: Double get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    data class Snapshot(val rows: List<Row>, val files: List<Row>)
+
+    @Volatile
+    var enabled = false
+
+    private val counters = ConcurrentHashMap<Pair<Category, String>, Counter>()
+    private val files = ConcurrentHashMap<String, Counter>()
+    private val frames = ThreadLocal.withInitial { ArrayList<Frame>() }
+
+    /**
+     * a measured call in progress, [file] is inherited from the caller when the call has none
+     */
+    private class Frame(val file: String?, val start: Long) {
+        var childNanos = 0L
+    }
+
+    private fun counter(category: Category, kind: String): Counter {
+        return counters.computeIfAbsent(Pair(category, kind)) { Counter() }
+    }
+
+    @PublishedApi
+    internal fun kindOf(psi: PsiElement): String = psi.javaClass.simpleName.removeSuffix("Impl")
+
+    @PublishedApi
+    internal fun fileOf(psi: PsiElement): String? {
+        val file = psi.containingFile ?: return null
+        return file.virtualFile?.path ?: file.name
+    }
+
+    inline fun <T> measure(category: Category, psi: PsiElement, action: () -> T): T {
+        if (!enabled)
+            return action()
+        return measure(category, kindOf(psi), fileOf(psi), action)
+    }
+
+    inline fun <T> measure(category: Category, kind: String, file: String? = null, action: () -> T): T {
+        if (!enabled)
+            return action()
+        enter(file)
+        try {
+            return action()
+        } finally {
+            exit(category, kind)
+        }
+    }
+
+    @PublishedApi
+    internal fun enter(file: String?) {
+        val stack = frames.get()
+        stack.add(Frame(file ?: stack.lastOrNull()?.file, System.nanoTime()))
+    }
+
+    @PublishedApi
+    internal fun exit(category: Category, kind: String) {
+        val stack = frames.get()
+        val frame = stack.removeAt(stack.size - 1)
+        val dt = System.nanoTime() - frame.start
+        stack.lastOrNull()?.let { it.childNanos += dt }
+        val counter = counter(category, kind)
+        counter.calls.increment()
+        counter.nanos.add(dt)
+        val file = frame.file ?: return
+        val fileCounter = files.computeIfAbsent(file) { Counter() }
+        val self = dt - frame.childNanos
+        if (category == Category.PARSE) {
+            fileCounter.parseNanos.add(self)
+        } else {
+            fileCounter.calls.increment()
+            fileCounter.nanos.add(self)
+        }
+    }
+
+    fun cacheHit(category: Category, kind: String) {
+        if (enabled)
+            counter(category, kind).hits.increment()
+    }
+
+    fun cacheMiss(category: Category, kind: String) {
+        if (enabled)
+            counter(category, kind).misses.increment()
+    }
+
+    fun cacheHit(category: Category, psi: PsiElement) {
+        if (enabled)
+            cacheHit(category, kindOf(psi))
+    }
+
+    fun cacheMiss(category: Category, psi: PsiElement) {
+        if (enabled)
+            cacheMiss(category, kindOf(psi))
+    }
+
+    fun guardTrip(psi: PsiElement) {
+        if (enabled) {
+            counter(Category.INFER_INNER, kindOf(psi)).guardTrips.increment()
+            fileOf(psi)?.let { files.computeIfAbsent(it) { Counter() }.guardTrips.increment() }
+        }
+    }
+
+    /**
+     * an inference of [psi] was refused because [limit] of the inference budget was reached
+     */
+    fun budgetTrip(psi: PsiElement, limit: LuaInferBudget.Limit) {
+        if (enabled) {
+            counter(Category.INFER_INNER, "${kindOf(psi)} (${limit.name.toLowerCase()} budget)").budgetTrips.increment()
+            fileOf(psi)?.let { files.computeIfAbsent(it) { Counter() }.budgetTrips.increment() }
+        }
+    }
+
+    fun reset() {
+        counters.clear()
+        files.clear()
+    }
+
+    fun snapshot(): Snapshot {
+        val rows = counters.map { (key, counter) -> toRow(key.first.displayName, key.second, counter) }
+                .sortedByDescending { it.timeMs }
+        val fileRows = files.map { (file, counter) -> toRow("file", file, counter) }
+                .sortedByDescending { it.timeMs }
+        return Snapshot(rows, fileRows)
+    }
+
+    fun toJson(): String {
+        return GsonBuilder().setPrettyPrinting().create().toJson(snapshot())
+    }
+
+    private fun toRow(category: String, kind: String, counter: Counter): Row {
+        return Row(category,
+                kind,
+                counter.calls.sum(),
+                counter.nanos.sum() / 1_000_000.0,
+                counter.parseNanos.sum() / 1_000_000.0,
+                counter.hits.sum(),
+                counter.misses.sum(),
+                counter.guardTrips.sum(),
+                counter.budgetTrips.sum())
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.profiler
+
+import com.intellij.icons.AllIcons
+import com.intellij.openapi.actionSystem.*
+import com.intellij.openapi.fileChooser.FileChooserFactory
+import com.intellij.openapi.fileChooser.FileSaverDescriptor
+import com.intellij.openapi.project.DumbAwareAction
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.SimpleToolWindowPanel
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.ui.OnePixelSplitter
+import com.intellij.ui.ScrollPaneFactory
+import com.intellij.ui.table.TableView
+import com.intellij.util.ui.ColumnInfo
+import com.intellij.util.ui.ListTableModel
+import java.awt.GridLayout
+import javax.swing.JPanel
+
+/**
+ * Shows the counters of [LuaInferProfiler], per PSI kind on the left and per file on the right
+ */
+class LuaInferProfilerPanel(val project: Project) : SimpleToolWindowPanel(false) {
+
+    private val rowModel = ListTableModel<LuaInferProfiler.Row>(
+            column("Category") { it.category },
+            column("Kind") { it.kind },
+            column("Calls") { it.calls },
+            column("Time (ms)") { String.format("%.1f", it.timeMs) },
+            column("Cache Hits") { String.format("%.0f%%", it.hitRatio * 100) },
+            column("Guard Trips") { it.guardTrips },
+            column("Budget Trips") { it.budgetTrips })
+
+    private val fileModel = ListTableModel<LuaInferProfiler.Row>(
+            column("File") { it.kind },
+            column("Calls") { it.calls },
+            column("Time (ms)") { String.format("%.1f", it.timeMs) },
+            column("Parse (ms)") { String.format("%.1f", it.parseMs) },
+            column("Guard Trips") { it.guardTrips },
+            column("Budget Trips") { it.budgetTrips })
+
+    init {
+        val group = DefaultActionGroup()
+        group.add(object : ToggleAction("Enable Profiling", null, AllIcons.Actions.Execute) {
+            override fun isSelected(e: AnActionEvent) = LuaInferProfiler.enabled
+
+            override fun setSelected(e: AnActionEvent, state: Boolean) {
+                LuaInferProfiler.enabled = state
+            }
+        })
+        group.add(object : DumbAwareAction("Refresh", null, AllIcons.Actions.Refresh) {
+            override fun actionPerformed(e: AnActionEvent) = refresh()
+        })
+        group.add(object : DumbAwareAction("Reset", null, AllIcons.Actions.GC) {
+            override fun actionPerformed(e: AnActionEvent) {
+                LuaInferProfiler.reset()
+                refresh()
+            }
+        })
+        group.add(object : DumbAwareAction("Export JSON", null, AllIcons.ToolbarDecorator.Export) {
+            override fun actionPerformed(e: AnActionEvent) = export()
+        })
+        val toolBarPanel = JPanel(GridLayout())
+        toolBarPanel.add(ActionManager.getInstance().createActionToolbar(ActionPlaces.UNKNOWN, group, false).component)
+        setToolbar(toolBarPanel)
+
+        val splitter = OnePixelSplitter(0.6f)
+        splitter.firstComponent = ScrollPaneFactory.createScrollPane(TableView(rowModel))
+        splitter.secondComponent = ScrollPaneFactory.createScrollPane(TableView(fileModel))
+        setContent(splitter)
+    }
+
+    private fun refresh() {
+        val snapshot = LuaInferProfiler.snapshot()
+        rowModel.items = snapshot.rows
+        fileModel.items = snapshot.files
+    }
+
+    private fun export() {
+        val descriptor = FileSaverDescriptor("Export Inference Profile", "Save the inference counters as JSON", "json")
+        val wrapper = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+                .save(null as VirtualFile?, "lua-infer-profile.json") ?: return
+        wrapper.file.writeText(LuaInferProfiler.toJson())
+    }
+
+    private fun column(name: String, value: (LuaInferProfiler.Row) -> Any): ColumnInfo<LuaInferProfiler.Row, Any> {
+        return object : ColumnInfo<LuaInferProfiler.Row, Any>(name) {
+            override fun valueOf(item: LuaInferProfiler.Row) = value(item)
+        }
+    }
+}
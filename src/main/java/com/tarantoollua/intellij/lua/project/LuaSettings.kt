@@ -20,11 +20,16 @@ import com.intellij.openapi.components.PersistentStateComponent
 import com.intellij.openapi.components.ServiceManager
 import com.intellij.openapi.components.State
 import com.intellij.openapi.components.Storage
+import com.intellij.util.messages.Topic
 import com.intellij.util.xmlb.XmlSerializerUtil
 import com.tarantoollua.intellij.lua.Constants
 import com.tarantoollua.intellij.lua.lang.LuaLanguageLevel
 import java.nio.charset.Charset
 
+interface LuaSettingsListener {
+    fun additionalSourcesRootChanged()
+}
+
 /**
  *
  * Created by tarantoolluazx on 2017/6/12.
@@ -66,6 +71,18 @@ class LuaSettings : PersistentStateComponent<LuaSettings> {
      */
     var tooLargerFileThreshold = 1024
 
+    /**
+     * budget of a single inference, see [com.tarantoollua.intellij.lua.search.LuaInferBudget], 0 for no limit
+     */
+    var inferMaxNodes = 50000
+
+    var inferMaxDepth = 500
+
+    /**
+     * (ms) only for the editor, inspections and batch runs are never limited by time
+     */
+    var inferTimeoutMillis = 1000L
+
     var attachDebugDefaultCharsetName = "UTF-8"
 
     var attachDebugCaptureStd = true
@@ -113,6 +130,10 @@ class LuaSettings : PersistentStateComponent<LuaSettings> {
             requireLikeFunctionNames = value.split(";").map { it.trim() }.toTypedArray()
         }
     companion object {
+        /**
+         * application level, published by the settings panel
+         */
+        val TOPIC: Topic<LuaSettingsListener> = Topic.create("lua settings changes", LuaSettingsListener::class.java)
 
         val instance: LuaSettings
             get() = ServiceManager.getService(LuaSettings::class.java)
@@ -17,6 +17,7 @@
 package com.tarantoollua.intellij.lua.project;
 
 import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileChooser.FileChooserDescriptor;
 import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
 import com.intellij.openapi.options.Configurable;
@@ -26,7 +27,9 @@ import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.FileContentUtil;
+import com.intellij.util.indexing.FileBasedIndex;
 import com.tarantoollua.intellij.lua.lang.LuaLanguageLevel;
+import com.tarantoollua.intellij.lua.stubs.index.LuaOutlineIndex;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -60,6 +63,9 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
     private com.intellij.openapi.ui.TextFieldWithBrowseButton tarantoolExe;
     private JTextField requireFunctionNames;
     private JTextField tooLargerFileThreshold;
+    private JTextField inferMaxNodes;
+    private JTextField inferMaxDepth;
+    private JTextField inferTimeoutMillis;
 
     public LuaSettingsPanel() {
         this.settings = LuaSettings.Companion.getInstance();
@@ -77,6 +83,12 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
         requireFunctionNames.setText(settings.getRequireLikeFunctionNamesString());
         tooLargerFileThreshold.setDocument(new IntegerDocument());
         tooLargerFileThreshold.setText(String.valueOf(settings.getTooLargerFileThreshold()));
+        inferMaxNodes.setDocument(new IntegerDocument());
+        inferMaxNodes.setText(String.valueOf(settings.getInferMaxNodes()));
+        inferMaxDepth.setDocument(new IntegerDocument());
+        inferMaxDepth.setText(String.valueOf(settings.getInferMaxDepth()));
+        inferTimeoutMillis.setDocument(new IntegerDocument());
+        inferTimeoutMillis.setText(String.valueOf(settings.getInferTimeoutMillis()));
 
         captureStd.setSelected(settings.getAttachDebugCaptureStd());
         captureOutputDebugString.setSelected(settings.getAttachDebugCaptureOutput());
@@ -115,6 +127,9 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
         return !StringUtil.equals(settings.getConstructorNamesString(), constructorNames.getText()) ||
                 !StringUtil.equals(settings.getRequireLikeFunctionNamesString(), requireFunctionNames.getText()) ||
                 settings.getTooLargerFileThreshold() != getTooLargerFileThreshold() ||
+                settings.getInferMaxNodes() != getInt(inferMaxNodes, settings.getInferMaxNodes()) ||
+                settings.getInferMaxDepth() != getInt(inferMaxDepth, settings.getInferMaxDepth()) ||
+                settings.getInferTimeoutMillis() != getInt(inferTimeoutMillis, (int) settings.getInferTimeoutMillis()) ||
                 settings.isStrictDoc() != strictDoc.isSelected() ||
                 settings.isSmartCloseEnd() != smartCloseEnd.isSelected() ||
                 settings.isShowWordsInFile() != showWordsInFile.isSelected() ||
@@ -136,14 +151,24 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
         constructorNames.setText(settings.getConstructorNamesString());
         settings.setRequireLikeFunctionNamesString(requireFunctionNames.getText());
         requireFunctionNames.setText(settings.getRequireLikeFunctionNamesString());
-        settings.setTooLargerFileThreshold(getTooLargerFileThreshold());
+        if (settings.getTooLargerFileThreshold() != getTooLargerFileThreshold()) {
+            settings.setTooLargerFileThreshold(getTooLargerFileThreshold());
+            // the outline only holds the files over the threshold
+            FileBasedIndex.getInstance().requestRebuild(LuaOutlineIndex.Companion.getNAME());
+        }
+        settings.setInferMaxNodes(getInt(inferMaxNodes, settings.getInferMaxNodes()));
+        settings.setInferMaxDepth(getInt(inferMaxDepth, settings.getInferMaxDepth()));
+        settings.setInferTimeoutMillis(getInt(inferTimeoutMillis, (int) settings.getInferTimeoutMillis()));
         settings.setStrictDoc(strictDoc.isSelected());
         settings.setSmartCloseEnd(smartCloseEnd.isSelected());
         settings.setShowWordsInFile(showWordsInFile.isSelected());
         settings.setEnforceTypeSafety(enforceTypeSafety.isSelected());
         settings.setNilStrict(nilStrict.isSelected());
         settings.setRecognizeGlobalNameAsType(recognizeGlobalNameAsCheckBox.isSelected());
-        settings.setAdditionalSourcesRoot(additionalRoots.getRoots());
+        if (!ArrayUtil.equals(settings.getAdditionalSourcesRoot(), additionalRoots.getRoots(), String::compareTo)) {
+            settings.setAdditionalSourcesRoot(additionalRoots.getRoots());
+            ApplicationManager.getApplication().getMessageBus().syncPublisher(LuaSettings.Companion.getTOPIC()).additionalSourcesRootChanged();
+        }
         settings.setEnableGeneric(enableGenericCheckBox.isSelected());
         settings.setAttachDebugCaptureOutput(captureOutputDebugString.isSelected());
         settings.setAttachDebugCaptureStd(captureStd.isSelected());
@@ -165,11 +190,15 @@ public class LuaSettingsPanel implements SearchableConfigurable, Configurable.No
     }
 
     private int getTooLargerFileThreshold() {
+        return getInt(tooLargerFileThreshold, settings.getTooLargerFileThreshold());
+    }
+
+    private static int getInt(JTextField field, int defaultValue) {
         int value;
         try {
-            value = Integer.parseInt(tooLargerFileThreshold.getText());
+            value = Integer.parseInt(field.getText());
         } catch (NumberFormatException e) {
-            value = settings.getTooLargerFileThreshold();
+            value = defaultValue;
         }
         return value;
     }
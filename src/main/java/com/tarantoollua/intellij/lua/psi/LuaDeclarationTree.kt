@@ -20,8 +20,10 @@ import com.intellij.openapi.util.Key
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
 import com.intellij.psi.PsiNamedElement
+import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.BitUtil
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 interface LuaDeclarationTree {
     companion object {
@@ -29,8 +31,9 @@ interface LuaDeclarationTree {
         fun get(file: PsiFile): LuaDeclarationTree {
             var ret = file.getUserData(key)
             if (ret != null && ret.shouldRebuild()) {
-                file.putUserData(key, null)
-                ret = null
+                // the outdated tree is left as is, other threads may still walk it
+                ret = ret.update()
+                file.putUserData(key, ret)
             }
             if (ret == null) {
                 var manager: LuaDeclarationTree? = null
@@ -43,6 +46,9 @@ interface LuaDeclarationTree {
                     }
                 }
                 if (manager == null) {
+                    // listen to the changes before building, so the tree can be updated incrementally
+                    if (file.isPhysical)
+                        LuaDeclarationTreeUpdater.getInstance(file.project)
                     manager = LuaDeclarationTreePsi(file)
                     manager.buildTree(file)
                 }
@@ -51,6 +57,14 @@ interface LuaDeclarationTree {
             }
             return ret
         }
+
+        /**
+         * called by [LuaDeclarationTreeUpdater] after the children of [parent] changed
+         */
+        fun childrenChanged(file: PsiFile, parent: PsiElement?) {
+            val tree = file.getUserData(key) as? LuaDeclarationTreePsi ?: return
+            tree.markDirty(parent)
+        }
     }
 
     interface IDeclaration {
@@ -63,8 +77,23 @@ interface LuaDeclarationTree {
     }
 
     fun shouldRebuild(): Boolean
+
+    /**
+     * try to bring an outdated tree up to date without rebuilding it
+     * @return an up to date copy of this tree, null if the tree should be rebuilt
+     */
+    fun update(): LuaDeclarationTree? = null
+
     fun find(expr: LuaExpr): IDeclaration?
     fun walkUp(pin: PsiElement, process: (declaration: IDeclaration) -> Boolean)
+    fun walkUp(pin: PsiElement, name: String, process: (declaration: IDeclaration) -> Boolean) {
+        walkUp(pin) {
+            if (it.name == name)
+                process(it)
+            else
+                true
+        }
+    }
     fun walkUpLocal(pin: PsiElement, process: (declaration: IDeclaration) -> Boolean) {
         walkUp(pin) {
             if (it.isLocal)
@@ -75,56 +104,148 @@ interface LuaDeclarationTree {
     }
 }
 
-private abstract class Node {
-    var next: Node? = null
-    var prev: Node? = null
-    abstract val pos: Int
-}
+/**
+ * a declaration or a scope. The position of a node is kept by the scope holding it and is relative to the start of that scope,
+ * so nodes do not move when an other scope of the file is rebuilt and are shared by the versions of a tree,
+ * see [LuaDeclarationTreePsi.update]
+ */
+private abstract class Node
 
-private abstract class NodeContainer : Node() {
-    protected val children = mutableListOf<Node>()
-    private var _first: Node? = null
-    private var _last: Node? = null
+/**
+ * a child of a container at [pos]
+ */
+private class Slot(val node: Node, val pos: Int)
 
-    fun add(child: Node) {
-        children.add(child)
-        if (_first == null)
-            _first = child
-        _last?.next = child
-        child.prev = _last
-        _last = child
-    }
+/**
+ * a declaration visible in a container, [anchor] is the child of the container holding it:
+ * the declaration itself or the scope of a `local` statement, at [pos]
+ */
+private class NamedEntry(val anchor: Node, val pos: Int, val declaration: Declaration)
 
-    fun <T> processNode(clazz: Class<T>, process: (node: T) -> Boolean): Boolean {
-        var cur: Node? = _first
-        while (cur != null) {
-            if (clazz.isInstance(cur)) {
-                if (!process(clazz.cast(cur)))
+private abstract class NodeContainer : Node() {
+    // sorted by pos
+    protected val children = mutableListOf<Slot>()
+    // name -> declarations sorted by the pos of their anchor
+    private val namedEntries = mutableMapOf<String, MutableList<NamedEntry>>()
+
+    /**
+     * children mostly come in order, but the left side of an assignment is declared before its scopes are visited:
+     * `t[function() end].x, b = 1` adds `b` before the closure
+     */
+    fun add(child: Node, pos: Int) {
+        var index = children.size
+        while (index > 0 && children[index - 1].pos > pos)
+            index--
+        children.add(index, Slot(child, pos))
+        if (child is Declaration)
+            addNamedEntry(NamedEntry(child, pos, child))
+    }
+
+    fun addNamedEntry(entry: NamedEntry) {
+        val list = namedEntries.getOrPut(entry.declaration.name) { mutableListOf() }
+        var index = list.size
+        while (index > 0 && list[index - 1].pos > entry.pos)
+            index--
+        list.add(index, entry)
+    }
+
+    /**
+     * @return index of the last child before [pos], -1 if there is none
+     */
+    fun lastIndexBefore(pos: Int): Int {
+        return lastIndexBefore(children.size, pos) { children[it].pos }
+    }
+
+    /**
+     * process the declarations named [name] before [pos] backward,
+     * the declarations of one `local` statement are processed forward like [Scope.walkOver]
+     */
+    fun processNamed(name: String, pos: Int, process: (declaration: Declaration) -> Boolean): Boolean {
+        val list = namedEntries[name] ?: return true
+        var i = lastIndexBefore(list.size, pos) { list[it].pos }
+        while (i >= 0) {
+            val anchor = list[i].anchor
+            var start = i
+            while (start > 0 && list[start - 1].anchor === anchor)
+                start--
+            for (j in start..i) {
+                if (!process(list[j].declaration))
                     return false
             }
-            cur = cur.next
+            i = start - 1
         }
         return true
     }
 
-    fun lastOrNull(predicate: (child: Node) -> Boolean): Node? {
-        var cur = _last
-        while (cur != null) {
-            if (predicate(cur))
-                return cur
-            cur = cur.prev
+    private inline fun lastIndexBefore(size: Int, pos: Int, posAt: (index: Int) -> Int): Int {
+        var low = 0
+        var high = size - 1
+        var ret = -1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (posAt(mid) < pos) {
+                ret = mid
+                low = mid + 1
+            } else high = mid - 1
         }
-        return null
+        return ret
     }
 
-    val first get() = _first
+    /**
+     * put [new] at [pos] in place of [old], [new] is added if [old] is not a child
+     */
+    fun replace(old: Node, new: Node, pos: Int) {
+        val index = children.indexOfFirst { it.node === old }
+        if (index < 0) {
+            add(new, pos)
+            return
+        }
+        children[index] = Slot(new, pos)
+        // the declarations of a copied `local` statement
+        namedEntries.values.forEach { list ->
+            list.replaceAll { if (it.anchor === old) NamedEntry(new, pos, it.declaration) else it }
+        }
+    }
 
-    val last get() = _last
+    /**
+     * move the children after [node] by [delta]
+     */
+    fun shiftAfter(node: Node, delta: Int) {
+        val index = children.indexOfFirst { it.node === node }
+        if (index < 0)
+            return
+        val pos = children[index].pos
+        for (i in index + 1 until children.size) {
+            val slot = children[i]
+            children[i] = Slot(slot.node, slot.pos + delta)
+        }
+        namedEntries.values.forEach { list ->
+            list.replaceAll { if (it.pos > pos) NamedEntry(it.anchor, it.pos + delta, it.declaration) else it }
+        }
+    }
+
+    /**
+     * the children of [copy] are the children of this container, the nodes themselves are shared
+     */
+    protected fun copyChildrenTo(copy: NodeContainer) {
+        copy.children.addAll(children)
+        namedEntries.forEach { (name, list) -> copy.namedEntries[name] = list.toMutableList() }
+    }
+
+    fun <T> processNode(clazz: Class<T>, process: (node: T) -> Boolean): Boolean {
+        for (slot in children) {
+            val node = slot.node
+            if (clazz.isInstance(node)) {
+                if (!process(clazz.cast(node)))
+                    return false
+            }
+        }
+        return true
+    }
 }
 
 private class Declaration(
         override val name: String,
-        override val pos: Int,
         override val psi: PsiNamedElement,
         val flags: Int,
         val prevDeclaration: Declaration? = null
@@ -135,8 +256,15 @@ private class Declaration(
         return children[name]
     }
 
-    fun addField(child: Declaration) {
-        children[child.name] = child
+    /**
+     * @return the field replaced by [child]
+     */
+    fun addField(child: Declaration): Declaration? {
+        return children.put(child.name, child)
+    }
+
+    fun processFields(process: (field: Declaration) -> Unit) {
+        children.values.forEach(process)
     }
 
     override val firstDeclaration: Declaration get() = prevDeclaration?.firstDeclaration ?: this
@@ -157,163 +285,394 @@ private class DeclarationFlag {
     }
 }
 
-private open class Scope(
-        val tree: LuaDeclarationTreeBase,
-        override val pos: Int,
-        val parent: Scope? = null
-) : NodeContainer() {
+/**
+ * a field added to a declaration while building a scope
+ */
+private class FieldRecord(val owner: Declaration, val field: Declaration)
+
+/**
+ * [scope] at [pos] in the scope of [parent]. Scopes are shared by the versions of a tree,
+ * where a scope is in one version is only known from the path walked down from the root
+ */
+private class ScopeRef(val scope: Scope, val pos: Int, val parent: ScopeRef?) {
+    val absolutePos: Int get() = pos + (parent?.absolutePos ?: 0)
+}
+
+private open class Scope(val psi: PsiElement) : NodeContainer() {
+
+    var length = 0
+
+    val fieldRecords = mutableListOf<FieldRecord>()
+
+    /**
+     * an empty scope of the same kind
+     */
+    open fun create(): Scope = Scope(psi)
+
+    /**
+     * a copy holding the same nodes, for a new version of the tree
+     */
+    fun copy(): Scope {
+        val result = create()
+        result.length = length
+        copyChildrenTo(result)
+        result.fieldRecords.addAll(fieldRecords)
+        return result
+    }
+
+    /**
+     * true if this scope or its children added fields to declarations out of it,
+     * such fields can not be taken back since the next scopes may have set them again
+     */
+    fun hasOuterFields(): Boolean {
+        val records = mutableListOf<FieldRecord>()
+        val declarations = Collections.newSetFromMap(IdentityHashMap<Declaration, Boolean>())
+        collect(records, declarations)
+        records.forEach { declarations.add(it.field) }
+        return records.any { !declarations.contains(it.owner) }
+    }
+
+    private fun collect(records: MutableList<FieldRecord>, declarations: MutableSet<Declaration>) {
+        records.addAll(fieldRecords)
+        processNode(Node::class.java) {
+            if (it is Scope)
+                it.collect(records, declarations)
+            else if (it is Declaration)
+                declarations.add(it)
+            true
+        }
+    }
 
     open fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
         return true
     }
 
-    open fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
-        var cur: Node? = lastOrNull { it.pos < pos }
-        while (cur != null) {
-            if (cur is Declaration && !process(cur))
-                return
-            if (cur is Scope && !cur.walkOver(process))
+    /**
+     * @param ref this scope in the version of the tree being walked
+     * @param name only process the declarations with this name, null for all
+     */
+    open fun walkUp(ref: ScopeRef, pos: Int, lev: Int, name: String?, process: (declaration: Declaration) -> Boolean) {
+        if (name != null) {
+            if (!processNamed(name, pos, process))
                 return
-            cur = cur.prev
+        } else {
+            var i = lastIndexBefore(pos)
+            while (i >= 0) {
+                val cur = children[i].node
+                if (cur is Declaration && !process(cur))
+                    return
+                if (cur is Scope && !cur.walkOver(process))
+                    return
+                i--
+            }
         }
-        parent?.walkUp(this.pos, lev + 1, process)
+        val parent = ref.parent ?: return
+        parent.scope.walkUp(parent, ref.pos, lev + 1, name, process)
     }
+}
 
-    private fun find(expr: LuaNameExpr): Declaration? {
-        val name = expr.name
-        var ret: Declaration? = null
-        walkUp(tree.getPosition(expr), 0) { if (it.name == name) { ret = it; false } else true }
-        return ret
+/**
+ * `local a = a`, the declarations are visible to the next statements of the parent
+ */
+private class LocalScope(psi: PsiElement) : Scope(psi) {
+    override fun create(): Scope = LocalScope(psi)
+
+    override fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
+        return processNode(Declaration::class.java, process)
     }
 
-    fun find(expr: LuaExpr): Declaration? {
-        if (expr is LuaNameExpr) {
-            return find(expr)
-        } else if (expr is LuaIndexExpr) {
-            val name = expr.name ?: return null
-            val declaration = find(expr.prefixExpr)
-            return declaration?.findField(name)
-        }
-        return null
+    override fun walkUp(ref: ScopeRef, pos: Int, lev: Int, name: String?, process: (declaration: Declaration) -> Boolean) {
+        val parent = ref.parent ?: return
+        parent.scope.walkUp(parent, ref.pos, lev, name, process)
     }
 }
 
-private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveVisitor(), LuaDeclarationTree {
-    companion object {
-        val scopeKey = Key.create<Scope>("lua.object.tree.scope")
+/**
+ * `repeat local a = false until a`
+ */
+private class RepeatScope(psi: PsiElement) : Scope(psi) {
+    override fun create(): Scope = RepeatScope(psi)
+
+    override fun walkUp(ref: ScopeRef, pos: Int, lev: Int, name: String?, process: (declaration: Declaration) -> Boolean) {
+        val block = children.firstOrNull()
+        val blockScope = block?.node as? Scope
+        if (lev == 0 && blockScope != null)
+            blockScope.walkUp(ScopeRef(blockScope, block.pos, ref), pos - block.pos, lev, name, process)
+        else super.walkUp(ref, pos, lev, name, process)
     }
+}
 
-    val modificationStamp: Long = file.modificationStamp
+/**
+ * `for _, a in ipairs(a) do end`
+ */
+private class ForBScope(psi: PsiElement) : Scope(psi) {
+    override fun create(): Scope = ForBScope(psi)
 
-    private val scopes = Stack<Scope>()
-    private var topScope: Scope? = null
-    private var curScope: Scope? = null
+    override fun walkUp(ref: ScopeRef, pos: Int, lev: Int, name: String?, process: (declaration: Declaration) -> Boolean) {
+        if (lev == 0) {
+            val parent = ref.parent ?: return
+            parent.scope.walkUp(parent, ref.pos + pos, lev, name, process)
+        } else super.walkUp(ref, pos, lev, name, process)
+    }
+}
 
-    override fun shouldRebuild(): Boolean {
-        return modificationStamp != file.modificationStamp
+private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveVisitor(), LuaDeclarationTree {
+    var modificationStamp: Long = file.modificationStamp
+        protected set
+
+    private val scopes = Stack<ScopeRef>()
+    private var topRef: ScopeRef? = null
+    private var curRef: ScopeRef? = null
+    // the scope replaced by the next pushed scope
+    private var rebuildingScope: Scope? = null
+    // declarations created while rebuilding a scope, the others are shared with the previous version
+    private var rebuiltDeclarations: MutableSet<Declaration>? = null
+    private var outerFieldAdded = false
+    // scopes of this version, not shared with the previous one
+    private val ownScopes = Collections.newSetFromMap(IdentityHashMap<Scope, Boolean>())
+    private var scopeMap = ConcurrentHashMap<PsiElement, Scope>()
+    // the version this one was updated from, for the scopes not in scopeMap
+    private var previous: LuaDeclarationTreeBase? = null
+    private var versions = 0
+
+    fun scopeOf(psi: PsiElement): Scope? = scopeMap[psi] ?: previous?.scopeOf(psi)
+
+    /**
+     * start as a new version of [tree], sharing all of its nodes
+     */
+    protected fun shareFrom(tree: LuaDeclarationTreeBase) {
+        synchronized(tree.scopes) {
+            topRef = tree.topRef
+            curRef = topRef
+            if (tree.versions < MAX_VERSIONS) {
+                previous = tree
+                versions = tree.versions + 1
+            } else tree.collectScopes(scopeMap)
+        }
     }
 
-    private fun push(psi: LuaDeclarationScope): Scope {
-        val pos = getPosition(psi)
-        if (psi is LuaLocalDef) { // local a = a
-            return push(object : Scope(this, pos, curScope) {
-                override fun walkOver(process: (declaration: Declaration) -> Boolean): Boolean {
-                    return processNode(Declaration::class.java, process)
-                }
+    private fun collectScopes(map: MutableMap<PsiElement, Scope>) {
+        previous?.collectScopes(map)
+        map.putAll(scopeMap)
+    }
 
-                override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
-                    parent?.walkUp(this.pos, lev, process)
-                }
-            }, psi)
-        }
-        if (psi is LuaRepeatStat) { // repeat local a = false until a
-            return push(object : Scope(this, pos, curScope) {
-                override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
-                    val blockScope = children.firstOrNull() as? Scope
-                    if (lev == 0 && blockScope != null)
-                        blockScope.walkUp(pos, lev, process)
-                    else super.walkUp(pos, lev, process)
-                }
-            }, psi)
-        }
-        if (psi is LuaForBStat) { // for _, a in ipairs(a) do end
-            return push(object : Scope(this, pos, curScope){
-                override fun walkUp(pos: Int, lev: Int, process: (declaration: Declaration) -> Boolean) {
-                    if (lev == 0) {
-                        this.parent?.walkUp(pos, lev, process)
-                    } else super.walkUp(pos, lev, process)
-                }
-            }, psi)
-        }
-        return push(Scope(this, pos, curScope), psi)
+    override fun shouldRebuild(): Boolean {
+        return modificationStamp != file.modificationStamp
     }
 
-    private fun push(scope: Scope, psi: PsiElement): Scope {
-        synchronized(scope) {
-            scopes.push(scope)
-            if (topScope == null)
-                topScope = scope
-            psi.putUserData(scopeKey, scope)
-            curScope?.add(scope)
-            curScope = scope
+    private fun push(psi: LuaDeclarationScope): Scope {
+        val pos = getPosition(psi) - (curRef?.absolutePos ?: 0)
+        val scope = when (psi) {
+            is LuaLocalDef -> LocalScope(psi)
+            is LuaRepeatStat -> RepeatScope(psi)
+            is LuaForBStat -> ForBScope(psi)
+            else -> Scope(psi)
         }
+        scope.length = getLength(psi)
+        val container = curRef?.scope
+        val replaced = rebuildingScope
+        if (replaced != null) {
+            rebuildingScope = null
+            container?.replace(replaced, scope, pos)
+        } else container?.add(scope, pos)
+        val ref = ScopeRef(scope, pos, curRef)
+        scopes.push(ref)
+        if (topRef == null)
+            topRef = ref
+        scopeMap[psi] = scope
+        ownScopes.add(scope)
+        curRef = ref
         return scope
     }
 
     private fun pop(): Scope {
-        synchronized(scopes) {
-            val pop = scopes.pop()
-            curScope = if (scopes.isEmpty()) topScope else scopes.peek()
-            return pop
-        }
+        val pop = scopes.pop()
+        curRef = if (scopes.isEmpty()) topRef else scopes.peek()
+        return pop.scope
     }
 
     fun buildTree(file: PsiFile) {
         synchronized(scopes) {
             //val t = System.currentTimeMillis()
             scopes.clear()
-            topScope = null
-            curScope = null
+            topRef = null
+            curRef = null
+            scopeMap = ConcurrentHashMap()
+            previous = null
+            versions = 0
+            ownScopes.clear()
             file.accept(this)
             //println("build tree : ${file.name}, ${System.currentTimeMillis() - t}")
         }
     }
 
-    abstract fun findScope(psi: PsiElement): Scope?
+    /**
+     * rebuild the scope of [psi] only, the nodes out of it are reused.
+     * The scopes from the root down to its parent are copied, the other scopes are shared with the previous version
+     * @return false if the scope of [psi] is unknown
+     */
+    protected fun rebuildScope(psi: PsiElement): Boolean {
+        synchronized(scopes) {
+            if (scopeOf(psi) == null)
+                return false
+            val oldRef = findScope(psi) ?: return false
+            val old = oldRef.scope
+            if (old.psi !== psi || old.hasOuterFields())
+                return false
+            val parent = copyPath(oldRef.parent ?: return false)
+
+            scopes.clear()
+            scopes.push(parent)
+            curRef = parent
+            rebuildingScope = old
+            rebuiltDeclarations = Collections.newSetFromMap(IdentityHashMap<Declaration, Boolean>())
+            outerFieldAdded = false
+            try {
+                psi.accept(this)
+            } finally {
+                rebuildingScope = null
+                rebuiltDeclarations = null
+                scopes.clear()
+                curRef = topRef
+            }
+
+            val scope = scopeOf(psi)
+            if (scope == null || scope === old || outerFieldAdded)
+                return false
+
+            // move the nodes after the rebuilt scope
+            val delta = scope.length - old.length
+            if (delta != 0) {
+                var cur: Scope = scope
+                var container = parent as ScopeRef?
+                while (container != null) {
+                    container.scope.shiftAfter(cur, delta)
+                    container.scope.length += delta
+                    cur = container.scope
+                    container = container.parent
+                }
+            }
+        }
+        return true
+    }
+
+    /**
+     * copy the scopes from the root down to [ref], each copy holds the copy of the next one
+     * @return the copy of [ref]
+     */
+    private fun copyPath(ref: ScopeRef): ScopeRef {
+        val parent = ref.parent?.let { copyPath(it) }
+        val scope = ref.scope
+        val copy = if (ownScopes.contains(scope)) scope else {
+            val copy = scope.copy()
+            ownScopes.add(copy)
+            scopeMap[copy.psi] = copy
+            parent?.scope?.replace(scope, copy, ref.pos)
+            copy
+        }
+        val result = ScopeRef(copy, ref.pos, parent)
+        if (parent == null)
+            topRef = result
+        return result
+    }
+
+    /**
+     * @param scopes the psi of the scopes containing an element, innermost first
+     * @return the innermost scope, null if it is unknown
+     */
+    protected fun createRef(scopes: List<PsiElement>): ScopeRef? {
+        if (scopes.isEmpty() || scopeOf(scopes[0]) == null)
+            return null
+        var ref: ScopeRef? = null
+        var parentPos = 0
+        for (i in scopes.indices.reversed()) {
+            val psi = scopes[i]
+            val scope = scopeOf(psi) ?: continue
+            val pos = getPosition(psi)
+            ref = ScopeRef(scope, pos - parentPos, ref)
+            parentPos = pos
+        }
+        return ref
+    }
+
+    abstract fun findScope(psi: PsiElement): ScopeRef?
 
     abstract fun getPosition(psi: PsiElement): Int
 
+    open fun getLength(psi: PsiElement): Int = 0
+
     override fun walkUp(pin: PsiElement, process: (declaration: LuaDeclarationTree.IDeclaration) -> Boolean) {
         assert(pin.containingFile == file)
-        val scope = findScope(pin)
-        scope?.walkUp(getPosition(pin), 0, process)
+        val ref = findScope(pin) ?: return
+        ref.scope.walkUp(ref, getPosition(pin) - ref.absolutePos, 0, null, process)
+    }
+
+    override fun walkUp(pin: PsiElement, name: String, process: (declaration: LuaDeclarationTree.IDeclaration) -> Boolean) {
+        assert(pin.containingFile == file)
+        val ref = findScope(pin) ?: return
+        ref.scope.walkUp(ref, getPosition(pin) - ref.absolutePos, 0, name, process)
     }
 
     private fun createDeclaration(name: String, psi: PsiNamedElement, flags: Int): Declaration {
         val first = if (psi is LuaExpr) find(psi) else null
-        return Declaration(name, getPosition(psi), psi, flags, first)
+        val declaration = Declaration(name, psi, flags, first)
+        rebuiltDeclarations?.add(declaration)
+        return declaration
+    }
+
+    private fun addDeclaration(declaration: Declaration) {
+        val ref = curRef ?: return
+        val pos = getPosition(declaration.psi) - ref.absolutePos
+        ref.scope.add(declaration, pos)
+        // `local a = a`, the declarations are visible to the next statements of the parent
+        if (ref.scope is LocalScope)
+            ref.parent?.scope?.addNamedEntry(NamedEntry(ref.scope, ref.pos, declaration))
+    }
+
+    private fun addField(owner: Declaration, field: Declaration) {
+        // declarations out of a rebuilt scope are shared with the previous version, they are left as is
+        val rebuilt = rebuiltDeclarations
+        if (rebuilt != null && !rebuilt.contains(owner)) {
+            outerFieldAdded = true
+            return
+        }
+        owner.addField(field)
+        curRef?.scope?.fieldRecords?.add(FieldRecord(owner, field))
+    }
+
+    private fun find(ref: ScopeRef, expr: LuaExpr): Declaration? {
+        if (expr is LuaNameExpr) {
+            var ret: Declaration? = null
+            ref.scope.walkUp(ref, getPosition(expr) - ref.absolutePos, 0, expr.name) { ret = it; false }
+            return ret
+        } else if (expr is LuaIndexExpr) {
+            val name = expr.name ?: return null
+            val declaration = find(ref, expr.prefixExpr)
+            return declaration?.findField(name)
+        }
+        return null
     }
 
     override fun find(expr: LuaExpr): Declaration? {
         if (expr is LuaIndexExpr || expr is LuaNameExpr) {
-            val scope = findScope(expr)
-            return scope?.find(expr)?.firstDeclaration
+            val ref = findScope(expr)
+            return ref?.let { find(it, expr) }?.firstDeclaration
         }
         return null
     }
 
     override fun visitNameDef(o: LuaNameDef) {
-        curScope?.add(createDeclaration(o.name, o, DeclarationFlag.Local))
+        addDeclaration(createDeclaration(o.name, o, DeclarationFlag.Local))
     }
 
     override fun visitParamNameDef(o: LuaParamNameDef) {
-        curScope?.add(createDeclaration(o.name, o, DeclarationFlag.Local))
+        addDeclaration(createDeclaration(o.name, o, DeclarationFlag.Local))
     }
 
     override fun visitLocalFuncDef(o: LuaLocalFuncDef) {
         val name = o.name
         if (name != null)
-            curScope?.add(createDeclaration(name, o, DeclarationFlag.Local or DeclarationFlag.Function))
+            addDeclaration(createDeclaration(name, o, DeclarationFlag.Local or DeclarationFlag.Function))
         super.visitLocalFuncDef(o)
     }
 
@@ -321,7 +680,9 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         val name = o.name
         if (name != null) {
             val parentExpr = o.classMethodName.expr
-            find(parentExpr)?.addField(createDeclaration(name, o, DeclarationFlag.Function or DeclarationFlag.ClassMember))
+            val owner = find(parentExpr)
+            if (owner != null)
+                addField(owner, createDeclaration(name, o, DeclarationFlag.Function or DeclarationFlag.ClassMember))
         }
         super.visitClassMethodDef(o)
     }
@@ -333,12 +694,14 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
         o.varExprList.exprList.forEach { expr ->
             if (expr is LuaNameExpr) {
                 val flags = find(expr)?.flags ?: DeclarationFlag.Global
-                curScope?.add(createDeclaration(expr.name, expr, flags))
+                addDeclaration(createDeclaration(expr.name, expr, flags))
             } else if (expr is LuaIndexExpr) {
                 val name = expr.name
-                if (name != null) {
-                    val declaration = curScope?.find(expr.prefixExpr)
-                    declaration?.addField(createDeclaration(name, expr, DeclarationFlag.ClassMember))
+                val ref = curRef
+                if (name != null && ref != null) {
+                    val declaration = find(ref, expr.prefixExpr)
+                    if (declaration != null)
+                        addField(declaration, createDeclaration(name, expr, DeclarationFlag.ClassMember))
                 }
             }
         }
@@ -356,23 +719,77 @@ private abstract class LuaDeclarationTreeBase(val file: PsiFile) : LuaRecursiveV
             pop()
         } else visitElementExt(element)
     }
+
+    companion object {
+        // versions looking up their scopes through the previous ones, the next version gets a map of its own
+        private const val MAX_VERSIONS = 8
+    }
 }
 
 private class LuaDeclarationTreePsi(file: PsiFile) : LuaDeclarationTreeBase(file) {
-    override fun findScope(psi: PsiElement): Scope? {
-        var cur: PsiElement? = psi
-        while (cur != null) {
-            if (cur is LuaDeclarationScope) {
-                var scope = cur.getUserData(scopeKey)
-                if (scope == null) {
-                    buildTree(psi.containingFile)
-                    scope = cur.getUserData(scopeKey)
+    private val dirtyScopes = mutableSetOf<PsiElement>()
+    private var dirtyFile = false
+
+    /**
+     * remember the innermost scope containing the change,
+     * `local` statements are skipped since their declarations are visible to the next statements
+     */
+    fun markDirty(element: PsiElement?) {
+        synchronized(dirtyScopes) {
+            var cur = element
+            while (cur != null && cur !is PsiFile) {
+                if (cur is LuaDeclarationScope && cur !is LuaLocalDef && scopeOf(cur) != null) {
+                    dirtyScopes.add(cur)
+                    return
                 }
-                return scope
+                cur = cur.parent
             }
+            dirtyFile = true
+        }
+    }
+
+    override fun update(): LuaDeclarationTree? {
+        val dirty: List<PsiElement>
+        synchronized(dirtyScopes) {
+            // changes were not observed, non-physical file for example
+            if (dirtyFile || dirtyScopes.isEmpty() || dirtyScopes.any { !it.isValid })
+                return null
+            dirty = dirtyScopes.toList()
+        }
+
+        // this tree is not modified: the new version copies the scopes from the root down to the rebuilt ones
+        // and shares the others
+        val tree = LuaDeclarationTreePsi(file)
+        tree.shareFrom(this)
+        // rebuild from the start of the file, so the positions of the next scopes are shifted once
+        val sorted = dirty.filter { psi -> dirty.none { it !== psi && PsiTreeUtil.isAncestor(it, psi, true) } }
+                .sortedBy { it.node.startOffset }
+        for (psi in sorted) {
+            if (!tree.rebuildScope(psi))
+                return null
+        }
+        return tree
+    }
+
+    override fun getLength(psi: PsiElement): Int {
+        return psi.textLength
+    }
+
+    override fun findScope(psi: PsiElement): ScopeRef? {
+        val scopes = mutableListOf<PsiElement>()
+        var cur: PsiElement? = psi
+        while (cur != null) {
+            if (cur is LuaDeclarationScope)
+                scopes.add(cur)
+            if (cur is PsiFile)
+                break
             cur = cur.parent
         }
-        return null
+        if (scopes.isEmpty())
+            return null
+        if (scopeOf(scopes[0]) == null)
+            buildTree(psi.containingFile)
+        return createRef(scopes)
     }
 
     override fun getPosition(psi: PsiElement): Int {
@@ -404,18 +821,19 @@ private class LuaDeclarationTreeStub(file: PsiFile) : LuaDeclarationTreeBase(fil
         } else super.visitElementExt(element)
     }
 
-    override fun findScope(psi: PsiElement): Scope? {
+    override fun findScope(psi: PsiElement): ScopeRef? {
         if (psi is STUB_PSI) {
             val stub = psi.stub
             if (stub != null) {
+                val scopes = mutableListOf<PsiElement>()
                 var cur: STUB_ELE? = stub
                 while (cur != null) {
                     val stubPsi = cur.psi
-                    if (stubPsi is LuaDeclarationScope)  {
-                        return stubPsi.getUserData(scopeKey)
-                    }
+                    if (stubPsi is LuaDeclarationScope)
+                        scopes.add(stubPsi)
                     cur = cur.parentStub
                 }
+                return createRef(scopes)
             }
         }
         return null
@@ -424,4 +842,4 @@ private class LuaDeclarationTreeStub(file: PsiFile) : LuaDeclarationTreeBase(fil
     override fun getPosition(psi: PsiElement): Int {
         return map.getOrPut(psi) { count++ }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.psi
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiManager
+import com.intellij.psi.PsiTreeChangeAdapter
+import com.intellij.psi.PsiTreeChangeEvent
+
+/**
+ * forward the PSI changes of lua files to their [LuaDeclarationTree],
+ * so only the changed scopes are rebuilt
+ */
+class LuaDeclarationTreeUpdater(project: Project) : PsiTreeChangeAdapter(), Disposable {
+
+    init {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(this, this)
+    }
+
+    override fun childAdded(event: PsiTreeChangeEvent) {
+        onChanged(event, event.parent)
+    }
+
+    override fun childRemoved(event: PsiTreeChangeEvent) {
+        onChanged(event, event.parent)
+    }
+
+    override fun childReplaced(event: PsiTreeChangeEvent) {
+        onChanged(event, event.parent)
+    }
+
+    override fun childrenChanged(event: PsiTreeChangeEvent) {
+        onChanged(event, event.parent)
+    }
+
+    override fun childMoved(event: PsiTreeChangeEvent) {
+        onChanged(event, event.oldParent)
+        onChanged(event, event.newParent)
+    }
+
+    private fun onChanged(event: PsiTreeChangeEvent, parent: PsiElement?) {
+        val file = event.file as? LuaPsiFile ?: return
+        LuaDeclarationTree.childrenChanged(file, parent)
+    }
+
+    override fun dispose() {
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaDeclarationTreeUpdater {
+            return ServiceManager.getService(project, LuaDeclarationTreeUpdater::class.java)
+        }
+    }
+}
@@ -26,7 +26,7 @@ import com.intellij.openapi.vfs.VfsUtil
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.openapi.vfs.VirtualFileManager
 import com.intellij.util.SmartList
-import com.tarantoollua.intellij.lua.ext.ILuaFileResolver
+import com.tarantoollua.intellij.lua.ext.LuaFileResolveCache
 import com.tarantoollua.intellij.lua.project.LuaSourceRootManager
 import java.io.File
 
@@ -96,7 +96,7 @@ object LuaFileUtil {
             fixedShortUrl = fixedShortUrl.substring(2)
         }
         val extensions = LuaFileManager.getInstance().extensions
-        return ILuaFileResolver.findLuaFile(project, fixedShortUrl, extensions)
+        return LuaFileResolveCache.getInstance(project).find(fixedShortUrl, extensions)
     }
 
     fun getShortPath(project: Project, file: VirtualFile): String {
@@ -20,6 +20,7 @@ import com.intellij.extapi.psi.PsiFileBase
 import com.intellij.openapi.fileTypes.FileType
 import com.intellij.openapi.util.Key
 import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.FileViewProvider
 import com.intellij.psi.PsiElement
 import com.intellij.psi.util.CachedValue
@@ -31,6 +32,7 @@ import com.tarantoollua.intellij.lua.lang.LuaFileType
 import com.tarantoollua.intellij.lua.lang.LuaLanguage
 import com.tarantoollua.intellij.lua.project.LuaSettings
 import com.tarantoollua.intellij.lua.stubs.LuaFileStub
+import com.tarantoollua.intellij.lua.stubs.LuaStubInference
 import com.tarantoollua.intellij.lua.util.Strings
 
 /**
@@ -53,11 +55,7 @@ open class LuaPsiFile(fileViewProvider: FileViewProvider) : PsiFileBase(fileView
         return "$name[$hashCode]"
     }
 
-    val tooLarger: Boolean get() {
-        val fileLimit = LuaSettings.instance.tooLargerFileThreshold * 1024
-        val fileSize = viewProvider.virtualFile.length
-        return fileSize > fileLimit
-    }
+    val tooLarger: Boolean get() = isTooLarger(viewProvider.virtualFile)
 
     override fun setName(name: String): PsiElement {
         return if (FileUtil.getNameWithoutExtension(name) == name) {
@@ -71,6 +69,15 @@ open class LuaPsiFile(fileViewProvider: FileViewProvider) : PsiFileBase(fileView
             return if (stub != null) stub.module else findCachedModuleName()
         }
 
+    /**
+     * class returned by the top level `return` of the file, read from the stub if there is one
+     */
+    val exportedClassName: String?
+        get() {
+            val stub = stub as? LuaFileStub
+            return if (stub != null) stub.exportedClass else findCachedExportedClass()
+        }
+
     /**
      * Lua language version
      */
@@ -82,6 +89,12 @@ open class LuaPsiFile(fileViewProvider: FileViewProvider) : PsiFileBase(fileView
         }
     }
 
+    private fun findCachedExportedClass(): String? {
+        return CachedValuesManager.getCachedValue(this, KEY_CACHED_EXPORTED_CLASS) {
+            CachedValueProvider.Result.create(LuaStubInference.inferExportedClass(this), this)
+        }
+    }
+
     private fun findModuleName():String? {
         var child: PsiElement? = firstChild
         while (child != null) {
@@ -111,5 +124,14 @@ open class LuaPsiFile(fileViewProvider: FileViewProvider) : PsiFileBase(fileView
 
     companion object {
         private val KEY_CACHED_MODULE_NAME = Key.create<CachedValue<String?>>("lua.file.module.name")
+        private val KEY_CACHED_EXPORTED_CLASS = Key.create<CachedValue<String?>>("lua.file.exported.class")
+
+        /**
+         * files over [LuaSettings.tooLargerFileThreshold] only have a file stub, see [com.tarantoollua.intellij.lua.stubs.index.LuaOutlineIndex]
+         */
+        fun isTooLarger(file: VirtualFile): Boolean {
+            val fileLimit = LuaSettings.instance.tooLargerFileThreshold * 1024
+            return file.length > fileLimit
+        }
     }
 }
\ No newline at end of file
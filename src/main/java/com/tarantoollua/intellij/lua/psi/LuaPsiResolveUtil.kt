@@ -23,7 +23,9 @@ import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.Processor
 import com.tarantoollua.intellij.lua.Constants
 import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.LuaStubInference
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tarantoollua.intellij.lua.ty.ITy
 
 fun resolveLocal(ref: LuaNameExpr, context: SearchContext? = null) = resolveLocal(ref.name, ref, context)
 
@@ -34,10 +36,9 @@ fun resolveLocal(refName:String, ref: PsiElement, context: SearchContext? = null
 
 fun resolveInFile(refName:String, pin: PsiElement, context: SearchContext?): PsiElement? {
     var ret: PsiElement? = null
-    LuaDeclarationTree.get(pin.containingFile).walkUp(pin) { decl ->
-        if (decl.name == refName)
-            ret = decl.firstDeclaration.psi
-        ret == null
+    LuaDeclarationTree.get(pin.containingFile).walkUp(pin, refName) { decl ->
+        ret = decl.firstDeclaration.psi
+        false
     }
 
     if (ret == null && refName == Constants.WORD_SELF) {
@@ -119,10 +120,18 @@ fun multiResolve(ref: LuaNameExpr, context: SearchContext): Array<PsiElement> {
     return list.toTypedArray()
 }
 
+/**
+ * classes the member of [indexExpr] is looked up in: the type of its prefix
+ * and the symbolic owners the members may be indexed under, which are not part of that type
+ */
+fun guessMemberOwners(indexExpr: LuaIndexExpr, context: SearchContext): ITy {
+    return indexExpr.guessParentType(context).union(LuaStubInference.inferOwners(indexExpr))
+}
+
 fun multiResolve(indexExpr: LuaIndexExpr, context: SearchContext): List<PsiElement> {
     val list = mutableListOf<PsiElement>()
     val name = indexExpr.name ?: return list
-    val type = indexExpr.guessParentType(context)
+    val type = guessMemberOwners(indexExpr, context)
     type.eachTopClass(Processor { ty ->
         val m = ty.findMember(name, context)
         if (m != null)
@@ -145,7 +154,7 @@ fun resolve(indexExpr: LuaIndexExpr, context: SearchContext): PsiElement? {
 }
 
 fun resolve(indexExpr: LuaIndexExpr, idString: String, context: SearchContext): PsiElement? {
-    val type = indexExpr.guessParentType(context)
+    val type = guessMemberOwners(indexExpr, context)
     var ret: PsiElement? = null
     type.eachTopClass(Processor { ty ->
         ret = ty.findMember(idString, context)
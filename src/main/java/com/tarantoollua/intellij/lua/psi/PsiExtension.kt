@@ -85,9 +85,7 @@ private fun LuaExpr.shouldBeInternal(context: SearchContext): ITy {
             fTy.each {
                 if (it is ITyFunction) {
                     it.process { signature ->
-                        var solvedSignature = signature
-                        val substitutor = p2.createSubstitutor(solvedSignature, context)
-                        if (substitutor != null) solvedSignature = solvedSignature.substitute(substitutor)
+                        val solvedSignature = GenericSubstitutionCache.getInstance(p2.project).substitute(p2, signature, context)
 
                         ret = ret.union(solvedSignature.getParamTyEx(p2, idx))
                         true
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.psi.search
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.search.ProjectAndLibrariesScope
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.util.Processor
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import com.tarantoollua.intellij.lua.search.InferDependencies
+import com.tarantoollua.intellij.lua.search.LuaFileChangeTracker
+import com.tarantoollua.intellij.lua.stubs.LuaDocTagClassStub
+import com.tarantoollua.intellij.lua.stubs.index.LuaSuperClassIndex
+import com.tarantoollua.intellij.lua.stubs.index.StubKeys
+import com.tarantoollua.intellij.lua.ty.Ty
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Transitive closure of the `---@class A : B` declarations of the project, built from [LuaSuperClassIndex].
+ *
+ * The index is read once, then the declarations of each file are kept:
+ * after an edit only the changed files are read again, from their stubs, see [LuaFileChangeTracker].
+ * The full set of ancestors of a class is computed on first use and remembered until a declaration changes,
+ * so inheritance checks are a set lookup instead of a walk through [LuaShortNamesManager.findClass].
+ * Built-in types are never ancestors, the same as [com.tarantoollua.intellij.lua.ty.TyClass.processSuperClass].
+ */
+class LuaClassHierarchy(val project: Project) {
+
+    private data class Edge(val className: String, val superClassName: String)
+
+    /**
+     * @param tick of [LuaFileChangeTracker] when the declarations were read
+     * @param version changes with the declarations, kept when the changed files declare the same classes
+     * @param superClasses class name -> super class name -> number of files declaring it
+     */
+    private class Hierarchy(val tick: Long,
+                            val version: Long,
+                            val files: Map<VirtualFile, Set<Edge>>,
+                            val superClasses: Map<String, Map<String, Int>>,
+                            val ancestors: ConcurrentHashMap<String, Set<String>> = ConcurrentHashMap())
+
+    @Volatile
+    private var hierarchy: Hierarchy? = null
+
+    private fun getHierarchy(): Hierarchy {
+        val tracker = LuaFileChangeTracker.getInstance(project)
+        // read first, a change while reading the declarations is seen by the next call
+        val tick = tracker.tick
+        val current = hierarchy
+        val changed = if (current == null) null else tracker.getChangedFiles(current.tick)
+        if (current != null && changed != null && changed.isEmpty())
+            return current
+        // no lock is held while reading the indexes, concurrent updates compute the same declarations
+        val result = if (current == null || changed == null)
+            buildHierarchy(tick, (current?.version ?: 0) + 1)
+        else update(current, tick, changed)
+        hierarchy = result
+        return result
+    }
+
+    private fun buildHierarchy(tick: Long, version: Long): Hierarchy {
+        val scope = ProjectAndLibrariesScope(project)
+        val files = mutableMapOf<VirtualFile, MutableSet<Edge>>()
+        val superNames = mutableListOf<String>()
+        StubIndex.getInstance().processAllKeys(StubKeys.SUPER_CLASS, project, Processor {
+            superNames.add(it)
+            true
+        })
+        for (superName in superNames) {
+            if (Ty.getBuiltin(superName) != null)
+                continue
+            LuaSuperClassIndex.process(superName, project, scope, Processor {
+                val name = it.name
+                val file = it.containingFile?.virtualFile
+                if (name != superName && file != null)
+                    files.getOrPut(file) { mutableSetOf() }.add(Edge(name, superName))
+                true
+            })
+        }
+        val superClasses = mutableMapOf<String, Map<String, Int>>()
+        files.values.forEach { edges -> edges.forEach { addEdge(superClasses, it, 1) } }
+        return Hierarchy(tick, version, files, superClasses)
+    }
+
+    private fun update(current: Hierarchy, tick: Long, changed: Collection<VirtualFile>): Hierarchy {
+        val files = current.files.toMutableMap()
+        val superClasses = current.superClasses.toMutableMap()
+        var modified = false
+        for (file in changed) {
+            val old = files[file] ?: emptySet()
+            val new = readEdges(file)
+            if (old == new)
+                continue
+            modified = true
+            if (new.isEmpty()) files.remove(file) else files[file] = new
+            old.forEach { addEdge(superClasses, it, -1) }
+            new.forEach { addEdge(superClasses, it, 1) }
+        }
+        // edits of function bodies keep the declarations and the ancestors computed so far
+        if (!modified)
+            return Hierarchy(tick, current.version, current.files, current.superClasses, current.ancestors)
+        return Hierarchy(tick, current.version + 1, files, superClasses)
+    }
+
+    /**
+     * the inner maps are copied before they are changed, the previous hierarchy may still be read
+     */
+    private fun addEdge(superClasses: MutableMap<String, Map<String, Int>>, edge: Edge, delta: Int) {
+        val supers = (superClasses[edge.className] ?: emptyMap()).toMutableMap()
+        val count = (supers[edge.superClassName] ?: 0) + delta
+        if (count > 0) supers[edge.superClassName] = count else supers.remove(edge.superClassName)
+        if (supers.isEmpty()) superClasses.remove(edge.className) else superClasses[edge.className] = supers
+    }
+
+    private fun readEdges(file: VirtualFile): Set<Edge> {
+        if (!file.isValid || !ProjectAndLibrariesScope(project).contains(file))
+            return emptySet()
+        val psiFile = PsiManager.getInstance(project).findFile(file) as? LuaPsiFile ?: return emptySet()
+        // built from the current PSI when it is loaded, read from the index otherwise
+        val stubTree = (psiFile as PsiFileImpl).calcStubTree()
+        val edges = mutableSetOf<Edge>()
+        stubTree.plainList.forEach { stub ->
+            if (stub is LuaDocTagClassStub) {
+                val superName = stub.superClassName
+                if (superName != null && superName != stub.className && Ty.getBuiltin(superName) == null)
+                    edges.add(Edge(stub.className, superName))
+            }
+        }
+        return edges
+    }
+
+    /**
+     * changes when a `---@class A : B` declaration of the project changes
+     */
+    val version: Long get() = getHierarchy().version
+
+    /**
+     * All direct and indirect super classes of [className],
+     * contains [className] itself if the inheritance is cyclic
+     */
+    fun getAncestors(className: String): Set<String> {
+        val hierarchy = getHierarchy()
+        InferDependencies.recordHierarchy(hierarchy.version)
+        return hierarchy.ancestors.getOrPut(className) {
+            val result = mutableSetOf<String>()
+            val queue = ArrayDeque<String>()
+            queue.add(className)
+            while (queue.isNotEmpty()) {
+                hierarchy.superClasses[queue.removeFirst()]?.keys?.forEach {
+                    // visited names are not expanded again, this stops at cycles
+                    if (result.add(it))
+                        queue.add(it)
+                }
+            }
+            if (result.isEmpty()) emptySet() else result
+        }
+    }
+    fun isSubClassOf(className: String, superClassName: String): Boolean {
+        return superClassName in getAncestors(className)
+    }
+
+    fun isCyclic(className: String): Boolean {
+        return isSubClassOf(className, className)
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaClassHierarchy {
+            return ServiceManager.getService(project, LuaClassHierarchy::class.java)
+        }
+    }
+}
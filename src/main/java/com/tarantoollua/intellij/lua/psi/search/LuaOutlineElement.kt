@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.psi.search
+
+import com.intellij.openapi.fileEditor.OpenFileDescriptor
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.impl.FakePsiElement
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.IncorrectOperationException
+import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagClass
+import com.tarantoollua.intellij.lua.lang.LuaIcons
+import com.tarantoollua.intellij.lua.psi.LuaClass
+import com.tarantoollua.intellij.lua.psi.LuaClassMember
+import com.tarantoollua.intellij.lua.psi.Visibility
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.index.LuaOutlineIndex
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.lua.ty.ITyClass
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.lua.ty.createSerializedClass
+import javax.swing.Icon
+
+/**
+ * An entry of [LuaOutlineIndex] standing in for the PSI at its offset in a file too large to have child stubs.
+ *
+ * The name comes from the index and navigation opens the offset, neither reads nor parses the file.
+ * Everything else is asked to the PSI found at the offset, the file is parsed the first time it is needed.
+ */
+abstract class LuaOutlineElement<T : PsiElement>(private val psiManager: PsiManager,
+                                                 val virtualFile: VirtualFile,
+                                                 protected val entry: LuaOutlineIndex.Entry,
+                                                 private val elementClass: Class<T>) : FakePsiElement() {
+
+    private val offset get() = entry.offset
+
+    /**
+     * the PSI at the offset, parses the file
+     */
+    protected val element: T? get() {
+        val psiFile = containingFile ?: return null
+        return PsiTreeUtil.getParentOfType(psiFile.findElementAt(offset), elementClass)
+    }
+
+    override fun getName() = entry.name
+
+    override fun setName(name: String): PsiElement {
+        throw IncorrectOperationException("outline entries can not be renamed")
+    }
+
+    override fun getProject(): Project = psiManager.project
+
+    override fun getManager() = psiManager
+
+    override fun getParent(): PsiElement? = containingFile
+
+    override fun getContainingFile(): PsiFile? = if (virtualFile.isValid) psiManager.findFile(virtualFile) else null
+
+    override fun isValid() = virtualFile.isValid
+
+    override fun getTextOffset() = offset
+
+    override fun getTextRange() = TextRange(offset, offset + name.length)
+
+    override fun getPresentableText() = name
+
+    override fun getLocationString() = virtualFile.name
+
+    override fun canNavigate() = virtualFile.isValid
+
+    override fun canNavigateToSource() = canNavigate()
+
+    override fun navigate(requestFocus: Boolean) {
+        OpenFileDescriptor(project, virtualFile, offset).navigate(requestFocus)
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is LuaOutlineElement<*> && other.javaClass == javaClass && other.virtualFile == virtualFile && other.offset == offset
+    }
+
+    override fun hashCode() = virtualFile.hashCode() * 31 + offset
+}
+
+/**
+ * `---@class` of the outline, the type comes from the tag
+ */
+class LuaOutlineClass(psiManager: PsiManager, virtualFile: VirtualFile, entry: LuaOutlineIndex.Entry)
+    : LuaOutlineElement<LuaDocTagClass>(psiManager, virtualFile, entry, LuaDocTagClass::class.java), LuaClass {
+
+    override val type: ITyClass get() = element?.type ?: createSerializedClass(name)
+
+    override fun getIcon(open: Boolean): Icon = LuaIcons.CLASS
+}
+
+/**
+ * `---@field`, function or global assignment of the outline
+ */
+class LuaOutlineMember(psiManager: PsiManager, virtualFile: VirtualFile, entry: LuaOutlineIndex.Entry)
+    : LuaOutlineElement<LuaClassMember>(psiManager, virtualFile, entry, LuaClassMember::class.java), LuaClassMember {
+
+    /**
+     * the kind of the member, told by the outline scanner from the word before its name
+     */
+    override val worth: Int get() = entry.worth
+
+    override fun guessType(context: SearchContext): ITy = element?.guessType(context) ?: Ty.UNKNOWN
+
+    override fun guessParentType(context: SearchContext): ITy = element?.guessParentType(context) ?: Ty.UNKNOWN
+
+    override val visibility: Visibility get() = element?.visibility ?: Visibility.PUBLIC
+
+    override val isDeprecated: Boolean get() = element?.isDeprecated ?: false
+
+    override fun getIcon(open: Boolean): Icon = if (worth == LuaClassMember.WORTH_METHOD_DEF) LuaIcons.CLASS_METHOD else LuaIcons.CLASS_FIELD
+}
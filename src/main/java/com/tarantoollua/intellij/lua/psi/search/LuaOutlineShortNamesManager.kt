@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.psi.search
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiManager
+import com.intellij.util.Processor
+import com.tarantoollua.intellij.lua.psi.LuaClass
+import com.tarantoollua.intellij.lua.psi.LuaClassMember
+import com.tarantoollua.intellij.lua.search.InferDependencies
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.index.LuaOutlineIndex
+import com.tarantoollua.intellij.lua.ty.ITyClass
+import com.tarantoollua.intellij.lua.ty.TyParameter
+
+/**
+ * Classes and members of the files too large to have child stubs, found through [LuaOutlineIndex].
+ * They are returned as [LuaOutlineElement]s, a file is only parsed when the type of one of them is needed.
+ */
+class LuaOutlineShortNamesManager : LuaShortNamesManager() {
+
+    private inline fun <T : PsiElement> process(key: String,
+                                                context: SearchContext,
+                                                crossinline create: (PsiManager, VirtualFile, LuaOutlineIndex.Entry) -> T,
+                                                crossinline processor: (T) -> Boolean): Boolean {
+        if (context.isDumb)
+            return true
+        val psiManager = PsiManager.getInstance(context.project)
+        InferDependencies.recordLookup(context.project, LuaOutlineIndex.NAME, key)
+        return LuaOutlineIndex.process(key, context.scope) { file, entry ->
+            processor(create(psiManager, file, entry))
+        }
+    }
+
+    override fun findClass(name: String, context: SearchContext): LuaClass? {
+        var clazz: LuaClass? = null
+        processClassesWithName(name, context, Processor {
+            clazz = it
+            false
+        })
+        return clazz
+    }
+
+    override fun findMember(type: ITyClass, fieldName: String, context: SearchContext): LuaClassMember? {
+        var member: LuaClassMember? = null
+        processAllMembers(type, fieldName, context, Processor {
+            member = it
+            false
+        })
+        return member
+    }
+
+    override fun processAllClassNames(project: Project, processor: Processor<String>): Boolean {
+        return LuaOutlineIndex.processClassNames(project, processor)
+    }
+
+    override fun processClassesWithName(name: String, context: SearchContext, processor: Processor<LuaClass>): Boolean {
+        return process(LuaOutlineIndex.getClassKey(name), context, ::LuaOutlineClass) { processor.process(it) }
+    }
+
+    override fun getClassMembers(clazzName: String, context: SearchContext): Collection<LuaClassMember> {
+        val list = mutableListOf<LuaClassMember>()
+        process(LuaOutlineIndex.getMembersKey(clazzName), context, ::LuaOutlineMember) { list.add(it) }
+        return list
+    }
+
+    override fun processAllMembers(type: ITyClass, fieldName: String, context: SearchContext, processor: Processor<LuaClassMember>): Boolean {
+        val className = if (type is TyParameter) type.superClassName ?: return true else type.className
+        return process(LuaOutlineIndex.getMemberKey(className, fieldName), context, ::LuaOutlineMember) { processor.process(it) }
+    }
+}
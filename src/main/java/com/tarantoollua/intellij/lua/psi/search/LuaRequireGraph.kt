@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.psi.search
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.PsiTreeChangeAdapter
+import com.intellij.psi.PsiTreeChangeEvent
+import com.intellij.psi.search.ProjectAndLibrariesScope
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.util.indexing.FileBasedIndex
+import com.tarantoollua.intellij.lua.lang.LuaFileType
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import com.tarantoollua.intellij.lua.psi.resolveRequireFile
+import com.tarantoollua.intellij.lua.stubs.index.LuaRequireIndex
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Which files require which, built from [LuaRequireIndex].
+ *
+ * The graph is built once and rebuilt only when files are added, removed or moved, when the roots change
+ * or when indexing ends, all of which may change where a module path resolves.
+ * An edit of a file only updates the edges of that file: its require calls are lexed again
+ * and the changed paths resolved, the first query after the edit does it.
+ * Nothing is known in dumb mode.
+ */
+class LuaRequireGraph(val project: Project) : PsiTreeChangeAdapter(), Disposable {
+
+    /**
+     * mutable, guarded by itself
+     */
+    private class Graph {
+        val requires = HashMap<VirtualFile, Set<String>>()
+        val dependencies = HashMap<VirtualFile, MutableSet<VirtualFile>>()
+        val dependents = HashMap<VirtualFile, MutableSet<VirtualFile>>()
+
+        fun addEdge(file: VirtualFile, target: VirtualFile) {
+            dependencies.getOrPut(file) { mutableSetOf() }.add(target)
+            dependents.getOrPut(target) { mutableSetOf() }.add(file)
+        }
+
+        fun removeFile(file: VirtualFile) {
+            requires.remove(file)
+            dependencies.remove(file)?.forEach { dependents[it]?.remove(file) }
+        }
+    }
+
+    // edited files, their edges are updated by the next query
+    private val changedFiles: MutableSet<VirtualFile> = ConcurrentHashMap.newKeySet()
+
+    private val cachedGraph: CachedValue<Graph> = CachedValuesManager.getManager(project).createCachedValue({
+        CachedValueProvider.Result.create(buildGraph(),
+                VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS,
+                ProjectRootModificationTracker.getInstance(project),
+                DumbService.getInstance(project).modificationTracker)
+    }, false)
+
+    init {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(this, this)
+        val connection = project.messageBus.connect(this)
+        // edits outside of the IDE, the PSI of the file may not be loaded
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun before(events: MutableList<out VFileEvent>) {}
+
+            override fun after(events: MutableList<out VFileEvent>) {
+                for (event in events) {
+                    val file = event.file
+                    if (event is VFileContentChangeEvent && file != null && file.fileType == LuaFileType.INSTANCE)
+                        changedFiles.add(file)
+                }
+            }
+        })
+    }
+
+    private fun buildGraph(): Graph {
+        // changed files are not dropped here, updating them again on the new graph finds nothing to do
+        val graph = Graph()
+        if (DumbService.isDumb(project))
+            return graph
+
+        val index = FileBasedIndex.getInstance()
+        val scope = ProjectAndLibrariesScope(project)
+        val requires = mutableMapOf<VirtualFile, MutableSet<String>>()
+        // the keys are read first, the index can not be queried while its keys are processed
+        for (path in index.getAllKeys(LuaRequireIndex.NAME, project)) {
+            ProgressManager.checkCanceled()
+            val files = index.getContainingFiles(LuaRequireIndex.NAME, path, scope)
+            if (files.isEmpty())
+                continue
+            val target = resolveRequireFile(path, project)?.virtualFile
+            for (file in files) {
+                requires.getOrPut(file) { mutableSetOf() }.add(path)
+                if (target != null)
+                    graph.addEdge(file, target)
+            }
+        }
+        graph.requires.putAll(requires)
+        return graph
+    }
+
+    private fun updateFile(graph: Graph, file: VirtualFile) {
+        // the text is lexed without building the PSI of files that are not open
+        val paths = if (file.isValid && file.fileType == LuaFileType.INSTANCE) {
+            val text = FileDocumentManager.getInstance().getCachedDocument(file)?.charsSequence ?: LoadTextUtil.loadText(file)
+            LuaRequireIndex.collect(text).keys
+        } else emptySet<String>()
+        if (paths == graph.requires[file] ?: emptySet<String>())
+            return
+        graph.removeFile(file)
+        if (paths.isEmpty())
+            return
+        graph.requires[file] = paths
+        for (path in paths) {
+            val target = resolveRequireFile(path, project)?.virtualFile
+            if (target != null)
+                graph.addEdge(file, target)
+        }
+    }
+
+    /**
+     * runs [action] on the graph with the edges of the changed files up to date
+     */
+    private fun <T> withGraph(action: (Graph) -> T): T {
+        val graph = cachedGraph.value
+        synchronized(graph) {
+            if (!DumbService.isDumb(project)) {
+                val iterator = changedFiles.iterator()
+                while (iterator.hasNext()) {
+                    ProgressManager.checkCanceled()
+                    val file = iterator.next()
+                    updateFile(graph, file)
+                    iterator.remove()
+                }
+            }
+            return action(graph)
+        }
+    }
+
+    /**
+     * module paths required by [file], resolved or not
+     */
+    fun getRequiredPaths(file: VirtualFile): Set<String> {
+        return withGraph { it.requires[file] ?: emptySet() }
+    }
+
+    /**
+     * files required by [file]
+     */
+    fun getDependencies(file: PsiFile): List<LuaPsiFile> {
+        val virtualFile = file.virtualFile ?: return emptyList()
+        return toPsi(withGraph { it.dependencies[virtualFile]?.toList() })
+    }
+
+    /**
+     * files requiring [file]
+     */
+    fun getDependents(file: PsiFile): List<LuaPsiFile> {
+        val virtualFile = file.virtualFile ?: return emptyList()
+        return toPsi(withGraph { it.dependents[virtualFile]?.toList() })
+    }
+
+    /**
+     * files requiring [file] directly or through other modules, without [file] itself
+     */
+    fun getTransitiveDependents(file: PsiFile): List<LuaPsiFile> {
+        val start = file.virtualFile ?: return emptyList()
+        val result = LinkedHashSet<VirtualFile>()
+        withGraph { graph ->
+            val queue = ArrayDeque<VirtualFile>()
+            queue.add(start)
+            while (queue.isNotEmpty()) {
+                graph.dependents[queue.removeFirst()]?.forEach {
+                    // visited files are not expanded again, this stops at cycles
+                    if (it != start && result.add(it))
+                        queue.add(it)
+                }
+            }
+        }
+        return toPsi(result)
+    }
+
+    private fun toPsi(files: Collection<VirtualFile>?): List<LuaPsiFile> {
+        if (files == null)
+            return emptyList()
+        val manager = PsiManager.getInstance(project)
+        return files.mapNotNull { if (it.isValid) manager.findFile(it) as? LuaPsiFile else null }
+    }
+
+    private fun onChanged(event: PsiTreeChangeEvent) {
+        // added, removed and moved files change the VFS structure, the whole graph is rebuilt then
+        val file = event.file as? LuaPsiFile ?: return
+        changedFiles.add(file.virtualFile ?: return)
+    }
+
+    override fun childAdded(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childRemoved(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childReplaced(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childrenChanged(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childMoved(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun dispose() {
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaRequireGraph {
+            return ServiceManager.getService(project, LuaRequireGraph::class.java)
+        }
+    }
+}
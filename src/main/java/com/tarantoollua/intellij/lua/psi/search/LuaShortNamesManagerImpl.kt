@@ -46,7 +46,9 @@ class LuaShortNamesManagerImpl : LuaShortNamesManager() {
     }
 
     override fun getClassMembers(clazzName: String, context: SearchContext): Collection<LuaClassMember> {
-        return LuaClassMemberIndex.instance.get(clazzName.hashCode(), context.project, context.scope)
+        if (context.isDumb)
+            return emptyList()
+        return LuaClassMemberIndex.getMembers(clazzName, context)
     }
 
     override fun processAllMembers(type: ITyClass, fieldName: String, context: SearchContext, processor: Processor<LuaClassMember>): Boolean {
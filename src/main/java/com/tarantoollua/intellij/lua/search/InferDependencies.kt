@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.search
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.search.ProjectAndLibrariesScope
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.psi.stubs.StubIndexKey
+import com.intellij.util.Processor
+import com.intellij.util.indexing.FileBasedIndex
+import com.intellij.util.indexing.ID
+import com.tarantoollua.intellij.lua.psi.search.LuaClassHierarchy
+
+/**
+ * What a cached value was computed from: the files it read and the index keys it looked up,
+ * recorded on the current thread by [record] while computing it.
+ *
+ * The value is up to date as long as none of the files changed after [tick], see [LuaFileChangeTracker],
+ * and the files contributing to each key are the same as when it was looked up:
+ * a key is checked again only when some lua file changed, a new declaration may be anywhere.
+ * A value that read [LuaClassHierarchy] is also dropped when the super classes of the project change.
+ * Only values computed in the default scope are recorded, lookups are checked in that scope.
+ */
+class InferDependencies private constructor(@Volatile private var tick: Long) {
+
+    private data class Lookup(val index: ID<String, *>, val key: String)
+
+    private var files: MutableSet<VirtualFile>? = null
+    private var lookups: MutableMap<Lookup, Set<VirtualFile>>? = null
+    // a required module was not found, any new file may be that module
+    private var unresolved = false
+    // version of the class hierarchy read, -1 if it was not read
+    private var hierarchyVersion = -1L
+
+    /**
+     * files read, directly or through the keys looked up
+     */
+    val readFiles: Set<VirtualFile> get() = files ?: emptySet()
+
+    private fun addFile(file: VirtualFile) {
+        val set = files ?: HashSet<VirtualFile>().also { files = it }
+        set.add(file)
+    }
+
+    private fun addLookup(lookup: Lookup, contributors: Set<VirtualFile>) {
+        val map = lookups ?: HashMap<Lookup, Set<VirtualFile>>().also { lookups = it }
+        map[lookup] = contributors
+        contributors.forEach { addFile(it) }
+    }
+
+    private fun addAll(other: InferDependencies) {
+        other.files?.forEach { addFile(it) }
+        other.lookups?.forEach { (lookup, contributors) ->
+            val map = lookups ?: HashMap<Lookup, Set<VirtualFile>>().also { lookups = it }
+            map[lookup] = contributors
+        }
+        unresolved = unresolved || other.unresolved
+        addHierarchy(other.hierarchyVersion)
+        // the value is only as recent as the oldest value it was computed from
+        if (other.tick < tick)
+            tick = other.tick
+    }
+
+    private fun addHierarchy(version: Long) {
+        // the oldest version read, the value is invalid if any of them changed
+        if (version >= 0 && (hierarchyVersion < 0 || version < hierarchyVersion))
+            hierarchyVersion = version
+    }
+
+    fun isValid(project: Project): Boolean {
+        val tracker = LuaFileChangeTracker.getInstance(project)
+        // read first, a change while checking is seen by the next check
+        val now = tracker.tick
+        val tick = tick
+        if (tracker.lastGlobalChange > tick)
+            return false
+        if (tracker.lastFileChange <= tick)
+            return true
+        if (unresolved)
+            return false
+        files?.forEach {
+            if (!it.isValid || tracker.lastChange(it) > tick)
+                return false
+        }
+        lookups?.forEach { (lookup, contributors) ->
+            if (getContributors(project, lookup) != contributors)
+                return false
+        }
+        if (hierarchyVersion >= 0 && LuaClassHierarchy.getInstance(project).version != hierarchyVersion)
+            return false
+        // nothing changed for this value, later checks start from here
+        this.tick = now
+        return true
+    }
+
+    companion object {
+        private val recorders = ThreadLocal.withInitial { ArrayList<InferDependencies>() }
+
+        /**
+         * true while a value is recorded on the current thread
+         */
+        val isRecording: Boolean
+            get() = recorders.get().isNotEmpty()
+
+        /**
+         * runs [action] and records what it reads, the recording is added to the one of the caller if any
+         */
+        fun <T> record(project: Project, action: () -> T): Pair<T, InferDependencies> {
+            val dependencies = InferDependencies(LuaFileChangeTracker.getInstance(project).tick)
+            val stack = recorders.get()
+            stack.add(dependencies)
+            val result = try {
+                action()
+            } finally {
+                stack.removeAt(stack.size - 1)
+            }
+            stack.lastOrNull()?.addAll(dependencies)
+            return Pair(result, dependencies)
+        }
+
+        fun recordFile(file: PsiFile?) {
+            val recorder = recorders.get().lastOrNull() ?: return
+            // files that are not on disk are never cached across files
+            file?.originalFile?.virtualFile?.let { recorder.addFile(it) }
+        }
+
+        fun recordFile(file: VirtualFile) {
+            recorders.get().lastOrNull()?.addFile(file)
+        }
+
+        /**
+         * [key] of [index] was looked up, [elements] are all the elements found in the default scope
+         */
+        fun recordLookup(index: ID<String, *>, key: String, elements: Collection<PsiElement>) {
+            val recorder = recorders.get().lastOrNull() ?: return
+            val files = HashSet<VirtualFile>()
+            elements.forEach { element -> element.containingFile?.virtualFile?.let { files.add(it) } }
+            recorder.addLookup(Lookup(index, key), files)
+        }
+
+        /**
+         * [key] of [index] was looked up and the lookup may have stopped early, the contributors are looked up again
+         */
+        fun recordLookup(project: Project, index: ID<String, *>, key: String) {
+            val recorder = recorders.get().lastOrNull() ?: return
+            val lookup = Lookup(index, key)
+            recorder.addLookup(lookup, getContributors(project, lookup))
+        }
+
+        /**
+         * same as [recordLookup] with the files of the elements already known
+         */
+        fun recordLookupFiles(index: ID<String, *>, key: String, files: Set<VirtualFile>) {
+            recorders.get().lastOrNull()?.addLookup(Lookup(index, key), files)
+        }
+
+        /**
+         * the super classes of [LuaClassHierarchy] at [version] were read
+         */
+        fun recordHierarchy(version: Long) {
+            recorders.get().lastOrNull()?.addHierarchy(version)
+        }
+
+        fun recordUnresolved() {
+            recorders.get().lastOrNull()?.unresolved = true
+        }
+
+        /**
+         * a cached value computed with [dependencies] is used by the value being recorded
+         */
+        fun recordAll(dependencies: InferDependencies) {
+            recorders.get().lastOrNull()?.addAll(dependencies)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun getContributors(project: Project, lookup: Lookup): Set<VirtualFile> {
+            val scope = ProjectAndLibrariesScope(project)
+            val index = lookup.index
+            if (index is StubIndexKey<*, *>) {
+                val files = HashSet<VirtualFile>()
+                StubIndex.getInstance().processElements(index as StubIndexKey<String, PsiElement>, lookup.key, project, scope,
+                        PsiElement::class.java, Processor { element ->
+                    element.containingFile?.virtualFile?.let { files.add(it) }
+                    true
+                })
+                return files
+            }
+            return FileBasedIndex.getInstance().getContainingFiles(index as ID<String, Any>, lookup.key, scope).toSet()
+        }
+    }
+}
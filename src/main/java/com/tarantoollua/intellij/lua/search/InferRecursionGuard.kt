@@ -25,27 +25,37 @@ enum class GuardType {
     RecursionCall
 }
 
-open class InferRecursionGuard(val psi: PsiElement) {
-    open fun check(psi: PsiElement, type: GuardType): Boolean {
-        return this.psi == psi
+/**
+ * Guards entered by a [SearchContext] and not left yet.
+ *
+ * An element is guarded whatever the [GuardType] it was entered with,
+ * a global name is guarded against [GuardType.GlobalName] searches of any name expression with that name.
+ * Both are looked up by hash, so checking a guard does not depend on the depth of the inference.
+ */
+class RecursionGuardSet {
+    private val elements = HashSet<PsiElement>()
+    private val globalNames = HashSet<String>()
+
+    /**
+     * @return the global name to guard for [psi], null if there is none
+     */
+    fun globalNameOf(psi: PsiElement, type: GuardType): String? {
+        return if (type == GuardType.GlobalName && psi is LuaNameExpr) psi.name else null
     }
-}
 
-fun createGuard(psi: PsiElement, type: GuardType): InferRecursionGuard? {
-    if (type == GuardType.GlobalName && psi is LuaNameExpr) {
-        return GlobalSearchGuard(psi)
+    fun isGuarded(psi: PsiElement, globalName: String?): Boolean {
+        return psi in elements || (globalName != null && globalName in globalNames)
     }
-    return InferRecursionGuard(psi)
-}
 
-class GlobalSearchGuard(psi: LuaNameExpr) : InferRecursionGuard(psi) {
-    private val name = psi.name
+    fun enter(psi: PsiElement, globalName: String?) {
+        elements.add(psi)
+        if (globalName != null)
+            globalNames.add(globalName)
+    }
 
-    override fun check(psi: PsiElement, type: GuardType): Boolean {
-        if (type == GuardType.GlobalName && psi is LuaNameExpr && psi.name == name) {
-            //println("guard global name: $name")
-            return true
-        }
-        return super.check(psi, type)
+    fun leave(psi: PsiElement, globalName: String?) {
+        elements.remove(psi)
+        if (globalName != null)
+            globalNames.remove(globalName)
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.search
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.fileTypes.FileTypeManager
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import com.intellij.psi.PsiDirectory
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiManager
+import com.intellij.psi.PsiTreeChangeAdapter
+import com.intellij.psi.PsiTreeChangeEvent
+import com.tarantoollua.intellij.lua.lang.LuaFileType
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Modification ticks of the lua files of the project, for caches that only drop what a change may affect.
+ *
+ * Every change of a lua file, in the editor or outside of the IDE, takes a new tick and remembers it for the file.
+ * Changes that may affect any file, such as root changes, changes of directories or the end of indexing,
+ * take a tick for the whole project.
+ * A cache reads [tick] before computing a value, the value is up to date as long as
+ * nothing it was computed from changed after that tick, see [InferDependencies].
+ */
+class LuaFileChangeTracker(val project: Project) : PsiTreeChangeAdapter(), Disposable {
+
+    private val counter = AtomicLong()
+    private val fileTicks = ConcurrentHashMap<VirtualFile, Long>()
+
+    /**
+     * tick of the last change of any lua file
+     */
+    @Volatile
+    var lastFileChange = 0L
+        private set
+
+    /**
+     * tick of the last change that may affect every file
+     */
+    @Volatile
+    var lastGlobalChange = 0L
+        private set
+
+    val tick: Long get() = counter.get()
+
+    init {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(this, this)
+        val connection = project.messageBus.connect(this)
+        // changes outside of the IDE, the PSI of the file may not be loaded
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+            override fun before(events: MutableList<out VFileEvent>) {}
+
+            override fun after(events: MutableList<out VFileEvent>) {
+                events.forEach { onFileEvent(it) }
+            }
+        })
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+            override fun beforeRootsChange(event: ModuleRootEvent) {}
+
+            override fun rootsChanged(event: ModuleRootEvent) = globalChanged()
+        })
+        connection.subscribe(DumbService.DUMB_MODE, object : DumbService.DumbModeListener {
+            override fun enteredDumbMode() {}
+
+            override fun exitDumbMode() = globalChanged()
+        })
+    }
+
+    /**
+     * tick of the last change of [file], 0 if it never changed
+     */
+    fun lastChange(file: VirtualFile): Long = fileTicks[file] ?: 0L
+
+    /**
+     * true if [file] or the whole project changed after [tick]
+     */
+    fun isChanged(file: VirtualFile, tick: Long): Boolean {
+        return lastGlobalChange > tick || lastChange(file) > tick
+    }
+
+    /**
+     * lua files changed after [tick], null if the whole project may have changed since
+     */
+    fun getChangedFiles(tick: Long): Collection<VirtualFile>? {
+        if (lastGlobalChange > tick)
+            return null
+        if (lastFileChange <= tick)
+            return emptyList()
+        return fileTicks.entries.filter { it.value > tick }.map { it.key }
+    }
+
+    fun fileChanged(file: VirtualFile) {
+        val tick = counter.incrementAndGet()
+        fileTicks[file] = tick
+        lastFileChange = tick
+    }
+
+    fun globalChanged() {
+        val tick = counter.incrementAndGet()
+        lastFileChange = tick
+        lastGlobalChange = tick
+    }
+
+    private fun isLuaFile(name: String): Boolean {
+        return FileTypeManager.getInstance().getFileTypeByFileName(name) == LuaFileType.INSTANCE
+    }
+
+    private fun onFileEvent(event: VFileEvent) {
+        if (event is VFileCreateEvent) {
+            // the created file is not known yet, a new directory may contain anything
+            if (event.isDirectory)
+                globalChanged()
+            else if (isLuaFile(event.childName))
+                event.file?.let { fileChanged(it) } ?: globalChanged()
+            return
+        }
+        val file = event.file ?: return
+        when {
+            file.isDirectory -> if (event !is VFilePropertyChangeEvent || event.propertyName == VirtualFile.PROP_NAME) globalChanged()
+            event is VFilePropertyChangeEvent -> {
+                if (event.propertyName == VirtualFile.PROP_NAME && (isLuaFile(event.oldValue as String) || isLuaFile(event.newValue as String)))
+                    fileChanged(file)
+            }
+            // content changes, moves, copies and deletions
+            isLuaFile(file.name) -> fileChanged(file)
+        }
+    }
+
+    private fun onChanged(element: PsiElement?) {
+        when (element) {
+            is LuaPsiFile -> element.virtualFile?.let { fileChanged(it) }
+            is PsiDirectory -> globalChanged()
+        }
+    }
+
+    private fun onChanged(event: PsiTreeChangeEvent) {
+        val file = event.file
+        if (file != null) {
+            onChanged(file)
+            return
+        }
+        // files added, removed or moved
+        onChanged(event.child)
+        onChanged(event.oldChild)
+        onChanged(event.newChild)
+        onChanged(event.element)
+    }
+
+    override fun childAdded(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childRemoved(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childReplaced(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childrenChanged(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun childMoved(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun propertyChanged(event: PsiTreeChangeEvent) = onChanged(event)
+
+    override fun dispose() {
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaFileChangeTracker {
+            return ServiceManager.getService(project, LuaFileChangeTracker::class.java)
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.search
+
+import com.tarantoollua.intellij.lua.project.LuaSettings
+
+/**
+ * Limits of a single top level inference of a [SearchContext], 0 disables a limit.
+ *
+ * @param maxNodes elements inferred, cached results are free
+ * @param maxDepth nested inferences
+ * @param timeoutMillis wall clock time, ignored while building stubs so stubs never depend on timing
+ */
+data class LuaInferBudget(val maxNodes: Int, val maxDepth: Int, val timeoutMillis: Long) {
+
+    enum class Limit {
+        Nodes,
+        Depth,
+        Time
+    }
+
+    companion object {
+        val UNLIMITED = LuaInferBudget(0, 0, 0)
+
+        fun fromSettings(): LuaInferBudget {
+            val settings = LuaSettings.instance
+            return LuaInferBudget(settings.inferMaxNodes, settings.inferMaxDepth, settings.inferTimeoutMillis)
+        }
+
+        /**
+         * budget of inspections and batch runs, their results must not depend on the load of the machine
+         */
+        fun untimedFromSettings(): LuaInferBudget {
+            return fromSettings().copy(timeoutMillis = 0)
+        }
+    }
+}
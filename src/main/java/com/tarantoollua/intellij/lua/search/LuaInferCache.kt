@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.search
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.SimpleModificationTracker
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.util.containers.ContainerUtil
+import com.tarantoollua.intellij.lua.psi.LuaTypeGuessable
+import com.tarantoollua.intellij.lua.ty.ITy
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Project level cache of inferred types.
+ *
+ * Entries are grouped by containing file, every group is a [CachedValue] stored on the file and dropped when the file changes.
+ * Each entry keeps the [InferDependencies] recorded while inferring it, so an edit of another file
+ * only drops the entries that read that file or looked up a key it may contribute to.
+ * A hit adds the dependencies of the entry to the value being recorded, if any.
+ * Values are softly referenced, so the cache never keeps types alive under memory pressure.
+ */
+class LuaInferCache(val project: Project) {
+
+    private data class CacheKey(val psi: LuaTypeGuessable, val index: Int, val forStub: Boolean)
+
+    private class Entry(val ty: ITy, val dependencies: InferDependencies)
+
+    private val tracker = SimpleModificationTracker()
+
+    fun get(psi: LuaTypeGuessable, context: SearchContext): ITy? {
+        val map = getFileCache(psi.containingFile ?: return null)
+        val key = CacheKey(psi, context.index, context.forStub)
+        val entry = map[key] ?: return null
+        if (!entry.dependencies.isValid(project)) {
+            map.remove(key, entry)
+            return null
+        }
+        InferDependencies.recordAll(entry.dependencies)
+        return entry.ty
+    }
+
+    fun put(psi: LuaTypeGuessable, context: SearchContext, ty: ITy, dependencies: InferDependencies) {
+        val map = getFileCache(psi.containingFile ?: return)
+        map[CacheKey(psi, context.index, context.forStub)] = Entry(ty, dependencies)
+    }
+
+    fun invalidate() {
+        tracker.incModificationCount()
+    }
+
+    private fun getFileCache(file: PsiFile): ConcurrentMap<CacheKey, Entry> {
+        return CachedValuesManager.getCachedValue(file, KEY_FILE_CACHE) {
+            CachedValueProvider.Result.create(ContainerUtil.createConcurrentSoftValueMap(), file, tracker)
+        }
+    }
+
+    companion object {
+        private val KEY_FILE_CACHE = Key.create<CachedValue<ConcurrentMap<CacheKey, Entry>>>("lua.infer.file_cache")
+
+        fun getInstance(project: Project): LuaInferCache {
+            return ServiceManager.getService(project, LuaInferCache::class.java)
+        }
+    }
+}
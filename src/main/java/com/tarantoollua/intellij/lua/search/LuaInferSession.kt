@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.search
+
+import com.intellij.concurrency.JobLauncher
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.util.Processor
+import com.tarantoollua.intellij.lua.psi.LuaTypeGuessable
+import com.tarantoollua.intellij.lua.ty.ITy
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Infers the types of many elements on all available cores.
+ *
+ * Elements are processed by the work stealing pool of [JobLauncher], each one in a read action
+ * and with a new [SearchContext], so results are the same as when inferring them one by one.
+ * Intermediate results are shared between the workers through [LuaInferCache].
+ */
+class LuaInferSession(val project: Project) {
+
+    private val myResults = ConcurrentHashMap<LuaTypeGuessable, ITy>()
+
+    /**
+     * @return false if the indicator was canceled before all elements were inferred
+     */
+    fun inferAll(elements: List<LuaTypeGuessable>,
+                 indicator: ProgressIndicator? = ProgressManager.getInstance().progressIndicator): Boolean {
+        return JobLauncher.getInstance().invokeConcurrentlyUnderProgress(elements, indicator, Processor { psi ->
+            ReadAction.run<RuntimeException> {
+                if (psi.isValid)
+                    infer(psi)
+            }
+            true
+        })
+    }
+
+    /**
+     * must be called in a read action, may be called from any thread
+     */
+    fun infer(psi: LuaTypeGuessable): ITy {
+        var ty = myResults[psi]
+        if (ty == null) {
+            ProgressManager.checkCanceled()
+            ty = SearchContext.inferIsolated(psi)
+            myResults[psi] = ty
+        }
+        return ty
+    }
+
+    fun getResult(psi: LuaTypeGuessable): ITy? = myResults[psi]
+
+    val results: Map<LuaTypeGuessable, ITy> get() = myResults
+}
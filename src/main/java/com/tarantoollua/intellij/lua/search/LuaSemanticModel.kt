@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.search
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.Ref
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.psi.util.PsiModificationTracker
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
+import com.tarantoollua.intellij.lua.psi.LuaClassMethodDef
+import com.tarantoollua.intellij.lua.psi.LuaExpr
+import com.tarantoollua.intellij.lua.psi.LuaIndexExpr
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.psi.LuaReturnStat
+import com.tarantoollua.intellij.lua.psi.LuaTypeGuessable
+import com.tarantoollua.intellij.lua.psi.guessReturnType
+import com.tarantoollua.intellij.lua.psi.resolve
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.lua.ty.Ty
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Guessed types, return types and resolved names of a file, shared by all inspections looking at it.
+ *
+ * Entries are filled on demand while the inspections visit the file, elements they never look at are not inferred.
+ * Types are inferred without the time limit of the editor, so problems do not depend on the load of the machine.
+ * A model is dropped as soon as the PSI of the project changes.
+ */
+class LuaSemanticModel private constructor(val file: PsiFile) {
+
+    private val types = ConcurrentHashMap<LuaTypeGuessable, ITy>()
+    private val declarations = ConcurrentHashMap<LuaNameExpr, Ref<PsiElement?>>()
+    private val returnTypes = ConcurrentHashMap<LuaReturnStat, ITy>()
+    private val superReturnTypes = ConcurrentHashMap<LuaClassMethodDef, Ref<ITy?>>()
+
+    private val context get() = SearchContext.getUntimed(file.project)
+
+    /**
+     * same as [LuaTypeGuessable.guessType], must be called in a read action
+     */
+    fun getType(psi: LuaTypeGuessable): ITy {
+        return getOrCompute(types, psi) { psi.guessType(context) }
+    }
+
+    /**
+     * same as [LuaIndexExpr.guessParentType]
+     */
+    fun getParentType(indexExpr: LuaIndexExpr): ITy {
+        val expr = PsiTreeUtil.getStubChildOfType(indexExpr, LuaExpr::class.java)
+        return if (expr != null) getType(expr) else Ty.UNKNOWN
+    }
+
+    fun resolve(nameExpr: LuaNameExpr): PsiElement? {
+        return getOrCompute(declarations, nameExpr) { Ref.create(resolve(nameExpr, context)) }.get()
+    }
+
+    /**
+     * all the values returned by [stat], same as [guessReturnType] with index -1
+     */
+    fun getReturnType(stat: LuaReturnStat): ITy {
+        return getOrCompute(returnTypes, stat) { guessReturnType(stat, -1, context) }
+    }
+
+    /**
+     * return type of the method of the super classes that [method] overrides, null if there is none.
+     * Every return statement of [method] is checked against it, it is looked up once.
+     */
+    fun getSuperReturnType(method: LuaClassMethodDef): ITy? {
+        return getOrCompute(superReturnTypes, method) {
+            val superClass = method.guessClassType(context)
+            val superMember = superClass?.findSuperMember(method.name ?: "", context)
+            Ref.create((superMember as? LuaClassMethodDef)?.guessReturnType(context))
+        }.get()
+    }
+
+    private fun <K : PsiElement, V : Any> getOrCompute(map: ConcurrentHashMap<K, V>, key: K, compute: () -> V): V {
+        val cached = map[key]
+        if (cached != null) {
+            LuaInferProfiler.cacheHit(LuaInferProfiler.Category.SEMANTIC_MODEL, key)
+            return cached
+        }
+        LuaInferProfiler.cacheMiss(LuaInferProfiler.Category.SEMANTIC_MODEL, key)
+        ProgressManager.checkCanceled()
+        val value = compute()
+        map[key] = value
+        return value
+    }
+
+    companion object {
+        private val KEY = Key.create<CachedValue<LuaSemanticModel>>("lua.semantic.model")
+
+        fun get(file: PsiFile): LuaSemanticModel {
+            return CachedValuesManager.getCachedValue(file, KEY) {
+                CachedValueProvider.Result.create(LuaSemanticModel(file), file, PsiModificationTracker.MODIFICATION_COUNT)
+            }
+        }
+    }
+}
@@ -16,20 +16,25 @@
 
 package com.tarantoollua.intellij.lua.search
 
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.RecursionManager
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.search.ProjectAndLibrariesScope
 import com.tarantoollua.intellij.lua.ext.ILuaTypeInfer
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
 import com.tarantoollua.intellij.lua.psi.LuaTypeGuessable
 import com.tarantoollua.intellij.lua.ty.ITy
 import com.tarantoollua.intellij.lua.ty.Ty
 import java.util.*
 
 /**
-
+ * A context belongs to the thread that created it, use [fork] or [inferIsolated] to infer on other threads.
+ *
  * Created by tarantoolluazx on 2017/1/14.
  */
 class SearchContext private constructor(val project: Project) {
@@ -50,6 +55,18 @@ class SearchContext private constructor(val project: Project) {
             }
         }
 
+        /**
+         * same as [get], but a new context is not limited by time, see [LuaInferBudget.untimedFromSettings]
+         */
+        fun getUntimed(project: Project): SearchContext {
+            val stack = threadLocal.get()
+            if (!stack.isEmpty())
+                return stack.peek()
+            val context = SearchContext(project)
+            context.myBudget = LuaInferBudget.untimedFromSettings()
+            return context
+        }
+
         fun infer(psi: LuaTypeGuessable): ITy {
             return with(psi.project) { it.inferAndCache(psi) }
         }
@@ -59,6 +76,9 @@ class SearchContext private constructor(val project: Project) {
         }
 
         private fun <T> with(ctx: SearchContext, defaultValue: T, action: (ctx: SearchContext) -> T): T {
+            // contexts are confined to the thread that created them
+            if (ctx.myThread !== Thread.currentThread())
+                return with(ctx.fork(), defaultValue, action)
             return if (ctx.myInStack) {
                 action(ctx)
             } else {
@@ -66,15 +86,17 @@ class SearchContext private constructor(val project: Project) {
                 val size = stack.size
                 stack.push(ctx)
                 ctx.myInStack = true
-                val result = try {
+                try {
                     action(ctx)
+                } catch (e: ProcessCanceledException) {
+                    throw e
                 } catch (e: Exception) {
                     defaultValue
+                } finally {
+                    ctx.myInStack = false
+                    stack.pop()
+                    assert(size == stack.size)
                 }
-                ctx.myInStack = false
-                stack.pop()
-                assert(size == stack.size)
-                result
             }
         }
 
@@ -90,42 +112,67 @@ class SearchContext private constructor(val project: Project) {
 
         private fun <T> withStub(ctx: SearchContext, defaultValue: T, action: (ctx: SearchContext) -> T): T {
             return with(ctx, defaultValue) {
-                val dumb = it.myDumb
-                val stub = it.myForStub
-                it.myDumb = true
-                it.myForStub = true
-                val ret = action(it)
-                it.myDumb = dumb
-                it.myForStub = stub
-                ret
+                it.withFrame(it.myFrame.copy(dumb = true, forStub = true)) { action(it) }
             }
         }
 
+        /**
+         * infers [psi] with a new context, independent of the contexts in use on the current thread,
+         * the same way as [infer] does outside of any inference
+         */
+        fun inferIsolated(psi: LuaTypeGuessable): ITy {
+            return infer(psi, SearchContext(psi.project))
+        }
+
         fun invalidateCache(project: Project) {
             var searchContext = get(project)
             searchContext.invalidateInferCache()
         }
     }
 
+    /**
+     * State of a context, never modified: [withIndex], [withScope] and [withStub] run their action in a new frame
+     * and restore the previous one afterwards.
+     *
+     * @param scope null for the default scope
+     */
+    private data class Frame(val index: Int = -1,
+                             val scope: GlobalSearchScope? = null,
+                             val dumb: Boolean = false,
+                             val forStub: Boolean = false)
+
     /**
      * 用于有多返回值的索引设定
      */
-    val index: Int get() = myIndex
+    val index: Int get() = myFrame.index
 
-    private var myDumb = false
-    private var myForStub = false
-    private var myIndex = -1
+    private val myThread = Thread.currentThread()
+    private var myFrame = Frame()
     private var myInStack = false
-    private val myGuardList = mutableListOf<InferRecursionGuard>()
-    private val myInferCache = mutableMapOf<LuaTypeGuessable, ITy>()
-    private var myScope: GlobalSearchScope? = null
+    private val myGuards = RecursionGuardSet()
+    private var myGuardTrips = 0
+    private var myDefaultScope: GlobalSearchScope? = null
+
+    private var myBudget: LuaInferBudget? = null
+    private var myActiveBudget = LuaInferBudget.UNLIMITED
+    private var myDepth = 0
+    private var myNodes = 0
+    private var myDeadline = 0L
+    private var myBudgetTrips = 0
+    private var myExhausted: LuaInferBudget.Limit? = null
+
+    private fun <T> withFrame(frame: Frame, action: () -> T): T {
+        val saved = myFrame
+        myFrame = frame
+        try {
+            return action()
+        } finally {
+            myFrame = saved
+        }
+    }
 
     fun <T> withIndex(index: Int, action: () -> T): T {
-        val savedIndex = this.index
-        myIndex = index
-        val ret = action()
-        myIndex = savedIndex
-        return ret
+        return withFrame(myFrame.copy(index = index), action)
     }
 
     fun guessTuple() = index < 0
@@ -133,54 +180,161 @@ class SearchContext private constructor(val project: Project) {
     val scope get(): GlobalSearchScope {
         if (isDumb)
             return GlobalSearchScope.EMPTY_SCOPE
-        if (myScope == null) {
-            myScope = ProjectAndLibrariesScope(project)
+        myFrame.scope?.let { return it }
+        var scope = myDefaultScope
+        if (scope == null) {
+            scope = ProjectAndLibrariesScope(project)
+            myDefaultScope = scope
         }
-        return myScope!!
+        return scope
     }
 
+    val isDefaultScope: Boolean
+        get() = myFrame.scope == null
+
     val isDumb: Boolean
-        get() = myDumb || DumbService.isDumb(project)
+        get() = myFrame.dumb || DumbService.isDumb(project)
 
-    val forStub get() = myForStub
+    val forStub get() = myFrame.forStub
 
     fun <T> withScope(scope: GlobalSearchScope, action: () -> T): T {
-        val oriScope = myScope
-        myScope = scope
-        val ret = action()
-        myScope = oriScope
-        return ret
+        return withFrame(myFrame.copy(scope = scope), action)
+    }
+
+    /**
+     * a context for another thread, starting from the current frame of this one
+     * but with its own recursion guards
+     */
+    fun fork(): SearchContext {
+        val context = SearchContext(project)
+        context.myFrame = myFrame
+        context.myDefaultScope = myDefaultScope
+        context.myBudget = myBudget
+        return context
+    }
+
+    /**
+     * runs [action] with [budget] instead of the configured one, top level inferences started in it get the new budget
+     */
+    fun <T> withBudget(budget: LuaInferBudget, action: () -> T): T {
+        val saved = myBudget
+        myBudget = budget
+        try {
+            return action()
+        } finally {
+            myBudget = saved
+        }
+    }
+
+    /**
+     * true once the node or time budget of the current top level inference is spent,
+     * callers merging several candidates should stop and keep what they have
+     */
+    val isBudgetExhausted: Boolean
+        get() = myExhausted != null
+
+    private fun startBudget() {
+        val budget = myBudget ?: LuaInferBudget.fromSettings()
+        myActiveBudget = budget
+        myNodes = 0
+        myExhausted = null
+        myDeadline = if (budget.timeoutMillis > 0 && !forStub)
+            System.nanoTime() + budget.timeoutMillis * 1_000_000
+        else 0L
+    }
+
+    /**
+     * counts [psi] against the budget, false if it must not be inferred
+     */
+    private fun enterBudget(psi: LuaTypeGuessable): Boolean {
+        ProgressManager.checkCanceled()
+        if (myExhausted != null) {
+            myBudgetTrips++
+            return false
+        }
+        val budget = myActiveBudget
+        val limit = when {
+            budget.maxDepth > 0 && myDepth >= budget.maxDepth -> LuaInferBudget.Limit.Depth
+            budget.maxNodes > 0 && ++myNodes > budget.maxNodes -> LuaInferBudget.Limit.Nodes
+            myDeadline != 0L && System.nanoTime() > myDeadline -> LuaInferBudget.Limit.Time
+            else -> return true
+        }
+        // only the current branch is too deep, other limits stop the whole inference
+        if (limit != LuaInferBudget.Limit.Depth)
+            myExhausted = limit
+        myBudgetTrips++
+        LuaInferProfiler.budgetTrip(psi, limit)
+        return false
     }
 
     fun withRecursionGuard(psi: PsiElement, type: GuardType, action: () -> ITy): ITy {
-        myGuardList.forEach {
-            if (it.check(psi, type)) {
-                return Ty.UNKNOWN
-            }
+        val globalName = myGuards.globalNameOf(psi, type)
+        if (myGuards.isGuarded(psi, globalName)) {
+            myGuardTrips++
+            LuaInferProfiler.guardTrip(psi)
+            return Ty.UNKNOWN
+        }
+        myGuards.enter(psi, globalName)
+        try {
+            return action()
+        } finally {
+            myGuards.leave(psi, globalName)
         }
-        val guard = createGuard(psi, type)
-        if (guard != null)
-            myGuardList.add(guard)
-        val result = action()
-        if (guard != null)
-            myGuardList.remove(guard)
-        return result
     }
 
+    /**
+     * results are shared by all contexts of the project through [LuaInferCache],
+     * a result is only stored when no recursion guard and no budget limit was hit while computing it
+     */
     private fun inferAndCache(psi: LuaTypeGuessable): ITy {
-        /*if (inferCache.containsKey(psi)) {
-            println("use cache!!!")
-        }*/
-        return myInferCache.getOrPut(psi) {
-            ILuaTypeInfer.infer(psi, this)
+        if (myDepth == 0)
+            startBudget()
+        val cacheable = isDefaultScope && (forStub || !isDumb)
+        val cache = LuaInferCache.getInstance(project)
+        if (cacheable) {
+            val cached = cache.get(psi, this)
+            if (cached != null) {
+                LuaInferProfiler.cacheHit(LuaInferProfiler.Category.INFER_INNER, psi)
+                return cached
+            }
+            LuaInferProfiler.cacheMiss(LuaInferProfiler.Category.INFER_INNER, psi)
+        }
+
+        if (!enterBudget(psi))
+            return Ty.UNKNOWN
+
+        myDepth++
+        val (result, dependencies) = try {
+            InferDependencies.record(project) {
+                InferDependencies.recordFile(psi.containingFile)
+                computeTracked { ILuaTypeInfer.infer(psi, this) }
+            }
+        } finally {
+            myDepth--
         }
+        val (ty, complete) = result
+        if (cacheable && complete)
+            cache.put(psi, this, ty, dependencies)
+        return ty
+    }
+
+    /**
+     * runs [action] and tells whether its result is complete and can be cached:
+     * no recursion guard and no budget limit was hit while computing it
+     */
+    fun <T> computeTracked(action: () -> T): Pair<T, Boolean> {
+        val guardTrips = myGuardTrips
+        val budgetTrips = myBudgetTrips
+        val stamp = RecursionManager.markStack()
+        val result = action()
+        return Pair(result, guardTrips == myGuardTrips && budgetTrips == myBudgetTrips && stamp.mayCacheNow())
     }
 
     fun getTypeFromCache(psi: LuaTypeGuessable): ITy {
-        return myInferCache.getOrElse(psi) { Ty.UNKNOWN }
+        return LuaInferCache.getInstance(project).get(psi, this) ?: Ty.UNKNOWN
     }
 
     fun invalidateInferCache() {
-        myInferCache.clear()
+        LuaInferCache.getInstance(project).invalidate()
     }
 }
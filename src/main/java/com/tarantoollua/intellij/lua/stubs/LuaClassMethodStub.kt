@@ -22,7 +22,6 @@ import com.intellij.util.BitUtil
 import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.psi.*
 import com.tarantoollua.intellij.lua.psi.impl.LuaClassMethodDefImpl
-import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tarantoollua.intellij.lua.stubs.index.StubKeys
 import com.tarantoollua.intellij.lua.ty.*
@@ -43,10 +42,7 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodStub, LuaClassMethod
         val expr = methodName.expr
         val classNameSet = mutableListOf<ITyClass>()
 
-        val ty = SearchContext.withStub(methodDef.project, methodDef.containingFile, Ty.UNKNOWN) {
-            SearchContext.infer(expr, it)
-        }
-        TyUnion.each(ty) {
+        TyUnion.each(LuaStubInference.infer(expr)) {
             if (it is ITyClass)
                 classNameSet.add(it)
         }
@@ -66,6 +62,7 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodStub, LuaClassMethod
         val params = methodDef.params
         val overloads = methodDef.overloads
         val tyParams = methodDef.tyParams
+        val returnSummary = if (retDocTy == null) LuaReturnSummary.create(methodDef) else null
 
         return LuaClassMethodStubImpl(flags,
                 id?.text ?: "",
@@ -75,6 +72,7 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodStub, LuaClassMethod
                 tyParams,
                 overloads,
                 methodDef.varargType,
+                returnSummary,
                 stubElement)
     }
 
@@ -84,43 +82,45 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodStub, LuaClassMethod
         return psi.funcBody != null
     }
 
-    private fun StubOutputStream.writeTypes(types: Array<ITyClass>) {
-        writeByte(types.size)
-        types.forEach { Ty.serialize(it, this) }
+    private fun StubOutputStream.writeTypes(types: Array<ITyClass>, stub: LuaClassMethodStub) {
+        writeVarInt(types.size)
+        types.forEach { writeTy(it, stub) }
     }
 
     override fun serialize(stub: LuaClassMethodStub, stubOutputStream: StubOutputStream) {
-        stubOutputStream.writeTypes(stub.classes)
+        stubOutputStream.writeTypes(stub.classes, stub)
         stubOutputStream.writeName(stub.name)
-        stubOutputStream.writeShort(stub.flags)
-        stubOutputStream.writeTyNullable(stub.returnDocTy)
-        stubOutputStream.writeParamInfoArray(stub.params)
+        stubOutputStream.writeVarInt(stub.flags)
+        stubOutputStream.writeTyNullable(stub.returnDocTy, stub)
+        stubOutputStream.writeParamInfoArray(stub.params, stub)
         stubOutputStream.writeTyParams(stub.tyParams)
-        stubOutputStream.writeTyNullable(stub.varargTy)
+        stubOutputStream.writeTyNullable(stub.varargTy, stub)
         stubOutputStream.writeSignatures(stub.overloads)
+        LuaReturnSummary.serialize(stub.returnSummary, stubOutputStream, stub)
     }
 
-    private fun StubInputStream.readTypes(): Array<ITyClass> {
-        val size = readByte()
+    private fun StubInputStream.readTypes(parentStub: StubElement<*>): Array<ITyClass> {
+        val size = readVarInt()
         val list = mutableListOf<ITyClass>()
         for (i in 0 until size) {
-            val ty = Ty.deserialize(this) as? ITyClass ?: continue
+            val ty = readTy(parentStub) as? ITyClass ?: continue
             list.add(ty)
         }
         return list.toTypedArray()
     }
 
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaClassMethodStub {
-        val classes = stubInputStream.readTypes()
+        val classes = stubInputStream.readTypes(stubElement)
         val shortName = stubInputStream.readName()
-        val flags = stubInputStream.readShort()
-        val retDocTy = stubInputStream.readTyNullable()
-        val params = stubInputStream.readParamInfoArray()
+        val flags = stubInputStream.readVarInt()
+        val retDocTy = stubInputStream.readTyNullable(stubElement)
+        val params = stubInputStream.readParamInfoArray(stubElement)
         val tyParams = stubInputStream.readTyParams()
-        val varargTy = stubInputStream.readTyNullable()
+        val varargTy = stubInputStream.readTyNullable(stubElement)
         val overloads = stubInputStream.readSignatures()
+        val returnSummary = LuaReturnSummary.deserialize(stubInputStream, stubElement)
 
-        return LuaClassMethodStubImpl(flags.toInt(),
+        return LuaClassMethodStubImpl(flags,
                 StringRef.toString(shortName),
                 classes,
                 retDocTy,
@@ -128,6 +128,7 @@ class LuaClassMethodType : LuaStubElementType<LuaClassMethodStub, LuaClassMethod
                 tyParams,
                 overloads,
                 varargTy,
+                returnSummary,
                 stubElement)
     }
 
@@ -165,6 +166,7 @@ class LuaClassMethodStubImpl(override val flags: Int,
                              override val tyParams: Array<TyParameter>,
                              override val overloads: Array<IFunSignature>,
                              override val varargTy: ITy?,
+                             override val returnSummary: LuaReturnSummary?,
                              parent: StubElement<*>)
     : StubBase<LuaClassMethodDef>(parent, LuaElementType.CLASS_METHOD_DEF), LuaClassMethodStub {
     override val docTy: ITy? = null
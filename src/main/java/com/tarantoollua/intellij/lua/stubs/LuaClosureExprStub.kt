@@ -35,8 +35,9 @@ class LuaClosureExprType : LuaStubElementType<LuaClosureExprStub, LuaClosureExpr
     }
 
     override fun serialize(stub: LuaClosureExprStub, outputStream: StubOutputStream) {
-        outputStream.writeParamInfoArray(stub.params)
+        outputStream.writeParamInfoArray(stub.params, stub)
         outputStream.writeSignatures(stub.overloads)
+        LuaReturnSummary.serialize(stub.returnSummary, outputStream, stub)
     }
 
     override fun createPsi(stub: LuaClosureExprStub): LuaClosureExpr {
@@ -47,13 +48,14 @@ class LuaClosureExprType : LuaStubElementType<LuaClosureExprStub, LuaClosureExpr
         val varargTy = expr.varargType
         val params = expr.params
         val overloads = expr.overloads
-        return LuaClosureExprStub(null, varargTy, params, overloads, parentStub)
+        return LuaClosureExprStub(null, varargTy, params, overloads, LuaReturnSummary.create(expr), parentStub)
     }
 
     override fun deserialize(inputStream: StubInputStream, parentStub: StubElement<*>?): LuaClosureExprStub {
-        val params = inputStream.readParamInfoArray()
+        val params = inputStream.readParamInfoArray(parentStub)
         val overloads = inputStream.readSignatures()
-        return LuaClosureExprStub(null, null, params, overloads, parentStub)
+        val returnSummary = LuaReturnSummary.deserialize(inputStream, parentStub)
+        return LuaClosureExprStub(null, null, params, overloads, returnSummary, parentStub)
     }
 }
 
@@ -62,6 +64,7 @@ class LuaClosureExprStub(
         override val varargTy: ITy?,
         override val params: Array<LuaParamInfo>,
         override val overloads: Array<IFunSignature>,
+        override val returnSummary: LuaReturnSummary?,
         parent: StubElement<*>?
 ) : LuaStubBase<LuaClosureExpr>(parent, LuaElementTypes.CLOSURE_EXPR), LuaFuncBodyOwnerStub<LuaClosureExpr>, LuaExprStub<LuaClosureExpr> {
     override val tyParams: Array<TyParameter>
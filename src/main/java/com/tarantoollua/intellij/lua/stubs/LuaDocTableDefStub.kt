@@ -20,11 +20,11 @@ import com.intellij.psi.stubs.IndexSink
 import com.intellij.psi.stubs.StubElement
 import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
-import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.comment.psi.LuaDocTableDef
 import com.tarantoollua.intellij.lua.comment.psi.impl.LuaDocTableDefImpl
 import com.tarantoollua.intellij.lua.psi.LuaElementType
-import com.tarantoollua.intellij.lua.ty.getDocTableTypeName
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
+import com.tarantoollua.intellij.lua.ty.getDocTableTypeId
 
 class LuaDocTableDefType : LuaStubElementType<LuaDocTableDefStub, LuaDocTableDef>("DOC_TABLE_DEF") {
     override fun createPsi(stub: LuaDocTableDefStub): LuaDocTableDef {
@@ -32,29 +32,29 @@ class LuaDocTableDefType : LuaStubElementType<LuaDocTableDefStub, LuaDocTableDef
     }
 
     override fun serialize(stub: LuaDocTableDefStub, stream: StubOutputStream) {
-        stream.writeName(stub.className)
+        stream.writeAnonymousId(stub.tableTypeId, stub)
     }
 
     override fun deserialize(stream: StubInputStream, parent: StubElement<*>): LuaDocTableDefStub {
-        val name = StringRef.toString(stream.readName())
-        return LuaDocTableDefStubImpl(name, parent)
+        val id = stream.readAnonymousId(TyAnonymousId.Kind.DocTable, parent)
+        return LuaDocTableDefStubImpl(id, parent)
     }
 
     override fun createStub(tableDef: LuaDocTableDef, parentStub: StubElement<*>): LuaDocTableDefStub {
-        return LuaDocTableDefStubImpl(getDocTableTypeName(tableDef), parentStub)
+        return LuaDocTableDefStubImpl(getDocTableTypeId(tableDef), parentStub)
     }
 
     override fun indexStub(stub: LuaDocTableDefStub, sink: IndexSink) {
-        //sink.occurrence(StubKeys.CLASS, stub.className)
+        //sink.occurrence(StubKeys.CLASS, stub.tableTypeId.name)
     }
 }
 
 interface LuaDocTableDefStub : StubElement<LuaDocTableDef> {
-    val className: String
+    val tableTypeId: TyAnonymousId
 }
 
 class LuaDocTableDefStubImpl(
-        override val className: String,
+        override val tableTypeId: TyAnonymousId,
         parent: StubElement<*>
 ) : LuaDocStubBase<LuaDocTableDef>(parent, LuaElementType.DOC_TABLE_DEF), LuaDocTableDefStub {
 
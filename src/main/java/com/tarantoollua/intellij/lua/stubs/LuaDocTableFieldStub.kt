@@ -28,7 +28,8 @@ import com.tarantoollua.intellij.lua.psi.LuaElementType
 import com.tarantoollua.intellij.lua.psi.Visibility
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tarantoollua.intellij.lua.ty.ITy
-import com.tarantoollua.intellij.lua.ty.getDocTableTypeName
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
+import com.tarantoollua.intellij.lua.ty.getDocTableTypeId
 
 class LuaDocTableFieldType : LuaStubElementType<LuaDocTableFieldStub, LuaDocTableField>("DOC_TABLE_FIELD_DEF") {
     override fun createPsi(stub: LuaDocTableFieldStub): LuaDocTableField {
@@ -37,17 +38,17 @@ class LuaDocTableFieldType : LuaStubElementType<LuaDocTableFieldStub, LuaDocTabl
 
     override fun serialize(stub: LuaDocTableFieldStub, stream: StubOutputStream) {
         stream.writeName(stub.name)
-        stream.writeTyNullable(stub.docTy)
-        stream.writeName(stub.parentTypeName)
+        stream.writeTyNullable(stub.docTy, stub)
+        stream.writeAnonymousId(stub.parentTypeId, stub)
     }
 
     override fun deserialize(stream: StubInputStream, parent: StubElement<*>): LuaDocTableFieldStub {
         val name = stream.readName()
-        val docTy = stream.readTyNullable()
-        val parentTypeName = stream.readName()
+        val docTy = stream.readTyNullable(parent)
+        val parentTypeId = stream.readAnonymousId(TyAnonymousId.Kind.DocTable, parent)
         return LuaDocTableFieldStubImpl(StringRef.toString(name),
                 docTy,
-                StringRef.toString(parentTypeName),
+                parentTypeId,
                 parent)
     }
 
@@ -55,24 +56,23 @@ class LuaDocTableFieldType : LuaStubElementType<LuaDocTableFieldStub, LuaDocTabl
         val name = tableDef.name
         val type = tableDef.ty?.getType()
         val p = tableDef.parent as LuaDocTableDef
-        val pTypeName = getDocTableTypeName(p)
-        return LuaDocTableFieldStubImpl(name, type, pTypeName, parentStub)
+        return LuaDocTableFieldStubImpl(name, type, getDocTableTypeId(p), parentStub)
     }
 
     override fun indexStub(stub: LuaDocTableFieldStub, sink: IndexSink) {
-        LuaClassMemberIndex.indexStub(sink, stub.parentTypeName, stub.name)
+        LuaClassMemberIndex.indexStub(sink, stub.parentTypeId, stub.name)
     }
 }
 
 interface LuaDocTableFieldStub : LuaClassMemberStub<LuaDocTableField> {
     val name: String
-    val parentTypeName: String
+    val parentTypeId: TyAnonymousId
 }
 
 class LuaDocTableFieldStubImpl(
         override val name: String,
         override val docTy: ITy?,
-        override val parentTypeName: String,
+        override val parentTypeId: TyAnonymousId,
         parent: StubElement<*>
 ) : LuaDocStubBase<LuaDocTableField>(parent, LuaElementType.DOC_TABLE_FIELD_DEF), LuaDocTableFieldStub {
     override val visibility: Visibility
@@ -28,7 +28,6 @@ import com.tarantoollua.intellij.lua.comment.psi.impl.LuaDocTagAliasImpl
 import com.tarantoollua.intellij.lua.psi.LuaElementType
 import com.tarantoollua.intellij.lua.stubs.index.StubKeys
 import com.tarantoollua.intellij.lua.ty.ITy
-import com.tarantoollua.intellij.lua.ty.Ty
 
 class LuaDocTagAliasType : LuaStubElementType<LuaDocTagAliasStub, LuaDocTagAlias>("DOC_TAG_ALIAS") {
     override fun shouldCreateStub(node: ASTNode): Boolean {
@@ -42,12 +41,12 @@ class LuaDocTagAliasType : LuaStubElementType<LuaDocTagAliasStub, LuaDocTagAlias
 
     override fun serialize(stub: LuaDocTagAliasStub, stream: StubOutputStream) {
         stream.writeName(stub.name)
-        Ty.serialize(stub.type, stream)
+        stream.writeTy(stub.type, stub)
     }
 
     override fun deserialize(stream: StubInputStream, parent: StubElement<*>): LuaDocTagAliasStub {
         val name = stream.readName()
-        val ty = Ty.deserialize(stream)
+        val ty = stream.readTy(parent)
         return LuaDocTagAliasStubImpl(StringRef.toString(name), ty, parent)
     }
 
@@ -79,17 +79,17 @@ class LuaDocTagFieldType : LuaStubElementType<LuaDocTagFieldStub, LuaDocTagField
     override fun serialize(stub: LuaDocTagFieldStub, stubOutputStream: StubOutputStream) {
         stubOutputStream.writeName(stub.name)
         stubOutputStream.writeName(stub.className)
-        Ty.serialize(stub.type, stubOutputStream)
-        stubOutputStream.writeShort(stub.flags)
+        stubOutputStream.writeTy(stub.type, stub)
+        stubOutputStream.writeVarInt(stub.flags)
     }
 
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaDocTagFieldStub {
         val name = stubInputStream.readName()
         val className = stubInputStream.readName()
-        val type = Ty.deserialize(stubInputStream)
-        val flags = stubInputStream.readShort()
+        val type = stubInputStream.readTy(stubElement)
+        val flags = stubInputStream.readVarInt()
         return LuaDocFieldDefStubImpl(stubElement,
-                flags.toInt(),
+                flags,
                 StringRef.toString(name)!!,
                 StringRef.toString(className)!!,
                 type)
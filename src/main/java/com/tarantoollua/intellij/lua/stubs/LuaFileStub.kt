@@ -25,6 +25,7 @@ import com.intellij.psi.tree.IStubFileElementType
 import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.lang.LuaLanguage
 import com.tarantoollua.intellij.lua.lang.LuaParserDefinition
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
 import com.tarantoollua.intellij.lua.psi.LuaPsiFile
 
 /**
@@ -39,17 +40,14 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
 
     // debug performance
     override fun parseContents(chameleon: ASTNode): ASTNode? {
-        val psi = chameleon.psi
+        val psi = chameleon.psi as? LuaPsiFile ?: return super.parseContents(chameleon)
+        val fileName = psi.virtualFile?.path ?: psi.name
         val t = System.currentTimeMillis()
-        val contents = super.parseContents(chameleon)
-        if (psi is LuaPsiFile) {
-            if (LOG.isDebugEnabled) {
-                val dt = System.currentTimeMillis() - t
-                val fileName = psi.name
-                println("$fileName : $dt")
-                LOG.debug("$fileName : $dt")
-            }
+        val contents = LuaInferProfiler.measure(LuaInferProfiler.Category.PARSE, "LuaPsiFile", fileName) {
+            super.parseContents(chameleon)
         }
+        if (LOG.isDebugEnabled)
+            LOG.debug("$fileName : ${System.currentTimeMillis() - t}")
         return contents
     }
 
@@ -66,6 +64,7 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
                 return super.createStubForFile(file)
             }
 
+            // too large files are only outlined, see LuaOutlineIndex
             override fun skipChildProcessingWhenBuildingStubs(parent: ASTNode, node: ASTNode): Boolean {
                 return isTooLarger
             }
@@ -75,6 +74,11 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
     override fun serialize(stub: LuaFileStub, dataStream: StubOutputStream) {
         dataStream.writeName(stub.module)
         dataStream.writeUTFFast(stub.uid)
+        dataStream.writeName(stub.exportedClass)
+        // written before the child stubs, they refer to the types of the table
+        val typeTable = LuaStubTypeTable.create(stub)
+        stub.typeTable = typeTable
+        LuaStubTypeTable.serialize(typeTable, dataStream)
         if (LOG.isTraceEnabled) {
             println("--------- START: ${stub.psi.name}")
             println(stub.printTree())
@@ -85,10 +89,15 @@ class LuaFileElementType : IStubFileElementType<LuaFileStub>(LuaLanguage.INSTANC
     override fun deserialize(dataStream: StubInputStream, parentStub: StubElement<*>?): LuaFileStub {
         val moduleRef = dataStream.readName()
         val uid = dataStream.readUTFFast()
-        return LuaFileStub(null, StringRef.toString(moduleRef), uid)
+        val exportedClass = StringRef.toString(dataStream.readName())
+        val stub = LuaFileStub(null, StringRef.toString(moduleRef), uid, exportedClass)
+        stub.typeTable = LuaStubTypeTable.deserialize(dataStream)
+        return stub
     }
 
     override fun getExternalId() = "lua.file"
+
+    override fun getStubVersion() = LuaLanguage.INDEX_VERSION
 }
 
 class LuaFileStub : PsiFileStubImpl<LuaPsiFile> {
@@ -97,11 +106,22 @@ class LuaFileStub : PsiFileStubImpl<LuaPsiFile> {
 
     val uid: String
 
-    constructor(file: LuaPsiFile) : this(file, file.moduleName, file.uid)
+    /**
+     * class returned by the top level `return` of the file, see [LuaStubInference.inferExportedClass]
+     */
+    val exportedClass: String?
+
+    /**
+     * types shared by the child stubs, null until the stub is serialized
+     */
+    var typeTable: LuaStubTypeTable? = null
 
-    constructor(file: LuaPsiFile?, module:String?, uid: String) : super(file) {
+    constructor(file: LuaPsiFile) : this(file, file.moduleName, file.uid, LuaStubInference.inferExportedClass(file))
+
+    constructor(file: LuaPsiFile?, module:String?, uid: String, exportedClass: String?) : super(file) {
         this.file = file
         this.uid = uid
+        this.exportedClass = exportedClass
         moduleName = module
     }
 
@@ -110,4 +130,19 @@ class LuaFileStub : PsiFileStubImpl<LuaPsiFile> {
     }
 
     override fun getType(): LuaFileElementType = LuaParserDefinition.FILE
+
+    companion object {
+        /**
+         * file stub containing [stub]
+         */
+        fun of(stub: StubElement<*>?): LuaFileStub? {
+            var cur = stub
+            while (cur != null) {
+                if (cur is LuaFileStub)
+                    return cur
+                cur = cur.parentStub
+            }
+            return null
+        }
+    }
 }
\ No newline at end of file
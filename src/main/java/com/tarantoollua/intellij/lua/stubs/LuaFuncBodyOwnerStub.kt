@@ -16,10 +16,9 @@
 
 package com.tarantoollua.intellij.lua.stubs
 
-import com.intellij.openapi.util.Computable
 import com.intellij.psi.stubs.StubElement
-import com.tarantoollua.intellij.lua.ext.recursionGuard
-import com.tarantoollua.intellij.lua.psi.*
+import com.tarantoollua.intellij.lua.psi.LuaFuncBodyOwner
+import com.tarantoollua.intellij.lua.psi.LuaParamInfo
 import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.ty.*
 
@@ -34,32 +33,10 @@ interface LuaFuncBodyOwnerStub<T : LuaFuncBodyOwner> : StubElement<T> {
     val overloads: Array<IFunSignature>
     val varargTy: ITy?
 
-    private fun walkStub(stub: StubElement<*>, context: SearchContext): ITy? {
-        val psi = stub.psi
-        return recursionGuard(stub, Computable {
-            val ty = when (psi) {
-                is LuaReturnStat -> {
-                    psi.exprList?.guessTypeAt(context)
-                }
-                is LuaDoStat,
-                is LuaWhileStat,
-                is LuaIfStat,
-                is LuaForAStat,
-                is LuaForBStat,
-                is LuaRepeatStat -> {
-                    var ret: ITy? = null
-                    for (childrenStub in stub.childrenStubs) {
-                        ret = walkStub(childrenStub, context)
-                        if (ret != null)
-                            break
-                    }
-                    ret
-                }
-                else -> null
-            }
-            ty
-        })
-    }
+    /**
+     * null if the return type is given by [returnDocTy]
+     */
+    val returnSummary: LuaReturnSummary?
 
     fun guessReturnTy(context: SearchContext): ITy {
         val docTy = returnDocTy
@@ -69,9 +46,6 @@ interface LuaFuncBodyOwnerStub<T : LuaFuncBodyOwner> : StubElement<T> {
             }
             return docTy
         }
-        childrenStubs
-                .mapNotNull { walkStub(it, context) }
-                .forEach { return it }
-        return Ty.VOID
+        return returnSummary?.infer(psi, context) ?: Ty.VOID
     }
-}
\ No newline at end of file
+}
@@ -48,6 +48,7 @@ class LuaFuncType : LuaStubElementType<LuaFuncStub, LuaFuncDef>("Global Function
         val params = funcDef.params
         val tyParams = funcDef.tyParams
         val overloads = funcDef.overloads
+        val returnSummary = if (retDocTy == null) LuaReturnSummary.create(funcDef) else null
 
         var flags = BitUtil.set(0, funcDef.visibility.bitMask, true)
         flags = BitUtil.set(flags, FLAG_DEPRECATED, funcDef.isDeprecated)
@@ -60,6 +61,7 @@ class LuaFuncType : LuaStubElementType<LuaFuncStub, LuaFuncDef>("Global Function
                 params,
                 tyParams,
                 overloads,
+                returnSummary,
                 stubElement)
     }
 
@@ -71,31 +73,34 @@ class LuaFuncType : LuaStubElementType<LuaFuncStub, LuaFuncDef>("Global Function
     override fun serialize(stub: LuaFuncStub, stream: StubOutputStream) {
         stream.writeName(stub.name)
         stream.writeName(stub.module)
-        stream.writeShort(stub.flags)
-        stream.writeTyNullable(stub.returnDocTy)
-        stream.writeTyNullable(stub.varargTy)
-        stream.writeParamInfoArray(stub.params)
+        stream.writeVarInt(stub.flags)
+        stream.writeTyNullable(stub.returnDocTy, stub)
+        stream.writeTyNullable(stub.varargTy, stub)
+        stream.writeParamInfoArray(stub.params, stub)
         stream.writeTyParams(stub.tyParams)
         stream.writeSignatures(stub.overloads)
+        LuaReturnSummary.serialize(stub.returnSummary, stream, stub)
     }
 
     override fun deserialize(stream: StubInputStream, stubElement: StubElement<*>): LuaFuncStub {
         val name = stream.readName()
         val module = stream.readName()
-        val flags = stream.readShort()
-        val retDocTy = stream.readTyNullable()
-        val varargTy = stream.readTyNullable()
-        val params = stream.readParamInfoArray()
+        val flags = stream.readVarInt()
+        val retDocTy = stream.readTyNullable(stubElement)
+        val varargTy = stream.readTyNullable(stubElement)
+        val params = stream.readParamInfoArray(stubElement)
         val tyParams = stream.readTyParams()
         val overloads = stream.readSignatures()
+        val returnSummary = LuaReturnSummary.deserialize(stream, stubElement)
         return LuaFuncStubImpl(StringRef.toString(name),
                 StringRef.toString(module),
-                flags.toInt(),
+                flags,
                 retDocTy,
                 varargTy,
                 params,
                 tyParams,
                 overloads,
+                returnSummary,
                 stubElement)
     }
 
@@ -127,6 +132,7 @@ class LuaFuncStubImpl(override val name: String,
                       override val params: Array<LuaParamInfo>,
                       override val tyParams: Array<TyParameter>,
                       override val overloads: Array<IFunSignature>,
+                      override val returnSummary: LuaReturnSummary?,
                       parent: StubElement<*>)
     : StubBase<LuaFuncDef>(parent, LuaTypes.FUNC_DEF as IStubElementType<*, *>), LuaFuncStub {
     override val docTy: ITy?
@@ -24,12 +24,10 @@ import com.intellij.util.BitUtil
 import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.psi.*
 import com.tarantoollua.intellij.lua.psi.impl.LuaIndexExprImpl
-import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tarantoollua.intellij.lua.stubs.index.StubKeys
 import com.tarantoollua.intellij.lua.ty.ITy
 import com.tarantoollua.intellij.lua.ty.ITyClass
-import com.tarantoollua.intellij.lua.ty.Ty
 import com.tarantoollua.intellij.lua.ty.TyUnion
 
 /**
@@ -69,10 +67,7 @@ class LuaIndexExprType : LuaStubElementType<LuaIndexExprStub, LuaIndexExpr>("IND
         val classNameSet = mutableSetOf<String>()
 
         if (stat != null) {
-            val ty = SearchContext.withStub(indexExpr.project, indexExpr.containingFile, Ty.UNKNOWN) {
-                indexExpr.guessParentType(it)
-            }
-            TyUnion.each(ty) {
+            TyUnion.each(LuaStubInference.inferParent(indexExpr)) {
                 if (it is ITyClass)
                     classNameSet.add(it.className)
             }
@@ -96,17 +91,17 @@ class LuaIndexExprType : LuaStubElementType<LuaIndexExprStub, LuaIndexExpr>("IND
     override fun serialize(indexStub: LuaIndexExprStub, stubOutputStream: StubOutputStream) {
         stubOutputStream.writeNames(indexStub.classNames)
         stubOutputStream.writeName(indexStub.name)
-        stubOutputStream.writeInt(indexStub.flags)
-        stubOutputStream.writeTyNullable(indexStub.docTy)
-        stubOutputStream.writeInt(indexStub.worth)
+        stubOutputStream.writeVarInt(indexStub.flags)
+        stubOutputStream.writeTyNullable(indexStub.docTy, indexStub)
+        stubOutputStream.writeVarInt(indexStub.worth)
     }
 
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaIndexExprStub {
         val classNames = stubInputStream.readNames()
         val fieldName = stubInputStream.readName()
-        val flags = stubInputStream.readInt()
-        val docTy = stubInputStream.readTyNullable()
-        val worth = stubInputStream.readInt()
+        val flags = stubInputStream.readVarInt()
+        val docTy = stubInputStream.readTyNullable(stubElement)
+        val worth = stubInputStream.readVarInt()
         return LuaIndexExprStubImpl(classNames,
                 StringRef.toString(fieldName),
                 flags,
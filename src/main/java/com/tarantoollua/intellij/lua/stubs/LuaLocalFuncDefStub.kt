@@ -35,11 +35,12 @@ class LuaLocalFuncDefElementType
     : LuaStubElementType<LuaLocalFuncDefStub, LuaLocalFuncDef>("LOCAL_FUNC_DEF") {
     override fun serialize(stub: LuaLocalFuncDefStub, stream: StubOutputStream) {
         stream.writeName(stub.name)
-        stream.writeTyNullable(stub.returnDocTy)
-        stream.writeTyNullable(stub.varargTy)
-        stream.writeParamInfoArray(stub.params)
+        stream.writeTyNullable(stub.returnDocTy, stub)
+        stream.writeTyNullable(stub.varargTy, stub)
+        stream.writeParamInfoArray(stub.params, stub)
         stream.writeTyParams(stub.tyParams)
         stream.writeSignatures(stub.overloads)
+        LuaReturnSummary.serialize(stub.returnSummary, stream, stub)
     }
 
     override fun shouldCreateStub(node: ASTNode): Boolean {
@@ -52,29 +53,33 @@ class LuaLocalFuncDefElementType
         val params = def.params
         val tyParams = def.tyParams
         val overloads = def.overloads
+        val returnSummary = if (retDocTy == null) LuaReturnSummary.create(def) else null
         return LuaLocalFuncDefStub(def.name!!,
                 retDocTy,
                 def.varargType,
                 params,
                 tyParams,
                 overloads,
+                returnSummary,
                 parentStub,
                 this)
     }
 
     override fun deserialize(stream: StubInputStream, parentStub: StubElement<*>?): LuaLocalFuncDefStub {
         val name = stream.readName()
-        val retDocTy = stream.readTyNullable()
-        val varargTy = stream.readTyNullable()
-        val params = stream.readParamInfoArray()
+        val retDocTy = stream.readTyNullable(parentStub)
+        val varargTy = stream.readTyNullable(parentStub)
+        val params = stream.readParamInfoArray(parentStub)
         val tyParams = stream.readTyParams()
         val overloads = stream.readSignatures()
+        val returnSummary = LuaReturnSummary.deserialize(stream, parentStub)
         return LuaLocalFuncDefStub(StringRef.toString(name),
                 retDocTy,
                 varargTy,
                 params,
                 tyParams,
                 overloads,
+                returnSummary,
                 parentStub,
                 this)
     }
@@ -95,6 +100,7 @@ class LuaLocalFuncDefStub(
         override val params: Array<LuaParamInfo>,
         override val tyParams: Array<TyParameter>,
         override val overloads: Array<IFunSignature>,
+        override val returnSummary: LuaReturnSummary?,
         parent: StubElement<*>?,
         type: LuaStubElementType<*, *>
 ) : LuaStubBase<LuaLocalFuncDef>(parent, type), LuaFuncBodyOwnerStub<LuaLocalFuncDef>
\ No newline at end of file
@@ -29,7 +29,8 @@ import com.tarantoollua.intellij.lua.psi.LuaParamNameDef
 import com.tarantoollua.intellij.lua.psi.impl.LuaNameDefImpl
 import com.tarantoollua.intellij.lua.psi.impl.LuaParamNameDefImpl
 import com.tarantoollua.intellij.lua.ty.ITy
-import com.tarantoollua.intellij.lua.ty.getAnonymousType
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
+import com.tarantoollua.intellij.lua.ty.getAnonymousTypeId
 
 class LuaNameDefElementType : LuaStubElementType<LuaNameDefStub, LuaNameDef>("NAME_DEF") {
     override fun indexStub(stub: LuaNameDefStub, sink: IndexSink) {
@@ -38,7 +39,7 @@ class LuaNameDefElementType : LuaStubElementType<LuaNameDefStub, LuaNameDef>("NA
 
     override fun createStub(nameDef: LuaNameDef, parentStub: StubElement<*>?): LuaNameDefStub {
         val name = nameDef.name
-        val anonymous = getAnonymousType(nameDef)
+        val anonymous = getAnonymousTypeId(nameDef)
         val commentOwner = PsiTreeUtil.getParentOfType(nameDef, LuaCommentOwner::class.java)
         val comment = commentOwner?.comment
         val docTy = comment?.tagType?.type ?: comment?.tagClass?.type
@@ -48,8 +49,8 @@ class LuaNameDefElementType : LuaStubElementType<LuaNameDefStub, LuaNameDef>("NA
 
     override fun serialize(stub: LuaNameDefStub, dataStream: StubOutputStream) {
         dataStream.writeName(stub.name)
-        dataStream.writeName(stub.anonymousType)
-        dataStream.writeTyNullable(stub.docTy)
+        dataStream.writeAnonymousId(stub.anonymousId, stub)
+        dataStream.writeTyNullable(stub.docTy, stub)
     }
 
     override fun createPsi(stub: LuaNameDefStub): LuaNameDef {
@@ -58,17 +59,17 @@ class LuaNameDefElementType : LuaStubElementType<LuaNameDefStub, LuaNameDef>("NA
 
     override fun deserialize(dataStream: StubInputStream, parentStub: StubElement<*>?): LuaNameDefStub {
         val name = dataStream.readName()
-        val anonymous = dataStream.readName()
-        val docTy = dataStream.readTyNullable()
+        val anonymous = dataStream.readAnonymousId(TyAnonymousId.Kind.Local, parentStub)
+        val docTy = dataStream.readTyNullable(parentStub)
         return LuaNameDefStub(StringRef.toString(name),
-                StringRef.toString(anonymous),
+                anonymous,
                 docTy, parentStub, LuaElementType.NAME_DEF)
     }
 }
 
 open class LuaNameDefStub(
         val name: String,
-        val anonymousType:String,
+        val anonymousId: TyAnonymousId,
         override val docTy: ITy?,
         parentStub: StubElement<*>?,
         type: LuaStubElementType<*, *>
@@ -81,7 +82,7 @@ class ParamNameDefElementType : LuaStubElementType<ParamNameDefStub, LuaParamNam
 
     override fun createStub(nameDef: LuaParamNameDef, parentStub: StubElement<*>?): ParamNameDefStub {
         val name = nameDef.name
-        val anonymous = getAnonymousType(nameDef)
+        val anonymous = getAnonymousTypeId(nameDef)
         val commentOwner = PsiTreeUtil.getParentOfType(nameDef, LuaCommentOwner::class.java)
         val comment = commentOwner?.comment
         val docTy = comment?.getParamDef(name)?.type ?: comment?.tagClass?.type
@@ -91,8 +92,8 @@ class ParamNameDefElementType : LuaStubElementType<ParamNameDefStub, LuaParamNam
 
     override fun serialize(stub: ParamNameDefStub, dataStream: StubOutputStream) {
         dataStream.writeName(stub.name)
-        dataStream.writeName(stub.anonymousType)
-        dataStream.writeTyNullable(stub.docTy)
+        dataStream.writeAnonymousId(stub.anonymousId, stub)
+        dataStream.writeTyNullable(stub.docTy, stub)
     }
 
     override fun createPsi(stub: ParamNameDefStub): LuaParamNameDef {
@@ -101,10 +102,10 @@ class ParamNameDefElementType : LuaStubElementType<ParamNameDefStub, LuaParamNam
 
     override fun deserialize(dataStream: StubInputStream, parentStub: StubElement<*>?): ParamNameDefStub {
         val name = dataStream.readName()
-        val anonymous = dataStream.readName()
-        val docTy = dataStream.readTyNullable()
+        val anonymous = dataStream.readAnonymousId(TyAnonymousId.Kind.Local, parentStub)
+        val docTy = dataStream.readTyNullable(parentStub)
         return ParamNameDefStub(StringRef.toString(name),
-                StringRef.toString(anonymous),
+                anonymous,
                 docTy,
                 parentStub,
                 LuaElementType.PARAM_NAME_DEF)
@@ -113,8 +114,8 @@ class ParamNameDefElementType : LuaStubElementType<ParamNameDefStub, LuaParamNam
 
 class ParamNameDefStub(
         name: String,
-        anonymousType:String,
+        anonymousId: TyAnonymousId,
         docTy: ITy?,
         parentStub: StubElement<*>?,
         type: LuaStubElementType<*, *>
-) : LuaNameDefStub(name, anonymousType, docTy, parentStub, type)
\ No newline at end of file
+) : LuaNameDefStub(name, anonymousId, docTy, parentStub, type)
\ No newline at end of file
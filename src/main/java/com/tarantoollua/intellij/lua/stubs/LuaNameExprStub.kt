@@ -25,7 +25,6 @@ import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.Constants
 import com.tarantoollua.intellij.lua.psi.*
 import com.tarantoollua.intellij.lua.psi.impl.LuaNameExprImpl
-import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tarantoollua.intellij.lua.stubs.index.StubKeys
 import com.tarantoollua.intellij.lua.ty.ITy
@@ -46,7 +45,7 @@ class LuaNameExprType : LuaStubElementType<LuaNameExprStub, LuaNameExpr>("NAME_E
         val psiFile = luaNameExpr.containingFile
         val name = luaNameExpr.name
         val module = if (psiFile is LuaPsiFile) psiFile.moduleName ?: Constants.WORD_G else Constants.WORD_G
-        val isGlobal = SearchContext.withStub(luaNameExpr.project, psiFile, null) { resolveLocal(luaNameExpr) } == null
+        val isGlobal = resolveLocal(luaNameExpr) == null
 
         val stat = luaNameExpr.assignStat
         val docTy = stat?.comment?.ty
@@ -66,8 +65,8 @@ class LuaNameExprType : LuaStubElementType<LuaNameExprStub, LuaNameExpr>("NAME_E
         stream.writeName(stub.module)
         stream.writeBoolean(stub.isName)
         stream.writeBoolean(stub.isGlobal)
-        stream.writeTyNullable(stub.docTy)
-        stream.writeInt(stub.worth)
+        stream.writeTyNullable(stub.docTy, stub)
+        stream.writeVarInt(stub.worth)
     }
 
     override fun deserialize(stream: StubInputStream, stubElement: StubElement<*>): LuaNameExprStub {
@@ -75,8 +74,8 @@ class LuaNameExprType : LuaStubElementType<LuaNameExprStub, LuaNameExpr>("NAME_E
         val moduleRef = stream.readName()
         val isName = stream.readBoolean()
         val isGlobal = stream.readBoolean()
-        val docTy = stream.readTyNullable()
-        val worth = stream.readInt()
+        val docTy = stream.readTyNullable(stubElement)
+        val worth = stream.readVarInt()
         return LuaNameExprStubImpl(StringRef.toString(nameRef),
                 StringRef.toString(moduleRef),
                 isGlobal,
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.stubs
+
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.stubs.StubInputStream
+import com.intellij.psi.stubs.StubOutputStream
+import com.intellij.util.io.StringRef
+import com.tarantoollua.intellij.lua.Constants
+import com.tarantoollua.intellij.lua.psi.*
+import com.tarantoollua.intellij.lua.search.GuardType
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.*
+
+/**
+ * Syntactic shape of the values returned by a function without a `@return` tag, built with its stub.
+ *
+ * Holds one entry per return statement, in the order of [processReturnStats], with one value per returned expression.
+ * Call sites take literal types, `self` and `require` results from here
+ * and only infer the expressions whose type depends on other code.
+ */
+class LuaReturnSummary(val returns: Array<Array<Value>>) {
+
+    sealed class Value {
+        class Known(val ty: ITy) : Value()
+        class Require(val path: String) : Value()
+        object Self : Value()
+        object Dependent : Value()
+    }
+
+    val isSyntactic: Boolean
+        get() = returns.all { values -> values.none { it === Value.Dependent } }
+
+    fun infer(owner: LuaFuncBodyOwner, context: SearchContext): ITy {
+        return context.withRecursionGuard(owner, GuardType.RecursionCall) {
+            // expressions are only needed for the values that depend on other code
+            val stats = if (isSyntactic) null else mutableListOf<LuaReturnStat>().also { list ->
+                processReturnStats(owner) { list.add(it) }
+            }
+            var type: ITy = Ty.VOID
+            returns.forEachIndexed { i, values ->
+                val exprs = stats?.getOrNull(i)?.exprList?.exprStubList
+                TyUnion.each(inferAt(owner, values, exprs, context)) { type = type.union(it) }
+            }
+            type
+        }
+    }
+
+    // same as guessReturnType(LuaReturnStat, index, context)
+    private fun inferAt(owner: LuaFuncBodyOwner, values: Array<Value>, exprs: List<LuaExpr>?, context: SearchContext): ITy {
+        if (values.isEmpty())
+            return Ty.UNKNOWN
+        if (context.guessTuple()) {
+            return if (values.size == 1)
+                inferValue(owner, values[0], exprs?.getOrNull(0), context)
+            else TyTuple(values.mapIndexed { i, value -> inferValue(owner, value, exprs?.getOrNull(i), context) })
+        }
+        var i = context.index
+        if (i !in values.indices) i = values.size - 1
+        var index = context.index
+        if (values.size > 1) {
+            val nameSize = context.index + 1
+            index = if (nameSize > values.size) nameSize - values.size else 0
+        }
+        return context.withIndex(index) { inferValue(owner, values[i], exprs?.getOrNull(i), context) }
+    }
+
+    private fun inferValue(owner: LuaFuncBodyOwner, value: Value, expr: LuaExpr?, context: SearchContext): ITy {
+        return when (value) {
+            is Value.Known -> value.ty
+            is Value.Require -> resolveRequireFile(value.path, owner.project)?.guessType(context) ?: Ty.UNKNOWN
+            is Value.Self -> {
+                val methodDef = owner as? LuaClassMethodDef
+                methodDef?.classMethodName?.expr?.guessType(context) ?: Ty.UNKNOWN
+            }
+            is Value.Dependent -> expr?.guessType(context) ?: Ty.UNKNOWN
+        }
+    }
+
+    companion object {
+        private const val KNOWN = 0
+        private const val REQUIRE = 1
+        private const val SELF = 2
+        private const val DEPENDENT = 3
+
+        fun create(owner: LuaFuncBodyOwner): LuaReturnSummary {
+            val returns = mutableListOf<Array<Value>>()
+            processReturnStats(owner) { stat ->
+                val exprs = stat.exprList?.exprList ?: emptyList()
+                returns.add(exprs.map { summarize(owner, it) }.toTypedArray())
+            }
+            return LuaReturnSummary(returns.toTypedArray())
+        }
+
+        private fun summarize(owner: LuaFuncBodyOwner, expr: LuaExpr): Value {
+            return when (expr) {
+                is LuaParenExpr -> expr.expr?.let { summarize(owner, it) } ?: Value.Known(Ty.UNKNOWN)
+                is LuaLiteralExpr -> when (expr.kind) {
+                    LuaLiteralKind.Bool -> Value.Known(Ty.BOOLEAN)
+                    LuaLiteralKind.String -> Value.Known(Ty.STRING)
+                    LuaLiteralKind.Number -> Value.Known(Ty.NUMBER)
+                    LuaLiteralKind.Nil -> Value.Known(Ty.UNKNOWN)
+                    else -> Value.Dependent
+                }
+                is LuaNameExpr -> {
+                    // a method's implicit self, not a local named self
+                    if (expr.name == Constants.WORD_SELF
+                            && owner is LuaClassMethodDef && !owner.isStatic
+                            && LuaDeclarationTree.get(expr.containingFile).find(expr) == null)
+                        Value.Self
+                    else Value.Dependent
+                }
+                is LuaCallExpr -> {
+                    // other require like functions are configurable, they are left to the inference
+                    val fn = expr.expr
+                    val path = (expr.firstStringArg as? LuaLiteralExpr)?.stringValue
+                    if (fn is LuaNameExpr && fn.name == Constants.WORD_REQUIRE && path != null)
+                        Value.Require(path)
+                    else Value.Dependent
+                }
+                else -> Value.Dependent
+            }
+        }
+
+        fun serialize(summary: LuaReturnSummary?, stream: StubOutputStream, stub: StubElement<*>) {
+            stream.writeBoolean(summary != null)
+            summary ?: return
+            stream.writeVarInt(summary.returns.size)
+            for (values in summary.returns) {
+                stream.writeVarInt(values.size)
+                for (value in values) {
+                    when (value) {
+                        is Value.Known -> {
+                            stream.writeByte(KNOWN)
+                            stream.writeTy(value.ty, stub)
+                        }
+                        is Value.Require -> {
+                            stream.writeByte(REQUIRE)
+                            stream.writeName(value.path)
+                        }
+                        is Value.Self -> stream.writeByte(SELF)
+                        is Value.Dependent -> stream.writeByte(DEPENDENT)
+                    }
+                }
+            }
+        }
+
+        fun deserialize(stream: StubInputStream, parentStub: StubElement<*>?): LuaReturnSummary? {
+            if (!stream.readBoolean())
+                return null
+            val returns = Array(stream.readVarInt()) {
+                Array(stream.readVarInt()) {
+                    when (stream.readByte().toInt()) {
+                        KNOWN -> Value.Known(stream.readTy(parentStub))
+                        REQUIRE -> Value.Require(StringRef.toString(stream.readName()))
+                        SELF -> Value.Self
+                        else -> Value.Dependent
+                    }
+                }
+            }
+            return LuaReturnSummary(returns)
+        }
+    }
+}
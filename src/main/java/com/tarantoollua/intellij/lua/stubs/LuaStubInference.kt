@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.stubs
+
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.Constants
+import com.tarantoollua.intellij.lua.project.LuaSettings
+import com.tarantoollua.intellij.lua.psi.*
+import com.tarantoollua.intellij.lua.ty.*
+
+/**
+ * Type inference of the stub builders.
+ *
+ * Only reads the file being indexed: its declarations, literals, doc tags and the `self` of methods.
+ * Indexes and other files are never looked at, so the stubs of a file do not depend on the rest of the project.
+ * What the file can not tell is kept as a symbolic type, whose members are resolved when they are queried:
+ * the fields of a global as `$a.b` (see [TyClass.createGlobalFieldType])
+ * and the result of a require as `@module` (see [TyClass.createModuleType]).
+ * Those symbolic owners never become part of a value type, member lookups consult them through [inferOwners].
+ */
+object LuaStubInference {
+
+    private const val MAX_DEPTH = 32
+
+    /**
+     * the classes `a.b` of `a.b.c = value`
+     */
+    fun inferParent(indexExpr: LuaIndexExpr): ITy {
+        return infer(indexExpr.prefixExpr, 0)
+    }
+
+    fun infer(expr: LuaExpr): ITy {
+        return infer(expr, 0)
+    }
+
+    /**
+     * the symbolic owners the members of `a.b` in `a.b.c` may be indexed under, `$a.b` or `@module`.
+     * Read from the stub if [indexExpr] has one, so the file is not parsed for it.
+     */
+    fun inferOwners(indexExpr: LuaIndexExpr): ITy {
+        var owners: ITy = Ty.UNKNOWN
+        val stub = indexExpr.stub
+        if (stub != null) {
+            stub.classNames.forEach {
+                if (TyClass.isSymbolicOwner(it))
+                    owners = owners.union(createSerializedClass(it, it.substring(1), null, null, TyFlags.GLOBAL))
+            }
+            return owners
+        }
+        TyUnion.each(inferParent(indexExpr)) {
+            if (it is ITyClass && TyClass.isSymbolicOwner(it.className))
+                owners = owners.union(it)
+        }
+        return owners
+    }
+
+    /**
+     * name of the class returned by the top level `return` of [file], null if it returns no named class
+     */
+    fun inferExportedClass(file: LuaPsiFile): String? {
+        var stat: LuaReturnStat? = null
+        LuaPsiTreeUtil.walkTopLevelInFile(file.lastChild, LuaReturnStat::class.java) {
+            stat = it
+            false
+        }
+        val expr = stat?.exprList?.exprList?.firstOrNull() ?: return null
+        var className: String? = null
+        TyUnion.each(infer(expr, 0)) {
+            if (className == null && it is ITyClass && !it.isAnonymous && !it.isGlobal)
+                className = it.className
+        }
+        return className
+    }
+
+    private fun infer(expr: LuaExpr?, depth: Int): ITy {
+        if (expr == null || depth > MAX_DEPTH)
+            return Ty.UNKNOWN
+        return when (expr) {
+            is LuaParenExpr -> infer(expr.expr, depth + 1)
+            is LuaTableExpr -> TyTable(expr)
+            is LuaLiteralExpr -> when (expr.kind) {
+                LuaLiteralKind.Bool -> Ty.BOOLEAN
+                LuaLiteralKind.String -> Ty.STRING
+                LuaLiteralKind.Number -> Ty.NUMBER
+                else -> Ty.UNKNOWN
+            }
+            is LuaNameExpr -> inferName(expr, depth)
+            is LuaIndexExpr -> inferIndex(expr, depth)
+            is LuaCallExpr -> inferCall(expr, depth)
+            else -> Ty.UNKNOWN
+        }
+    }
+
+    private fun inferName(nameExpr: LuaNameExpr, depth: Int): ITy {
+        // self resolves to the name of the method
+        val def = resolveInFile(nameExpr.name, nameExpr, null)
+        return when (def) {
+            null -> createGlobalType(nameExpr.name)
+            is LuaParamNameDef -> {
+                val owner = PsiTreeUtil.getParentOfType(def, LuaCommentOwner::class.java)
+                owner?.comment?.getParamDef(def.name)?.type ?: TyClass.createAnonymousType(def)
+            }
+            is LuaNameDef -> inferLocal(def, depth)
+            is LuaNameExpr -> {
+                if (def.assignStat == null)
+                    return infer(def, depth + 1)
+                val type = def.docTy ?: inferValue(def, depth)
+                if (type is ITyPrimitive) type else type.union(createGlobalType(def.name))
+            }
+            is LuaExpr -> infer(def, depth + 1)
+            else -> Ty.UNKNOWN
+        }
+    }
+
+    private fun inferLocal(nameDef: LuaNameDef, depth: Int): ITy {
+        nameDef.docTy?.let { return it }
+        val localDef = PsiTreeUtil.getParentOfType(nameDef, LuaLocalDef::class.java) ?: return Ty.UNKNOWN
+        val exprs = localDef.exprList?.exprList ?: emptyList()
+        val type = infer(exprs.getOrNull(localDef.getIndexFor(nameDef)), depth + 1)
+        return if (type !is ITyPrimitive || type == Ty.TABLE)
+            type.union(TyClass.createAnonymousType(nameDef))
+        else type
+    }
+
+    private fun inferIndex(indexExpr: LuaIndexExpr, depth: Int): ITy {
+        if (indexExpr.brack)
+            return Ty.UNKNOWN
+        // the first assignment of the same path in this file
+        val tree = LuaDeclarationTree.get(indexExpr.containingFile)
+        val def = tree.find(indexExpr)?.firstDeclaration?.psi as? LuaIndexExpr ?: indexExpr
+        def.docTy?.let { return it }
+
+        var type = inferValue(def, depth)
+        val fieldName = indexExpr.name ?: return type
+        if (type is ITyPrimitive)
+            return type
+        TyUnion.each(infer(indexExpr.prefixExpr, depth + 1)) {
+            if (it is ITyClass) {
+                if (it.className == Constants.WORD_G)
+                    type = type.union(createGlobalType(fieldName))
+                else if (it.isGlobal)
+                    type = type.union(TyClass.createGlobalFieldType(it, fieldName))
+            }
+        }
+        return type
+    }
+
+    private fun inferCall(callExpr: LuaCallExpr, depth: Int): ITy {
+        val fn = callExpr.expr
+        // other require like functions are configurable, the stubs do not depend on settings for them
+        if (fn is LuaNameExpr && fn.name == Constants.WORD_REQUIRE) {
+            val path = (callExpr.firstStringArg as? LuaLiteralExpr)?.stringValue
+            return if (path != null) TyClass.createModuleType(path) else Ty.UNKNOWN
+        }
+        // xxx.new()
+        if (fn is LuaIndexExpr) {
+            val fnName = fn.name
+            if (fnName != null && LuaSettings.isConstructorName(fnName))
+                return infer(fn.prefixExpr, depth + 1)
+        }
+        return Ty.UNKNOWN
+    }
+
+    private fun inferValue(expr: LuaExpr, depth: Int): ITy {
+        val stat = expr.assignStat ?: return Ty.UNKNOWN
+        val exprs = stat.valueExprList?.exprList ?: return Ty.UNKNOWN
+        return infer(exprs.getOrNull(stat.getIndexFor(expr)), depth + 1)
+    }
+
+    // the global name only, not the class of the same name, see TyClass.createGlobalType
+    private fun createGlobalType(name: String): ITy {
+        return createSerializedClass(getGlobalTypeName(name), name, null, null, TyFlags.GLOBAL)
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.stubs
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.stubs.StubInputStream
+import com.intellij.psi.stubs.StubOutputStream
+import com.intellij.util.io.AbstractStringEnumerator
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.lua.ty.Ty
+import java.util.*
+
+/**
+ * Table of the distinct types written by the stubs of a file.
+ *
+ * The table is written once by [LuaFileStub], child stubs write the index of a type with [writeTy]
+ * and get the shared instance back with [readTy], so a type repeated by many fields is stored and deserialized once.
+ * Types not collected by [create] are written inline after the index 0.
+ */
+class LuaStubTypeTable private constructor(private val types: Array<ITy>,
+                                           private val ids: Map<ITy, Int>) {
+
+    val size: Int get() = types.size
+
+    /**
+     * @return -1 if [ty] is not in the table
+     */
+    fun indexOf(ty: ITy): Int = ids[ty] ?: -1
+
+    operator fun get(index: Int): ITy = types[index]
+
+    /**
+     * [ITy.equals] is looser than the serialized form, signatures for example ignore the return type,
+     * so types are only shared if they serialize to the same bytes.
+     * Names are enumerated locally for that.
+     */
+    private class Builder {
+        private val names = LocalNames()
+        private val buffer = BufferExposingByteArrayOutputStream()
+        private val keyStream = StubOutputStream(buffer, names)
+        private val keys = HashMap<String, Int>()
+        val types = mutableListOf<ITy>()
+        // the instances of the stubs, found by identity when the stubs are written
+        val ids = IdentityHashMap<ITy, Int>()
+
+        fun add(ty: ITy?) {
+            if (ty == null || ids.containsKey(ty))
+                return
+            buffer.reset()
+            Ty.serialize(ty, keyStream)
+            val key = String(buffer.internalBuffer, 0, buffer.size(), Charsets.ISO_8859_1)
+            ids[ty] = keys.getOrPut(key) {
+                types.add(ty)
+                types.size - 1
+            }
+        }
+    }
+
+    /**
+     * Names of one stream, numbered from 1.
+     */
+    internal class LocalNames : AbstractStringEnumerator {
+        private val ids = HashMap<String?, Int>()
+        private val names = mutableListOf<String?>()
+
+        override fun enumerate(value: String?): Int {
+            return ids.getOrPut(value) {
+                names.add(value)
+                names.size
+            }
+        }
+
+        override fun valueOf(idx: Int): String? = names[idx - 1]
+
+        override fun markCorrupted() {}
+
+        override fun isDirty() = false
+
+        override fun force() {}
+
+        override fun close() {}
+    }
+
+    companion object {
+        fun create(file: LuaFileStub): LuaStubTypeTable {
+            val builder = Builder()
+            collect(file, builder)
+            return LuaStubTypeTable(builder.types.toTypedArray(), builder.ids)
+        }
+
+        private fun collect(stub: StubElement<*>, builder: Builder) {
+            if (stub is LuaDocTyStub)
+                builder.add(stub.docTy)
+            when (stub) {
+                is LuaDocTagFieldStub -> builder.add(stub.type)
+                is LuaDocTagAliasStub -> builder.add(stub.type)
+                is LuaClassMethodStub -> stub.classes.forEach { builder.add(it) }
+            }
+            if (stub is LuaFuncBodyOwnerStub<*>) {
+                builder.add(stub.returnDocTy)
+                builder.add(stub.varargTy)
+                stub.params.forEach { builder.add(it.ty) }
+                stub.returnSummary?.returns?.forEach { values ->
+                    values.forEach { if (it is LuaReturnSummary.Value.Known) builder.add(it.ty) }
+                }
+            }
+            for (child in stub.childrenStubs) {
+                collect(child, builder)
+            }
+        }
+
+        /**
+         * table of the file containing [stub]
+         */
+        fun of(stub: StubElement<*>?): LuaStubTypeTable? {
+            return LuaFileStub.of(stub)?.typeTable
+        }
+
+        fun serialize(table: LuaStubTypeTable?, stream: StubOutputStream) {
+            stream.writeVarInt(table?.size ?: 0)
+            table?.types?.forEach { Ty.serialize(it, stream) }
+        }
+
+        fun deserialize(stream: StubInputStream): LuaStubTypeTable? {
+            val size = stream.readVarInt()
+            if (size == 0)
+                return null
+            val types = Array(size) { Ty.deserialize(stream) }
+            return LuaStubTypeTable(types, emptyMap())
+        }
+    }
+}
@@ -21,11 +21,11 @@ import com.intellij.psi.stubs.IndexSink
 import com.intellij.psi.stubs.StubElement
 import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
-import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.psi.LuaTableExpr
 import com.tarantoollua.intellij.lua.psi.impl.LuaTableExprImpl
 import com.tarantoollua.intellij.lua.psi.shouldCreateStub
-import com.tarantoollua.intellij.lua.ty.getTableTypeName
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
+import com.tarantoollua.intellij.lua.ty.getTableTypeId
 
 /**
 
@@ -36,8 +36,8 @@ class LuaTableExprType : LuaStubElementType<LuaTableExprStub, LuaTableExpr>("TAB
     override fun createPsi(luaTableStub: LuaTableExprStub) = LuaTableExprImpl(luaTableStub, this)
 
     override fun createStub(tableExpr: LuaTableExpr, stubElement: StubElement<*>): LuaTableExprStub {
-        val tableTypeName = getTableTypeName(tableExpr)
-        return LuaTableExprStubImpl(tableTypeName, stubElement, this)
+        val tableTypeId = getTableTypeId(tableExpr)
+        return LuaTableExprStubImpl(tableTypeId, stubElement, this)
     }
 
     override fun shouldCreateStub(node: ASTNode): Boolean {
@@ -46,23 +46,23 @@ class LuaTableExprType : LuaStubElementType<LuaTableExprStub, LuaTableExpr>("TAB
     }
 
     override fun serialize(stub: LuaTableExprStub, stubOutputStream: StubOutputStream) {
-        stubOutputStream.writeName(stub.tableTypeName)
+        stubOutputStream.writeAnonymousId(stub.tableTypeId, stub)
     }
 
     override fun deserialize(stubInputStream: StubInputStream, stubElement: StubElement<*>): LuaTableExprStub {
-        val tableTypeName = stubInputStream.readName()
-        return LuaTableExprStubImpl(StringRef.toString(tableTypeName), stubElement, this)
+        val tableTypeId = stubInputStream.readAnonymousId(TyAnonymousId.Kind.Table, stubElement)
+        return LuaTableExprStubImpl(tableTypeId, stubElement, this)
     }
 
     override fun indexStub(luaTableStub: LuaTableExprStub, indexSink: IndexSink) {}
 }
 
 interface LuaTableExprStub : LuaExprStub<LuaTableExpr> {
-    val tableTypeName: String
+    val tableTypeId: TyAnonymousId
 }
 
 class LuaTableExprStubImpl(
-        override val tableTypeName: String,
+        override val tableTypeId: TyAnonymousId,
         parent: StubElement<*>,
         elementType: LuaStubElementType<*, *>
 ) : LuaExprStubImpl<LuaTableExpr>(parent, elementType), LuaTableExprStub
\ No newline at end of file
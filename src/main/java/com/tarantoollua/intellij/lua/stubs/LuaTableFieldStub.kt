@@ -29,7 +29,8 @@ import com.tarantoollua.intellij.lua.psi.impl.LuaTableFieldImpl
 import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
 import com.tarantoollua.intellij.lua.stubs.index.StubKeys
 import com.tarantoollua.intellij.lua.ty.ITy
-import com.tarantoollua.intellij.lua.ty.getTableTypeName
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
+import com.tarantoollua.intellij.lua.ty.getTableTypeId
 
 class LuaTableFieldType : LuaStubElementType<LuaTableFieldStub, LuaTableField>("TABLE_FIELD") {
 
@@ -42,12 +43,9 @@ class LuaTableFieldType : LuaStubElementType<LuaTableFieldStub, LuaTableField>("
         return tableField.shouldCreateStub
     }
 
-    private fun findTableExprTypeName(field: LuaTableField): String? {
+    private fun findTableExprTypeId(field: LuaTableField): TyAnonymousId? {
         val table = PsiTreeUtil.getParentOfType(field, LuaTableExpr::class.java)
-        var ty: String? = null
-        if (table != null)
-            ty = getTableTypeName(table)
-        return ty
+        return if (table != null) getTableTypeId(table) else null
     }
 
     override fun createStub(field: LuaTableField, parentStub: StubElement<*>): LuaTableFieldStub {
@@ -55,37 +53,40 @@ class LuaTableFieldType : LuaStubElementType<LuaTableFieldStub, LuaTableField>("
         val flags = BitUtil.set(0, FLAG_DEPRECATED, field.isDeprecated)
         return LuaTableFieldStubImpl(ty,
                 field.fieldName,
-                findTableExprTypeName(field),
+                findTableExprTypeId(field),
                 flags,
                 parentStub,
                 this)
     }
 
     override fun serialize(fieldStub: LuaTableFieldStub, stubOutputStream: StubOutputStream) {
-        stubOutputStream.writeTyNullable(fieldStub.docTy)
+        stubOutputStream.writeTyNullable(fieldStub.docTy, fieldStub)
         stubOutputStream.writeName(fieldStub.name)
-        stubOutputStream.writeName(fieldStub.typeName)
-        stubOutputStream.writeShort(fieldStub.flags)
+        val typeId = fieldStub.typeId
+        stubOutputStream.writeBoolean(typeId != null)
+        if (typeId != null)
+            stubOutputStream.writeAnonymousId(typeId, fieldStub)
+        stubOutputStream.writeVarInt(fieldStub.flags)
     }
 
     override fun deserialize(stream: StubInputStream, stubElement: StubElement<*>): LuaTableFieldStub {
-        val ty = stream.readTyNullable()
+        val ty = stream.readTyNullable(stubElement)
         val fieldName = stream.readName()
-        val typeName = stream.readName()
-        val flags = stream.readShort()
+        val typeId = if (stream.readBoolean()) stream.readAnonymousId(TyAnonymousId.Kind.Table, stubElement) else null
+        val flags = stream.readVarInt()
         return LuaTableFieldStubImpl(ty,
                 StringRef.toString(fieldName),
-                StringRef.toString(typeName),
-                flags.toInt(),
+                typeId,
+                flags,
                 stubElement,
                 this)
     }
 
     override fun indexStub(fieldStub: LuaTableFieldStub, indexSink: IndexSink) {
         val fieldName = fieldStub.name
-        val typeName = fieldStub.typeName
-        if (fieldName != null && typeName != null) {
-            LuaClassMemberIndex.indexStub(indexSink, typeName, fieldName)
+        val typeId = fieldStub.typeId
+        if (fieldName != null && typeId != null) {
+            LuaClassMemberIndex.indexStub(indexSink, typeId, fieldName)
 
             indexSink.occurrence(StubKeys.SHORT_NAME, fieldName)
         }
@@ -101,7 +102,7 @@ class LuaTableFieldType : LuaStubElementType<LuaTableFieldStub, LuaTableField>("
  * Created by tarantoolluazx on 2017/1/14.
  */
 interface LuaTableFieldStub : LuaClassMemberStub<LuaTableField> {
-    val typeName: String?
+    val typeId: TyAnonymousId?
     val name: String?
     val flags: Int
 }
@@ -109,7 +110,7 @@ interface LuaTableFieldStub : LuaClassMemberStub<LuaTableField> {
 class LuaTableFieldStubImpl(
         override val docTy: ITy?,
         override val name: String?,
-        override val typeName: String?,
+        override val typeId: TyAnonymousId?,
         override val flags: Int,
         parent: StubElement<*>,
         elementType: LuaStubElementType<*, *>
@@ -16,14 +16,16 @@
 
 package com.tarantoollua.intellij.lua.stubs
 
+import com.intellij.psi.stubs.StubElement
 import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
 import com.intellij.util.io.StringRef
 import com.tarantoollua.intellij.lua.psi.LuaParamInfo
 import com.tarantoollua.intellij.lua.ty.*
+import java.io.IOException
 
 fun StubOutputStream.writeParamInfoArray(params: Array<LuaParamInfo>) {
-    writeByte(params.size)
+    writeVarInt(params.size)
     for (param in params) {
         LuaParamInfo.serialize(param, this)
     }
@@ -31,22 +33,44 @@ fun StubOutputStream.writeParamInfoArray(params: Array<LuaParamInfo>) {
 
 fun StubInputStream.readParamInfoArray(): Array<LuaParamInfo> {
     val list = mutableListOf<LuaParamInfo>()
-    val size = readByte()
+    val size = readVarInt()
     for (j in 0 until size) {
         list.add(LuaParamInfo.deserialize(this))
     }
     return list.toTypedArray()
 }
 
+/**
+ * params of a stub, types are written to the [LuaStubTypeTable] of the file
+ */
+fun StubOutputStream.writeParamInfoArray(params: Array<LuaParamInfo>, stub: StubElement<*>) {
+    writeVarInt(params.size)
+    for (param in params) {
+        writeName(param.name)
+        writeByte(param.flags.toInt())
+        writeTy(param.ty, stub)
+    }
+}
+
+fun StubInputStream.readParamInfoArray(parentStub: StubElement<*>?): Array<LuaParamInfo> {
+    return Array(readVarInt()) {
+        val name = StringRef.toString(readName())
+        val flags = readByte()
+        val param = LuaParamInfo(name, readTy(parentStub))
+        param.flags = flags
+        param
+    }
+}
+
 fun StubOutputStream.writeSignatures(signatures: Array<IFunSignature>) {
-    writeByte(signatures.size)
+    writeVarInt(signatures.size)
     for (sig in signatures) {
         FunSignature.serialize(sig, this)
     }
 }
 
 fun StubInputStream.readSignatures(): Array<IFunSignature> {
-    val size = readByte()
+    val size = readVarInt()
     val arr = mutableListOf<IFunSignature>()
     for (i in 0 until size) {
         arr.add(FunSignature.deserialize(this))
@@ -65,14 +89,61 @@ fun StubOutputStream.writeTyNullable(ty: ITy?) {
         Ty.serialize(ty, this)
 }
 
+/**
+ * writes the index of [ty] in the [LuaStubTypeTable] of the file containing [stub], or the type itself after 0
+ */
+fun StubOutputStream.writeTy(ty: ITy, stub: StubElement<*>) {
+    val id = LuaStubTypeTable.of(stub)?.indexOf(ty) ?: -1
+    writeVarInt(id + 1)
+    if (id < 0)
+        Ty.serialize(ty, this)
+}
+
+fun StubInputStream.readTy(parentStub: StubElement<*>?): ITy {
+    val id = readVarInt() - 1
+    if (id < 0)
+        return Ty.deserialize(this)
+    val table = LuaStubTypeTable.of(parentStub) ?: throw IOException("no type table for type $id")
+    return table[id]
+}
+
+fun StubOutputStream.writeTyNullable(ty: ITy?, stub: StubElement<*>) {
+    writeBoolean(ty != null)
+    if (ty != null)
+        writeTy(ty, stub)
+}
+
+fun StubInputStream.readTyNullable(parentStub: StubElement<*>?): ITy? {
+    val notNull = readBoolean()
+    return if (notNull) readTy(parentStub) else null
+}
+
+/**
+ * ids defined in the file containing [stub] are written as their offset only, the uid is taken from the [LuaFileStub]
+ */
+fun StubOutputStream.writeAnonymousId(id: TyAnonymousId, stub: StubElement<*>) {
+    val local = LuaFileStub.of(stub)?.uid == id.fileUid
+    writeVarInt(if (local) id.offset + 1 else 0)
+    if (!local)
+        TyAnonymousId.serialize(id, this)
+}
+
+fun StubInputStream.readAnonymousId(kind: TyAnonymousId.Kind, parentStub: StubElement<*>?): TyAnonymousId {
+    val offset = readVarInt() - 1
+    if (offset < 0)
+        return TyAnonymousId.deserialize(this)
+    val fileStub = LuaFileStub.of(parentStub) ?: throw IOException("no file stub for anonymous type $offset")
+    return TyAnonymousId(kind, fileStub.uid, offset)
+}
+
 fun StubOutputStream.writeNames(names: Array<String>) {
-    writeInt(names.size)
+    writeVarInt(names.size)
     names.forEach { writeName(it) }
 }
 
 fun StubInputStream.readNames(): Array<String> {
     val list = mutableListOf<String>()
-    val size = readInt()
+    val size = readVarInt()
     for (i in 0 until size) {
         list.add(StringRef.toString(readName()))
     }
@@ -80,7 +151,7 @@ fun StubInputStream.readNames(): Array<String> {
 }
 
 fun StubOutputStream.writeTyParams(tyParams: Array<TyParameter>) {
-    writeByte(tyParams.size)
+    writeVarInt(tyParams.size)
     tyParams.forEach { parameter ->
         writeName(parameter.name)
         writeName(parameter.superClassName)
@@ -89,7 +160,7 @@ fun StubOutputStream.writeTyParams(tyParams: Array<TyParameter>) {
 
 fun StubInputStream.readTyParams(): Array<TyParameter> {
     val list = mutableListOf<TyParameter>()
-    val size = readByte()
+    val size = readVarInt()
     for (i in 0 until size) {
         val name = StringRef.toString(readName())
         val base = StringRef.toString(readName())
@@ -24,6 +24,7 @@ import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
 import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagClass
 import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.search.InferDependencies
 import com.tarantoollua.intellij.lua.search.SearchContext
 
 /**
@@ -41,10 +42,15 @@ class LuaClassIndex : StringStubIndexExtension<LuaDocTagClass>() {
     companion object {
         val instance = LuaClassIndex()
 
+        /**
+         * the lookup of [name] is recorded as a dependency of the value being inferred
+         */
         fun find(name: String, context: SearchContext): LuaDocTagClass? {
             if (context.isDumb)
                 return null
-            return find(name, context.project, context.scope)
+            val all = instance.get(name, context.project, context.scope)
+            InferDependencies.recordLookup(StubKeys.CLASS, name, all)
+            return all.firstOrNull()
         }
 
         fun find(name: String, project: Project, scope: GlobalSearchScope): LuaDocTagClass? {
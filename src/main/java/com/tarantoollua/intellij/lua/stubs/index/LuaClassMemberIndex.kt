@@ -19,38 +19,62 @@ package com.tarantoollua.intellij.lua.stubs.index
 import com.intellij.openapi.project.Project
 import com.intellij.psi.search.GlobalSearchScope
 import com.intellij.psi.stubs.IndexSink
-import com.intellij.psi.stubs.IntStubIndexExtension
+import com.intellij.psi.stubs.StringStubIndexExtension
 import com.intellij.psi.stubs.StubIndex
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
-import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagField
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
 import com.tarantoollua.intellij.lua.psi.LuaClassMember
 import com.tarantoollua.intellij.lua.psi.LuaClassMethod
-import com.tarantoollua.intellij.lua.psi.LuaTableField
+import com.tarantoollua.intellij.lua.search.InferDependencies
 import com.tarantoollua.intellij.lua.search.SearchContext
 import com.tarantoollua.intellij.lua.ty.ITyClass
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
 import com.tarantoollua.intellij.lua.ty.TyClass
+import com.tarantoollua.intellij.lua.ty.TyLazyClass
 import com.tarantoollua.intellij.lua.ty.TyParameter
 
-class LuaClassMemberIndex : IntStubIndexExtension<LuaClassMember>() {
+/**
+ * class members keyed by:
+ *  - `className`, all members of the class
+ *  - `className*memberName`, members with the given name
+ *
+ * `*` never appears in a class name, so the two kinds of key never collide
+ */
+class LuaClassMemberIndex : StringStubIndexExtension<LuaClassMember>() {
     override fun getKey() = StubKeys.CLASS_MEMBER
 
-    override fun get(s: Int, project: Project, scope: GlobalSearchScope): Collection<LuaClassMember> =
+    override fun getVersion() = LuaLanguage.INDEX_VERSION
+
+    override fun get(s: String, project: Project, scope: GlobalSearchScope): Collection<LuaClassMember> =
             StubIndex.getElements(StubKeys.CLASS_MEMBER, s, project, scope, LuaClassMember::class.java)
 
     companion object {
         val instance = LuaClassMemberIndex()
 
+        private const val SEPARATOR = '*'
+
+        fun getMemberKey(className: String, memberName: String): String {
+            return "$className$SEPARATOR$memberName"
+        }
+
         fun process(key: String, context: SearchContext, processor: Processor<LuaClassMember>): Boolean {
             if (context.isDumb)
                 return false
-            val all = LuaClassMemberIndex.instance.get(key.hashCode(), context.project, context.scope)
-            return ContainerUtil.process(all, processor)
+            return ContainerUtil.process(getMembers(key, context), processor)
+        }
+
+        /**
+         * all members indexed with [key], recorded as a dependency of the value being inferred
+         */
+        fun getMembers(key: String, context: SearchContext): Collection<LuaClassMember> {
+            val all = LuaClassMemberIndex.instance.get(key, context.project, context.scope)
+            InferDependencies.recordLookup(StubKeys.CLASS_MEMBER, key, all)
+            return all
         }
 
         fun process(className: String, fieldName: String, context: SearchContext, processor: Processor<LuaClassMember>, deep: Boolean = true): Boolean {
-            val key = "$className*$fieldName"
-            if (!process(key, context, processor))
+            if (!process(getMemberKey(className, fieldName), context, processor))
                 return false
 
             if (deep) {
@@ -74,30 +98,17 @@ class LuaClassMemberIndex : IntStubIndexExtension<LuaClassMember>() {
             return true
         }
 
+        /**
+         * find through the cached [com.tarantoollua.intellij.lua.ty.ClassMemberChain] of the type,
+         * so repeated lookups on the same class do not query the index again
+         */
         fun find(type: ITyClass, fieldName: String, context: SearchContext): LuaClassMember? {
-            var perfect: LuaClassMember? = null
-            var tagField: LuaDocTagField? = null
-            var tableField: LuaTableField? = null
-            processAll(type, fieldName, context, Processor {
-                when (it) {
-                    is LuaDocTagField -> {
-                        tagField = it
-                        false
-                    }
-                    is LuaTableField -> {
-                        tableField = it
-                        true
-                    }
-                    else -> {
-                        if (perfect == null)
-                            perfect = it
-                        true
-                    }
-                }
-            })
-            if (tagField != null) return tagField
-            if (tableField != null) return tableField
-            return perfect
+            if (type is TyParameter) {
+                val superClassName = type.superClassName ?: return null
+                return find(TyLazyClass(superClassName), fieldName, context)
+            }
+            // the chain records the keys it looked up, also when it comes from the cache
+            return type.getMemberChain(context).findMember(fieldName)
         }
 
         fun processAll(type: ITyClass, fieldName: String, context: SearchContext, processor: Processor<LuaClassMember>): Boolean {
@@ -128,8 +139,15 @@ class LuaClassMemberIndex : IntStubIndexExtension<LuaClassMember>() {
         }
 
         fun indexStub(indexSink: IndexSink, className: String, memberName: String) {
-            indexSink.occurrence(StubKeys.CLASS_MEMBER, className.hashCode())
-            indexSink.occurrence(StubKeys.CLASS_MEMBER, "$className*$memberName".hashCode())
+            indexSink.occurrence(StubKeys.CLASS_MEMBER, className)
+            indexSink.occurrence(StubKeys.CLASS_MEMBER, getMemberKey(className, memberName))
+        }
+
+        /**
+         * members of anonymous types are keyed by [TyAnonymousId.name]
+         */
+        fun indexStub(indexSink: IndexSink, id: TyAnonymousId, memberName: String) {
+            indexStub(indexSink, id.name, memberName)
         }
     }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.stubs.index
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.TokenType
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.tree.IElementType
+import com.intellij.util.Processor
+import com.intellij.util.indexing.*
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.DataInputOutputUtil
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.IOUtil
+import com.intellij.util.io.KeyDescriptor
+import com.tarantoollua.intellij.lua.Constants
+import com.tarantoollua.intellij.lua.lang.LuaFileType
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.lang.LuaParserDefinition
+import com.tarantoollua.intellij.lua.lexer.LuaLexerAdapter
+import com.tarantoollua.intellij.lua.psi.LuaClassMember
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import com.tarantoollua.intellij.lua.psi.LuaTypes
+import com.tarantoollua.intellij.lua.ty.getGlobalTypeName
+import java.io.DataInput
+import java.io.DataOutput
+
+/**
+ * Outline of the files too large to have child stubs, see [LuaPsiFile.tooLarger].
+ * Only the top level is read from the lexer, without building the PSI:
+ * `---@class` and `---@field` tags, global assignments `X = ...` and functions `function X.y()`.
+ *
+ * Classes are keyed by [getClassKey], members by [getMemberKey] and [getMembersKey] as in [LuaClassMemberIndex].
+ * The values hold the offset, the name and the kind of each entry, so they are used without reading the file.
+ */
+class LuaOutlineIndex : FileBasedIndexExtension<String, List<LuaOutlineIndex.Entry>>() {
+
+    /**
+     * @param worth [LuaClassMember.worth] of a member, told by the word before its name, 0 for a class
+     */
+    data class Entry(val offset: Int, val name: String, val worth: Int)
+
+    companion object {
+        val NAME: ID<String, List<Entry>> = ID.create("lua.outline")
+
+        private val CLASS_TAG = Regex("@class\\s+([\\w.]+)")
+        private val FIELD_TAG = Regex("@field\\s+(?:(?:public|protected|private)\\s+)?(\\w+)")
+        private val MODULE_TAG = Regex("@module\\s+([\\w.]+)")
+
+        fun getClassKey(className: String) = "c:$className"
+
+        fun getMembersKey(className: String) = "m:$className"
+
+        fun getMemberKey(className: String, memberName: String) = "m:$className*$memberName"
+
+        fun collect(text: CharSequence): Map<String, List<Entry>> {
+            return OutlineScanner(text).scan()
+        }
+
+        /**
+         * the entries indexed with [key] in each file, stale entries of files no longer too large are skipped
+         */
+        fun process(key: String, scope: GlobalSearchScope, processor: (VirtualFile, Entry) -> Boolean): Boolean {
+            return FileBasedIndex.getInstance().processValues(NAME, key, null, { file, entries ->
+                !LuaPsiFile.isTooLarger(file) || entries.all { processor(file, it) }
+            }, scope)
+        }
+
+        fun processClassNames(project: Project, processor: Processor<String>): Boolean {
+            return FileBasedIndex.getInstance().processAllKeys(NAME, Processor { key ->
+                if (key.startsWith("c:")) processor.process(key.substring(2)) else true
+            }, project)
+        }
+    }
+
+    /**
+     * block and bracket depths are followed for every token, names are only read at the top level
+     */
+    private class OutlineScanner(private val text: CharSequence) {
+        private val map = mutableMapOf<String, MutableList<Entry>>()
+        private val lexer = LuaLexerAdapter()
+        private var depth = 0
+        private var brackets = 0
+        private var prev: IElementType = LuaTypes.SEMI
+        private var module = Constants.WORD_G
+        // class of the doc comment before the current statement
+        private var docClass: String? = null
+        // top level locals, with the class of their doc comment
+        private val locals = mutableMapOf<String, String?>()
+        private val globalClasses = mutableMapOf<String, String>()
+        private var inLocalList = false
+        // `X` while it may be followed by `=`
+        private var candidate: String? = null
+        private var candidateOffset = 0
+        private var candidateClass: String? = null
+
+        fun scan(): Map<String, List<Entry>> {
+            lexer.start(text)
+            while (true) {
+                val type = lexer.tokenType ?: break
+                when {
+                    type == LuaTypes.DOC_COMMENT -> {
+                        if (depth == 0 && brackets == 0)
+                            readDoc(lexer.tokenStart, lexer.tokenEnd)
+                        lexer.advance()
+                    }
+                    type == TokenType.WHITE_SPACE || LuaParserDefinition.COMMENTS.contains(type) -> lexer.advance()
+                    else -> {
+                        val topLevel = depth == 0 && brackets == 0
+                        val candidate = candidate
+                        this.candidate = null
+                        if (candidate != null && type == LuaTypes.ASSIGN)
+                            assignGlobal(candidate, candidateOffset, candidateClass)
+                        if (topLevel && type == LuaTypes.FUNCTION && prev != LuaTypes.ASSIGN) {
+                            readFunction()
+                        } else {
+                            if (topLevel)
+                                readToken(type)
+                            countDepth(type)
+                            prev = type
+                            lexer.advance()
+                        }
+                    }
+                }
+            }
+            return map
+        }
+
+        private fun add(key: String, entry: Entry) {
+            map.getOrPut(key) { mutableListOf() }.add(entry)
+        }
+
+        private fun addMember(owner: String, name: String, offset: Int, worth: Int) {
+            val entry = Entry(offset, name, worth)
+            add(getMembersKey(owner), entry)
+            add(getMemberKey(owner, name), entry)
+        }
+
+        private fun countDepth(type: IElementType) {
+            when (type) {
+                LuaTypes.FUNCTION, LuaTypes.DO, LuaTypes.IF, LuaTypes.REPEAT -> depth++
+                LuaTypes.END, LuaTypes.UNTIL -> if (depth > 0) depth--
+                LuaTypes.LPAREN, LuaTypes.LBRACK, LuaTypes.LCURLY -> brackets++
+                LuaTypes.RPAREN, LuaTypes.RBRACK, LuaTypes.RCURLY -> if (brackets > 0) brackets--
+            }
+        }
+
+        private fun readToken(type: IElementType) {
+            val docClass = docClass
+            if (type != LuaTypes.LOCAL)
+                this.docClass = null
+            if (type != LuaTypes.ID) {
+                if (type != LuaTypes.COMMA)
+                    inLocalList = type == LuaTypes.LOCAL
+                return
+            }
+            val name = text.substring(lexer.tokenStart, lexer.tokenEnd)
+            if (inLocalList && (prev == LuaTypes.LOCAL || prev == LuaTypes.COMMA)) {
+                locals[name] = if (prev == LuaTypes.LOCAL) docClass else null
+                return
+            }
+            inLocalList = false
+            if (prev != LuaTypes.DOT && prev != LuaTypes.COLON && prev != LuaTypes.COMMA && prev != LuaTypes.FOR) {
+                candidate = name
+                candidateOffset = lexer.tokenStart
+                candidateClass = docClass
+            }
+        }
+
+        private fun assignGlobal(name: String, offset: Int, docClass: String?) {
+            if (locals.containsKey(name)) {
+                if (docClass != null)
+                    locals[name] = docClass
+                return
+            }
+            if (docClass != null)
+                globalClasses[name] = docClass
+            addMember(module, name, offset, LuaClassMember.WORTH_ASSIGN)
+        }
+
+        /**
+         * `function a.b.c()`, the name is read up to the parameters
+         */
+        private fun readFunction() {
+            val isLocal = prev == LuaTypes.LOCAL
+            docClass = null
+            inLocalList = false
+            depth++
+            prev = LuaTypes.FUNCTION
+            lexer.advance()
+            val names = mutableListOf<String>()
+            var offset = 0
+            while (true) {
+                val type = lexer.tokenType ?: return
+                if (type == TokenType.WHITE_SPACE || LuaParserDefinition.COMMENTS.contains(type)) {
+                    lexer.advance()
+                    continue
+                }
+                val expectName = prev == LuaTypes.FUNCTION || prev == LuaTypes.DOT || prev == LuaTypes.COLON
+                if (expectName && type == LuaTypes.ID) {
+                    names.add(text.substring(lexer.tokenStart, lexer.tokenEnd))
+                    offset = lexer.tokenStart
+                } else if (expectName || (type != LuaTypes.DOT && type != LuaTypes.COLON))
+                    break
+                prev = type
+                lexer.advance()
+            }
+            when {
+                names.isEmpty() -> return
+                isLocal -> locals[names[0]] = null
+                names.size == 1 -> if (!locals.containsKey(names[0])) addMember(module, names[0], offset, LuaClassMember.WORTH_METHOD_DEF)
+                else -> {
+                    val owner = names[0]
+                    val memberName = names.last()
+                    if (locals.containsKey(owner)) {
+                        val localClass = locals[owner]
+                        if (localClass != null && names.size == 2)
+                            addMember(localClass, memberName, offset, LuaClassMember.WORTH_METHOD_DEF)
+                    } else {
+                        addMember(getGlobalTypeName(names.subList(0, names.size - 1).joinToString(".")), memberName, offset, LuaClassMember.WORTH_METHOD_DEF)
+                        val globalClass = globalClasses[owner]
+                        if (globalClass != null && names.size == 2)
+                            addMember(globalClass, memberName, offset, LuaClassMember.WORTH_METHOD_DEF)
+                    }
+                }
+            }
+        }
+
+        private fun readDoc(start: Int, end: Int) {
+            val doc = text.subSequence(start, end)
+            var className: String? = null
+            MODULE_TAG.find(doc)?.let {
+                if (map.isEmpty() && locals.isEmpty())
+                    module = it.groupValues[1]
+            }
+            // fields belong to the class declared before them in the same comment
+            val tags = (CLASS_TAG.findAll(doc) + FIELD_TAG.findAll(doc)).sortedBy { it.range.first }
+            for (tag in tags) {
+                val group = tag.groups[1] ?: continue
+                val offset = start + group.range.first
+                if (tag.value.startsWith("@class")) {
+                    className = group.value
+                    add(getClassKey(group.value), Entry(offset, group.value, 0))
+                } else if (className != null)
+                    addMember(className, group.value, offset, LuaClassMember.WORTH_DOC)
+            }
+            docClass = className
+        }
+    }
+
+    override fun getName() = NAME
+
+    override fun getVersion() = LuaLanguage.INDEX_VERSION
+
+    override fun dependsOnFileContent() = true
+
+    override fun getIndexer() = DataIndexer<String, List<Entry>, FileContent> {
+        collect(it.contentAsText)
+    }
+
+    override fun getInputFilter(): FileBasedIndex.InputFilter {
+        return object : DefaultFileTypeSpecificInputFilter(LuaFileType.INSTANCE) {
+            override fun acceptInput(file: VirtualFile): Boolean {
+                return super.acceptInput(file) && LuaPsiFile.isTooLarger(file)
+            }
+        }
+    }
+
+    override fun getKeyDescriptor(): KeyDescriptor<String> = EnumeratorStringDescriptor.INSTANCE
+
+    override fun getValueExternalizer(): DataExternalizer<List<Entry>> = object : DataExternalizer<List<Entry>> {
+        override fun save(out: DataOutput, value: List<Entry>) {
+            DataInputOutputUtil.writeINT(out, value.size)
+            var last = 0
+            for (entry in value) {
+                DataInputOutputUtil.writeINT(out, entry.offset - last)
+                IOUtil.writeUTF(out, entry.name)
+                DataInputOutputUtil.writeINT(out, entry.worth)
+                last = entry.offset
+            }
+        }
+
+        override fun read(input: DataInput): List<Entry> {
+            val size = DataInputOutputUtil.readINT(input)
+            val list = ArrayList<Entry>(size)
+            var last = 0
+            for (i in 0 until size) {
+                last += DataInputOutputUtil.readINT(input)
+                val name = IOUtil.readUTF(input)
+                list.add(Entry(last, name, DataInputOutputUtil.readINT(input)))
+            }
+            return list
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.stubs.index
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.indexing.*
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.KeyDescriptor
+import com.tarantoollua.intellij.lua.lang.LuaFileType
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+
+/**
+ * Lua files by the last segments of their paths: `/home/a/b/init.lua` is indexed as `init.lua`, `b/init.lua`,
+ * `a/b/init.lua` and so on up to [MAX_SEGMENTS] segments.
+ *
+ * A path suffix is one lookup instead of comparing the path of every file with the same name.
+ * The paths of the files found are still checked, the index may be behind a rename of a parent directory.
+ */
+class LuaPathSuffixIndex : ScalarIndexExtension<String>() {
+
+    companion object {
+        val NAME: ID<String, Void> = ID.create("lua.path.suffix")
+
+        const val MAX_SEGMENTS = 8
+
+        /**
+         * files whose path ends with the segments of [path], shortest paths first.
+         * A path starting with `...`, as cut in lua tracebacks, may start in the middle of a segment.
+         */
+        fun findFiles(project: Project, path: String, scope: GlobalSearchScope): List<VirtualFile> {
+            var suffix = path.replace('\\', '/')
+            val partial = suffix.startsWith("...")
+            if (partial)
+                suffix = suffix.substring(3)
+            var segments = suffix.split('/').filter { it.isNotEmpty() }
+            if (partial)
+                segments = segments.drop(1)
+            if (segments.isEmpty())
+                return emptyList()
+
+            val key = segments.takeLast(MAX_SEGMENTS).joinToString("/")
+            // a whole first segment
+            if (!partial)
+                suffix = "/" + segments.joinToString("/")
+            val files = mutableListOf<Pair<VirtualFile, String>>()
+            FileBasedIndex.getInstance().processValues(NAME, key, null, { file, _ ->
+                // longer paths are only known by their last segments
+                val filePath = file.path
+                if (filePath.endsWith(suffix))
+                    files.add(Pair(file, filePath))
+                true
+            }, scope)
+            files.sortWith(compareBy({ it.second.length }, { it.second }))
+            return files.map { it.first }
+        }
+
+        private fun getSuffixes(file: VirtualFile): Map<String, Void?> {
+            val path = file.path
+            val map = mutableMapOf<String, Void?>()
+            var end = path.length
+            var start = path.lastIndexOf('/', end - 1)
+            var count = 0
+            while (count < MAX_SEGMENTS && start >= 0) {
+                if (start + 1 < path.length)
+                    map[path.substring(start + 1)] = null
+                end = start
+                start = path.lastIndexOf('/', end - 1)
+                count++
+            }
+            return map
+        }
+    }
+
+    override fun getName() = NAME
+
+    override fun getVersion() = LuaLanguage.INDEX_VERSION
+
+    override fun dependsOnFileContent() = false
+
+    override fun getIndexer() = DataIndexer<String, Void, FileContent> {
+        getSuffixes(it.file)
+    }
+
+    override fun getInputFilter(): FileBasedIndex.InputFilter {
+        return DefaultFileTypeSpecificInputFilter(LuaFileType.INSTANCE)
+    }
+
+    override fun getKeyDescriptor(): KeyDescriptor<String> = EnumeratorStringDescriptor.INSTANCE
+}
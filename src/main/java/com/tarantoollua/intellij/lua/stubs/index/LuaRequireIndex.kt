@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.stubs.index
+
+import com.intellij.psi.TokenType
+import com.intellij.util.indexing.*
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.DataInputOutputUtil
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.KeyDescriptor
+import com.intellij.util.text.CharArrayUtil
+import com.tarantoollua.intellij.lua.Constants
+import com.tarantoollua.intellij.lua.lang.LuaFileType
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.lang.LuaParserDefinition
+import com.tarantoollua.intellij.lua.lang.type.LuaString
+import com.tarantoollua.intellij.lua.lexer.LuaLexerAdapter
+import com.tarantoollua.intellij.lua.psi.LuaTypes
+import java.io.DataInput
+import java.io.DataOutput
+
+/**
+ * The modules required by each file, `require "a.b"` and `require("a/b")` are both indexed as `a.b`,
+ * the values are the offsets of the require calls in the file.
+ *
+ * Other require like functions are configurable, only `require` itself is indexed.
+ */
+class LuaRequireIndex : FileBasedIndexExtension<String, List<Int>>() {
+
+    companion object {
+        val NAME: ID<String, List<Int>> = ID.create("lua.require")
+
+        fun getModulePath(path: String): String {
+            return path.replace('/', '.')
+        }
+
+        /**
+         * module paths of the require calls in [text] with the offsets of the calls, the file is not parsed
+         */
+        fun collect(text: CharSequence): Map<String, List<Int>> {
+            val map = mutableMapOf<String, MutableList<Int>>()
+            val lexer = LuaLexerAdapter()
+            lexer.start(text)
+            // offset of `require` while it may be followed by its argument
+            var callStart = -1
+            var inParen = false
+            var prev = LuaTypes.SEMI
+            while (true) {
+                val type = lexer.tokenType ?: break
+                if (type != TokenType.WHITE_SPACE && !LuaParserDefinition.COMMENTS.contains(type)) {
+                    val start = lexer.tokenStart
+                    when {
+                        // not obj.require or obj:require
+                        type == LuaTypes.ID && prev != LuaTypes.DOT && prev != LuaTypes.COLON
+                                && lexer.tokenEnd - start == Constants.WORD_REQUIRE.length
+                                && CharArrayUtil.regionMatches(text, start, Constants.WORD_REQUIRE) -> {
+                            callStart = start
+                            inParen = false
+                        }
+                        type == LuaTypes.LPAREN && prev == LuaTypes.ID && callStart >= 0 -> inParen = true
+                        type == LuaTypes.STRING && callStart >= 0 -> {
+                            val path = LuaString.getContent(text.substring(start, lexer.tokenEnd)).value
+                            // require("a" .. b) is not a module path
+                            lexer.advance()
+                            while (lexer.tokenType == TokenType.WHITE_SPACE || LuaParserDefinition.COMMENTS.contains(lexer.tokenType))
+                                lexer.advance()
+                            if (path.isNotEmpty() && (!inParen || lexer.tokenType == LuaTypes.RPAREN))
+                                map.getOrPut(getModulePath(path)) { mutableListOf() }.add(callStart)
+                            callStart = -1
+                            prev = LuaTypes.STRING
+                            continue
+                        }
+                        else -> callStart = -1
+                    }
+                    prev = type
+                }
+                lexer.advance()
+            }
+            return map
+        }
+    }
+
+    override fun getName() = NAME
+
+    override fun getVersion() = LuaLanguage.INDEX_VERSION
+
+    override fun dependsOnFileContent() = true
+
+    override fun getIndexer() = DataIndexer<String, List<Int>, FileContent> {
+        collect(it.contentAsText)
+    }
+
+    override fun getInputFilter(): FileBasedIndex.InputFilter {
+        return DefaultFileTypeSpecificInputFilter(LuaFileType.INSTANCE)
+    }
+
+    override fun getKeyDescriptor(): KeyDescriptor<String> = EnumeratorStringDescriptor.INSTANCE
+
+    override fun getValueExternalizer() = object : DataExternalizer<List<Int>> {
+        override fun save(output: DataOutput, offsets: List<Int>) {
+            DataInputOutputUtil.writeINT(output, offsets.size)
+            var prev = 0
+            offsets.forEach {
+                DataInputOutputUtil.writeINT(output, it - prev)
+                prev = it
+            }
+        }
+
+        override fun read(input: DataInput): List<Int> {
+            val size = DataInputOutputUtil.readINT(input)
+            var offset = 0
+            return List(size) {
+                offset += DataInputOutputUtil.readINT(input)
+                offset
+            }
+        }
+    }
+}
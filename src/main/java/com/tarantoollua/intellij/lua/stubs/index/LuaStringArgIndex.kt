@@ -16,17 +16,21 @@
 
 package com.tarantoollua.intellij.lua.stubs.index
 
+import com.intellij.psi.TokenType
 import com.intellij.psi.search.GlobalSearchScope
-import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.Processor
 import com.intellij.util.containers.ContainerUtil
 import com.intellij.util.indexing.*
 import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.DataInputOutputUtil
 import com.intellij.util.io.EnumeratorStringDescriptor
 import com.intellij.util.io.KeyDescriptor
 import com.tarantoollua.intellij.lua.lang.LuaFileType
 import com.tarantoollua.intellij.lua.lang.LuaLanguage
-import com.tarantoollua.intellij.lua.psi.*
+import com.tarantoollua.intellij.lua.lang.LuaParserDefinition
+import com.tarantoollua.intellij.lua.lang.type.LuaString
+import com.tarantoollua.intellij.lua.lexer.LuaLexerAdapter
+import com.tarantoollua.intellij.lua.psi.LuaTypes
 import java.io.DataInput
 import java.io.DataOutput
 
@@ -40,29 +44,54 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
                 ContainerUtil.process(v.args, processor)
             }, scope)
         }
+
+        /**
+         * collects the string literal arguments of `name(...)`, `name "..."` and `obj:name(...)` calls from the tokens,
+         * the file is not parsed
+         */
+        fun collect(text: CharSequence): Map<String, LuaCallOccurrence> {
+            return CallScanner(text).scan()
+        }
     }
 
     override fun getValueExternalizer() = object : DataExternalizer<LuaCallOccurrence> {
         override fun save(output: DataOutput, occurrence: LuaCallOccurrence) {
-            output.writeInt(occurrence.args.size)
+            DataInputOutputUtil.writeINT(output, occurrence.args.size)
+            var prevOffset = 0
             occurrence.args.forEach {
                 output.writeByte(it.argIndex)
-                output.writeUTF(it.argString)
-                output.writeInt(it.offset)
+                writeString(output, it.argString)
+                // offsets grow within a file, store the distance to the previous one
+                DataInputOutputUtil.writeINT(output, it.offset - prevOffset)
+                prevOffset = it.offset
             }
         }
 
         override fun read(input: DataInput): LuaCallOccurrence {
             val list = mutableListOf<LuaCallArg>()
-            val size = input.readInt()
+            val size = DataInputOutputUtil.readINT(input)
+            var offset = 0
             for (i in 0 until size) {
                 val argIndex = input.readByte()
-                val argString = input.readUTF()
-                val offset = input.readInt()
+                val argString = readString(input)
+                offset += DataInputOutputUtil.readINT(input)
                 list.add(LuaCallArg(argIndex.toInt(), argString, offset))
             }
             return LuaCallOccurrence(list)
         }
+
+        // DataOutput.writeUTF is limited to 64k bytes
+        private fun writeString(output: DataOutput, string: String) {
+            val bytes = string.toByteArray(Charsets.UTF_8)
+            DataInputOutputUtil.writeINT(output, bytes.size)
+            output.write(bytes)
+        }
+
+        private fun readString(input: DataInput): String {
+            val bytes = ByteArray(DataInputOutputUtil.readINT(input))
+            input.readFully(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
     }
 
     override fun getName() = NAME
@@ -72,22 +101,7 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
     override fun dependsOnFileContent() = true
 
     override fun getIndexer() = DataIndexer<String, LuaCallOccurrence, FileContent> {
-        val map = mutableMapOf<String, LuaCallOccurrence>()
-        PsiTreeUtil.findChildrenOfType(it.psiFile, LuaCallExpr::class.java).forEach { call ->
-            val isColon = call.isMethodColonCall
-            call.argList.forEachIndexed { index, arg ->
-                val name = call.expr.name
-                if (name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String) {
-                    val sv = arg.stringValue
-                    if (sv.length in 2..1024) {
-                        val offset = arg.node.startOffset
-                        val occ = map.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
-                        occ.args.add(LuaCallArg(if (isColon) index + 1 else index, sv, offset))
-                    }
-                }
-            }
-        }
-        map
+        collect(it.contentAsText)
     }
 
     override fun getInputFilter(): FileBasedIndex.InputFilter {
@@ -99,4 +113,90 @@ class LuaStringArgIndex : FileBasedIndexExtension<String, LuaStringArgIndex.LuaC
     data class LuaCallOccurrence(val args: MutableList<LuaCallArg>)
 
     data class LuaCallArg(val argIndex: Int, val argString: String, val offset: Int)
+
+    /**
+     * one level of brackets, only the parentheses of a named call have a [name]
+     */
+    private class Frame(val name: String?, val isColon: Boolean) {
+        var argIndex = 0
+    }
+
+    private class CallScanner(private val text: CharSequence) {
+        private val map = mutableMapOf<String, LuaCallOccurrence>()
+        private val frames = ArrayList<Frame>()
+        // the last two significant tokens
+        private var prev = LuaTypes.SEMI
+        private var prevStart = 0
+        private var prevEnd = 0
+        private var prev2 = LuaTypes.SEMI
+        // between `function` and its parameter list
+        private var inFunctionHeader = false
+        // a string that is a whole argument if the next token ends it
+        private var pendingStart = -1
+        private var pendingEnd = -1
+
+        fun scan(): Map<String, LuaCallOccurrence> {
+            val lexer = LuaLexerAdapter()
+            lexer.start(text)
+            while (true) {
+                val type = lexer.tokenType ?: break
+                if (type != TokenType.WHITE_SPACE && !LuaParserDefinition.COMMENTS.contains(type)) {
+                    val start = lexer.tokenStart
+                    val end = lexer.tokenEnd
+                    when (type) {
+                        LuaTypes.FUNCTION -> inFunctionHeader = true
+                        LuaTypes.LPAREN -> {
+                            val named = prev == LuaTypes.ID && !inFunctionHeader
+                            frames.add(Frame(if (named) text.substring(prevStart, prevEnd) else null, prev2 == LuaTypes.COLON))
+                            inFunctionHeader = false
+                        }
+                        LuaTypes.LCURLY, LuaTypes.LBRACK -> frames.add(Frame(null, false))
+                        LuaTypes.RPAREN, LuaTypes.RCURLY, LuaTypes.RBRACK -> {
+                            addPending()
+                            if (frames.isNotEmpty())
+                                frames.removeAt(frames.size - 1)
+                        }
+                        LuaTypes.COMMA -> {
+                            addPending()
+                            frames.lastOrNull()?.let { it.argIndex++ }
+                        }
+                        LuaTypes.STRING -> {
+                            pendingStart = -1
+                            if (prev == LuaTypes.ID) {
+                                // name "..."
+                                add(text.substring(prevStart, prevEnd), prev2 == LuaTypes.COLON, 0, start, end)
+                            } else if (prev == LuaTypes.LPAREN || prev == LuaTypes.COMMA) {
+                                pendingStart = start
+                                pendingEnd = end
+                            }
+                        }
+                    }
+                    if (type != LuaTypes.STRING)
+                        pendingStart = -1
+                    prev2 = prev
+                    prev = type
+                    prevStart = start
+                    prevEnd = end
+                }
+                lexer.advance()
+            }
+            return map
+        }
+
+        private fun addPending() {
+            if (pendingStart < 0)
+                return
+            val frame = frames.lastOrNull() ?: return
+            val name = frame.name ?: return
+            add(name, frame.isColon, frame.argIndex, pendingStart, pendingEnd)
+        }
+
+        private fun add(name: String, isColon: Boolean, index: Int, start: Int, end: Int) {
+            val sv = LuaString.getContent(text.substring(start, end)).value
+            if (sv.length in 2..1024) {
+                val occ = map.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
+                occ.args.add(LuaCallArg(if (isColon) index + 1 else index, sv, start))
+            }
+        }
+    }
 }
@@ -23,7 +23,7 @@ import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagClass
 import com.tarantoollua.intellij.lua.psi.LuaClassMember
 
 object StubKeys {
-    val CLASS_MEMBER = StubIndexKey.createIndexKey<Int, LuaClassMember>("lua.index.class.member")
+    val CLASS_MEMBER = StubIndexKey.createIndexKey<String, LuaClassMember>("lua.index.class_member")
     val SHORT_NAME = StubIndexKey.createIndexKey<String, NavigatablePsiElement>("lua.index.short_name")
     val CLASS = StubIndexKey.createIndexKey<String, LuaDocTagClass>("lua.index.class")
     val SUPER_CLASS = StubIndexKey.createIndexKey<String, LuaDocTagClass>("lua.index.super_class")
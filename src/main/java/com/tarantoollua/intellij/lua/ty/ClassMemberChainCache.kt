@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.ty
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.containers.ContainerUtil
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
+import com.tarantoollua.intellij.lua.search.InferDependencies
+import com.tarantoollua.intellij.lua.search.SearchContext
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Project level cache of [ClassMemberChain], keyed by class and search scope.
+ * Each chain keeps the [InferDependencies] recorded while building it: the member keys it looked up
+ * and the files declaring the members, so only the chains an edit may change are built again.
+ * Chains built while a recursion guard or a budget limit was hit are not kept.
+ */
+class ClassMemberChainCache(val project: Project) {
+
+    /**
+     * @param scope null for the default scope of [SearchContext]
+     */
+    private data class ChainKey(val className: String,
+                                val flags: Int,
+                                val superClassName: String?,
+                                val aliasName: String?,
+                                val scope: GlobalSearchScope?)
+
+    private class Entry(val chain: ClassMemberChain, val dependencies: InferDependencies)
+
+    private val chains: ConcurrentMap<ChainKey, Entry> = ContainerUtil.createConcurrentSoftValueMap()
+
+    fun getChain(clazz: TyClass, context: SearchContext): ClassMemberChain {
+        // nothing is indexed yet, do not remember empty chains
+        if (context.isDumb)
+            return clazz.buildMemberChain(context)
+
+        clazz.lazyInit(context)
+        val key = ChainKey(clazz.className,
+                clazz.flags,
+                clazz.superClassName,
+                clazz.aliasName,
+                if (context.isDefaultScope) null else context.scope)
+        val kind = clazz.javaClass.simpleName
+        val entry = chains[key]
+        if (entry != null && entry.dependencies.isValid(project)) {
+            LuaInferProfiler.cacheHit(LuaInferProfiler.Category.MEMBER_CHAIN, kind)
+            InferDependencies.recordAll(entry.dependencies)
+            return entry.chain
+        }
+        LuaInferProfiler.cacheMiss(LuaInferProfiler.Category.MEMBER_CHAIN, kind)
+        // do not use computeIfAbsent, building a chain builds the chains of super classes
+        val (result, dependencies) = InferDependencies.record(project) {
+            LuaInferProfiler.measure(LuaInferProfiler.Category.MEMBER_CHAIN, kind) {
+                context.computeTracked { clazz.buildMemberChain(context) }
+            }
+        }
+        val (chain, complete) = result
+        // a recursion guard or a budget limit hit while building, the chain may miss members
+        if (complete)
+            chains[key] = Entry(chain, dependencies)
+        return chain
+    }
+
+    companion object {
+        fun getInstance(project: Project): ClassMemberChainCache {
+            return ServiceManager.getService(project, ClassMemberChainCache::class.java)
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.tarantoollua.intellij.lua.comment.LuaCommentUtil
 import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagField
 import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagReturn
 import com.tarantoollua.intellij.lua.ext.recursionGuard
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
 import com.tarantoollua.intellij.lua.psi.*
 import com.tarantoollua.intellij.lua.search.GuardType
 import com.tarantoollua.intellij.lua.search.SearchContext
@@ -36,21 +37,24 @@ fun infer(element: LuaTypeGuessable?, context: SearchContext): ITy {
 }
 
 internal fun inferInner(element: LuaTypeGuessable, context: SearchContext): ITy {
-    return when (element) {
-        is LuaFuncBodyOwner -> element.infer(context)
-        is LuaExpr -> inferExpr(element, context)
-        is LuaParamNameDef -> element.infer(context)
-        is LuaNameDef -> element.infer(context)
-        is LuaDocTagField -> element.infer()
-        is LuaTableField -> element.infer(context)
-        is LuaPsiFile -> inferFile(element, context)
-        else -> Ty.UNKNOWN
+    return LuaInferProfiler.measure(LuaInferProfiler.Category.INFER_INNER, element) {
+        when (element) {
+            is LuaFuncBodyOwner -> element.infer(context)
+            is LuaExpr -> inferExpr(element, context)
+            is LuaParamNameDef -> element.infer(context)
+            is LuaNameDef -> element.infer(context)
+            is LuaDocTagField -> element.infer()
+            is LuaTableField -> element.infer(context)
+            is LuaPsiFile -> inferFile(element, context)
+            else -> Ty.UNKNOWN
+        }
     }
 }
 
 fun inferReturnTy(owner: LuaFuncBodyOwner, searchContext: SearchContext): ITy {
     if (owner is StubBasedPsiElementBase<*>) {
-        val stub = owner.stub
+        // the green stub is kept while the AST matches it, so open files use the summary too
+        val stub = owner.greenStub
         if (stub is LuaFuncBodyOwnerStub<*>) {
             return stub.guessReturnTy(searchContext)
         }
@@ -74,39 +78,48 @@ private fun inferReturnTyInner(owner: LuaFuncBodyOwner, searchContext: SearchCon
     //infer from return stat
     return searchContext.withRecursionGuard(owner, GuardType.RecursionCall) {
         var type: ITy = Ty.VOID
-        owner.acceptChildren(object : LuaRecursiveVisitor() {
-            override fun visitReturnStat(o: LuaReturnStat) {
-                val guessReturnType = guessReturnType(o, searchContext.index, searchContext)
-                TyUnion.each(guessReturnType) {
-                    /**
-                     * 注意，不能排除anonymous
-                     * local function test()
-                     *      local v = xxx()
-                     *      v.yyy = zzz
-                     *      return v
-                     * end
-                     *
-                     * local r = test()
-                     *
-                     * type of r is an anonymous ty
-                     */
-                    type = type.union(it)
-                }
+        processReturnStats(owner) { o ->
+            val guessReturnType = guessReturnType(o, searchContext.index, searchContext)
+            TyUnion.each(guessReturnType) {
+                /**
+                 * 注意，不能排除anonymous
+                 * local function test()
+                 *      local v = xxx()
+                 *      v.yyy = zzz
+                 *      return v
+                 * end
+                 *
+                 * local r = test()
+                 *
+                 * type of r is an anonymous ty
+                 */
+                type = type.union(it)
             }
-
-            override fun visitExprStat(o: LuaExprStat) {}
-            override fun visitLabelStat(o: LuaLabelStat) {}
-            override fun visitAssignStat(o: LuaAssignStat) {}
-            override fun visitGotoStat(o: LuaGotoStat) {}
-            override fun visitClassMethodDef(o: LuaClassMethodDef) {}
-            override fun visitFuncDef(o: LuaFuncDef) {}
-            override fun visitLocalDef(o: LuaLocalDef) {}
-            override fun visitLocalFuncDef(o: LuaLocalFuncDef) {}
-        })
+        }
         type
     }
 }
 
+/**
+ * the return statements whose values are returned by [owner], in document order
+ */
+fun processReturnStats(owner: LuaFuncBodyOwner, processor: (LuaReturnStat) -> Unit) {
+    owner.acceptChildren(object : LuaRecursiveVisitor() {
+        override fun visitReturnStat(o: LuaReturnStat) {
+            processor(o)
+        }
+
+        override fun visitExprStat(o: LuaExprStat) {}
+        override fun visitLabelStat(o: LuaLabelStat) {}
+        override fun visitAssignStat(o: LuaAssignStat) {}
+        override fun visitGotoStat(o: LuaGotoStat) {}
+        override fun visitClassMethodDef(o: LuaClassMethodDef) {}
+        override fun visitFuncDef(o: LuaFuncDef) {}
+        override fun visitLocalDef(o: LuaLocalDef) {}
+        override fun visitLocalFuncDef(o: LuaLocalFuncDef) {}
+    })
+}
+
 private fun LuaParamNameDef.infer(context: SearchContext): ITy {
     var type = resolveParamType(this, context)
     //anonymous
@@ -178,29 +191,33 @@ private fun LuaTableField.infer(context: SearchContext): ITy {
 }
 
 private fun inferFile(file: LuaPsiFile, context: SearchContext): ITy {
+    val moduleName = file.moduleName
+    if (moduleName != null)
+        return TyLazyClass(moduleName)
+    return LuaModuleSummaryCache.getInstance(file.project).getExportType(file, context) {
+        inferFileReturn(file, context)
+    }
+}
+
+private fun inferFileReturn(file: LuaPsiFile, context: SearchContext): ITy {
     return recursionGuard(file, Computable {
-        val moduleName = file.moduleName
-        if (moduleName != null)
-            TyLazyClass(moduleName)
-        else {
-            val stub = file.stub
-            if (stub != null) {
-                val statStub = stub.childrenStubs.lastOrNull { it.psi is LuaReturnStat }
-                val stat = statStub?.psi
-                if (stat is LuaReturnStat)
-                    guessReturnType(stat, 0, context)
-                else null
-            } else {
-                val lastChild = file.lastChild
-                var stat: LuaReturnStat? = null
-                LuaPsiTreeUtil.walkTopLevelInFile(lastChild, LuaReturnStat::class.java) {
-                    stat = it
-                    false
-                }
-                if (stat != null)
-                    guessReturnType(stat, 0, context)
-                else null
+        val stub = file.stub
+        if (stub != null) {
+            val statStub = stub.childrenStubs.lastOrNull { it.psi is LuaReturnStat }
+            val stat = statStub?.psi
+            if (stat is LuaReturnStat)
+                guessReturnType(stat, 0, context)
+            else null
+        } else {
+            val lastChild = file.lastChild
+            var stat: LuaReturnStat? = null
+            LuaPsiTreeUtil.walkTopLevelInFile(lastChild, LuaReturnStat::class.java) {
+                stat = it
+                false
             }
+            if (stat != null)
+                guessReturnType(stat, 0, context)
+            else null
         }
     }) ?: Ty.UNKNOWN
 }
@@ -23,24 +23,29 @@ import com.intellij.psi.util.PsiTreeUtil
 import com.intellij.util.Processor
 import com.tarantoollua.intellij.lua.Constants
 import com.tarantoollua.intellij.lua.ext.recursionGuard
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
 import com.tarantoollua.intellij.lua.project.LuaSettings
 import com.tarantoollua.intellij.lua.psi.*
 import com.tarantoollua.intellij.lua.psi.impl.LuaNameExprMixin
 import com.tarantoollua.intellij.lua.psi.search.LuaShortNamesManager
 import com.tarantoollua.intellij.lua.search.GuardType
+import com.tarantoollua.intellij.lua.search.InferDependencies
 import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.LuaStubInference
 
 fun inferExpr(expr: LuaExpr?, context: SearchContext): ITy {
     if (expr == null)
         return Ty.UNKNOWN
-    if (expr is LuaIndexExpr || expr is LuaNameExpr) {
-        val tree = LuaDeclarationTree.get(expr.containingFile)
-        val declaration = tree.find(expr)?.firstDeclaration?.psi
-        if (declaration != expr && declaration is LuaTypeGuessable) {
-            return declaration.guessType(context)
+    return LuaInferProfiler.measure(LuaInferProfiler.Category.INFER_EXPR, expr) {
+        if (expr is LuaIndexExpr || expr is LuaNameExpr) {
+            val tree = LuaDeclarationTree.get(expr.containingFile)
+            val declaration = tree.find(expr)?.firstDeclaration?.psi
+            if (declaration != expr && declaration is LuaTypeGuessable) {
+                return@measure declaration.guessType(context)
+            }
         }
+        inferExprInner(expr, context)
     }
-    return inferExprInner(expr, context)
 }
 
 private fun inferExprInner(expr: LuaPsiElement, context: SearchContext): ITy {
@@ -110,50 +115,61 @@ private fun guessBinaryOpType(binaryExpr : LuaBinaryExpr, context:SearchContext)
     return infer(lhs, context)
 }
 
-fun LuaCallExpr.createSubstitutor(sig: IFunSignature, context: SearchContext): ITySubstitutor? {
-    if (sig.isGeneric()) {
-        val list = mutableListOf<ITy>()
-        // self type
-        if (this.isMethodColonCall) {
-            this.prefixExpr?.let { prefix ->
-                list.add(prefix.guessType(context))
-            }
-        }
-        this.argList.map { list.add(it.guessType(context)) }
-        val map = mutableMapOf<String, ITy>()
-        var processedIndex = -1
-        sig.tyParameters.forEach { map[it.name] = Ty.UNKNOWN }
-        sig.processArgs { index, param ->
-            val arg = list.getOrNull(index)
-            if (arg != null) {
-                GenericAnalyzer(arg, param.ty).analyze(map)
-            }
-            processedIndex = index
-            true
-        }
-        // vararg
-        val varargTy = sig.varargTy
-        if (varargTy != null && processedIndex < list.lastIndex) {
-            val argTy = list[processedIndex + 1]
-            GenericAnalyzer(argTy, varargTy).analyze(map)
+/**
+ * Argument types of the call, starting with the type of the prefix for colon calls
+ */
+fun LuaCallExpr.guessArgTypes(context: SearchContext): List<ITy> {
+    val list = mutableListOf<ITy>()
+    // self type
+    if (this.isMethodColonCall) {
+        this.prefixExpr?.let { prefix ->
+            list.add(prefix.guessType(context))
         }
-        sig.tyParameters.forEach {
-            val superCls = it.superClassName
-            if (Ty.isInvalid(map[it.name]) && superCls != null) map[it.name] = Ty.create(superCls)
+    }
+    this.argList.map { list.add(it.guessType(context)) }
+    return list
+}
+
+/**
+ * Solves the type parameters of the signature with the given argument types
+ */
+fun IFunSignature.createSubstitutor(list: List<ITy>): ITySubstitutor {
+    val map = mutableMapOf<String, ITy>()
+    var processedIndex = -1
+    tyParameters.forEach { map[it.name] = Ty.UNKNOWN }
+    processArgs { index, param ->
+        val arg = list.getOrNull(index)
+        if (arg != null) {
+            GenericAnalyzer(arg, param.ty).analyze(map)
         }
-        return object : TySubstitutor() {
-            override fun substitute(clazz: ITyClass): ITy {
-                return map.getOrElse(clazz.className) { clazz }
-            }
+        processedIndex = index
+        true
+    }
+    // vararg
+    val varargTy = varargTy
+    if (varargTy != null && processedIndex < list.lastIndex) {
+        val argTy = list[processedIndex + 1]
+        GenericAnalyzer(argTy, varargTy).analyze(map)
+    }
+    tyParameters.forEach {
+        val superCls = it.superClassName
+        if (Ty.isInvalid(map[it.name]) && superCls != null) map[it.name] = Ty.create(superCls)
+    }
+    return object : TySubstitutor() {
+        override fun substitute(clazz: ITyClass): ITy {
+            return map.getOrElse(clazz.className) { clazz }
         }
     }
+}
+
+fun LuaCallExpr.createSubstitutor(sig: IFunSignature, context: SearchContext): ITySubstitutor? {
+    if (sig.isGeneric())
+        return sig.createSubstitutor(guessArgTypes(context))
     return null
 }
 
 private fun LuaCallExpr.getReturnTy(sig: IFunSignature, context: SearchContext): ITy? {
-    val substitutor = createSubstitutor(sig, context)
-    var returnTy = if (substitutor != null) sig.returnTy.substitute(substitutor) else sig.returnTy
-    returnTy = returnTy.substitute(TySelfSubstitutor(project, this))
+    val returnTy = GenericSubstitutionCache.getInstance(project).getReturnTy(this, sig, context)
     return if (returnTy is TyTuple) {
         if (context.guessTuple())
             returnTy
@@ -176,12 +192,13 @@ private fun LuaCallExpr.infer(context: SearchContext): ITy {
         if (string is LuaLiteralExpr) {
             filePath = string.stringValue
         }
-        var file: LuaPsiFile? = null
-        if (filePath != null)
-            file = resolveRequireFile(filePath, luaCallExpr.project)
-        if (file != null)
-            return file.guessType(context)
+        if (filePath != null) {
+            val file = resolveRequireFile(filePath, luaCallExpr.project)
+            if (file != null)
+                return file.guessType(context)
+        }
 
+        InferDependencies.recordUnresolved()
         return Ty.UNKNOWN
     }
 
@@ -224,7 +241,8 @@ private fun LuaNameExpr.infer(context: SearchContext): ITy {
             for (element in multiResolve) {
                 val set = getType(context, element)
                 type = type.union(set)
-                if (--maxTimes == 0)
+                // keep the partial union once the inference budget is spent
+                if (--maxTimes == 0 || context.isBudgetExhausted)
                     break
             }
             type
@@ -359,11 +377,12 @@ private fun LuaIndexExpr.infer(context: SearchContext): ITy {
         val propName = indexExpr.name
         if (propName != null) {
             val prefixType = parentTy ?: indexExpr.guessParentType(context)
-            prefixType.eachTopClass(Processor { clazz ->
+            // members assigned through a.b or require "mod" in other files are stored in $a.b or @mod, see LuaStubInference
+            prefixType.union(LuaStubInference.inferOwners(indexExpr)).eachTopClass(Processor { clazz ->
                 result = result.union(guessFieldType(propName, clazz, context))
                 true
             })
-            
+
             // table<string, K> -> member type is K
             prefixType.each { ty ->
                 if (ty is ITyGeneric && ty.getParamTy(0) == Ty.STRING)
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.ty
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.psi.util.PsiModificationTracker
+import com.tarantoollua.intellij.lua.Constants
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
+import com.tarantoollua.intellij.lua.psi.LuaCallExpr
+import com.tarantoollua.intellij.lua.psi.prefixExpr
+import com.tarantoollua.intellij.lua.search.SearchContext
+
+/**
+ * Project level memo of generic substitutions.
+ *
+ * Solving the type parameters of a signature only depends on the signature and on the argument types,
+ * and resolving `self` only depends on the type of the call prefix, so substituted signatures and
+ * return types are keyed by (signature, argument types, self type) and shared by all call sites of the same shape.
+ * Both memos are bounded LRU maps and are dropped when the PSI of the project changes,
+ * argument types may refer to PSI elements.
+ *
+ * Function and anonymous types only compare by parameter types or by identity, two lambdas that only differ
+ * in their return type are equal, so substitutions involving them are never memoized.
+ */
+class GenericSubstitutionCache(val project: Project) {
+
+    /**
+     * [FunSignatureBase.equals] only compares the parameter types, two signatures only substitute
+     * the same way if they also agree on the return type, the vararg type and the type parameters.
+     */
+    private class SignatureKey(val sig: IFunSignature) {
+        private val hash = sig.hashCode() * 31 + sig.returnTy.hashCode()
+
+        override fun equals(other: Any?): Boolean {
+            if (other !is SignatureKey) return false
+            val o = other.sig
+            if (o === sig) return true
+            return other.hash == hash
+                    && o.colonCall == sig.colonCall
+                    && o == sig
+                    && o.returnTy == sig.returnTy
+                    && o.varargTy == sig.varargTy
+                    && o.tyParameters.size == sig.tyParameters.size
+                    && sig.tyParameters.indices.all {
+                        val a = sig.tyParameters[it]
+                        val b = o.tyParameters[it]
+                        a.name == b.name && a.superClassName == b.superClassName
+                    }
+        }
+
+        override fun hashCode() = hash
+    }
+
+    /**
+     * @param self null if `self` has not been substituted yet
+     */
+    private data class SubstitutionKey(val sig: SignatureKey, val args: List<ITy>, val self: ITy?)
+
+    /**
+     * @param usesSelf whether [returnTy] still refers to `self`
+     */
+    private class SubstitutedReturn(val returnTy: ITy, val usesSelf: Boolean)
+
+    private class LruMap<K, V>(private val capacity: Int) : LinkedHashMap<K, V>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>?) = size > capacity
+    }
+
+    private class Memo {
+        val signatures = LruMap<SubstitutionKey, IFunSignature>(MAX_SIZE)
+        val returnTypes = LruMap<SubstitutionKey, SubstitutedReturn>(MAX_SIZE)
+    }
+
+    private class StructuralProbe : TyVisitor() {
+        var structural = true
+
+        override fun visitTy(ty: ITy) {
+            if (structural)
+                super.visitTy(ty)
+        }
+
+        override fun visitClass(clazz: ITyClass) {
+            if (clazz.isAnonymous)
+                structural = false
+            else
+                super.visitClass(clazz)
+        }
+
+        override fun visitFun(f: ITyFunction) {
+            structural = false
+        }
+    }
+
+    private class SelfProbe : TySubstitutor() {
+        var found = false
+
+        override fun substitute(clazz: ITyClass): ITy {
+            if (clazz.className == Constants.WORD_SELF)
+                found = true
+            return clazz
+        }
+    }
+
+    private val cachedMemo: CachedValue<Memo> = CachedValuesManager.getManager(project).createCachedValue({
+        CachedValueProvider.Result.create(Memo(), PsiModificationTracker.MODIFICATION_COUNT)
+    }, false)
+
+    /**
+     * Substitutes the type parameters of [sig] with the argument types of [call]
+     */
+    fun substitute(call: LuaCallExpr, sig: IFunSignature, context: SearchContext): IFunSignature {
+        if (!sig.isGeneric())
+            return sig
+        val args = call.guessArgTypes(context)
+        if (!isStructural(sig, args))
+            return sig.substitute(sig.createSubstitutor(args))
+        val key = SubstitutionKey(SignatureKey(sig), args, null)
+        return getOrCompute(cachedMemo.value.signatures, key, "signature") {
+            sig.substitute(sig.createSubstitutor(args))
+        }
+    }
+
+    /**
+     * Return type of [sig] called by [call], with type parameters and `self` substituted
+     */
+    fun getReturnTy(call: LuaCallExpr, sig: IFunSignature, context: SearchContext): ITy {
+        val memo = cachedMemo.value
+        val sigKey = SignatureKey(sig)
+        val args = if (sig.isGeneric()) call.guessArgTypes(context) else emptyList()
+        val cacheable = isStructural(sig, args)
+        val computeReturn = {
+            val ty = if (sig.isGeneric()) sig.returnTy.substitute(sig.createSubstitutor(args)) else sig.returnTy
+            val probe = SelfProbe()
+            ty.substitute(probe)
+            SubstitutedReturn(ty, probe.found)
+        }
+        val substituted = if (cacheable)
+            getOrCompute(memo.returnTypes, SubstitutionKey(sigKey, args, null), "returnTy", computeReturn)
+        else computeReturn()
+        if (!substituted.usesSelf)
+            return substituted.returnTy
+
+        // same context as TySelfSubstitutor
+        val selfTy = call.prefixExpr?.guessType(SearchContext.get(project)) ?: Ty.UNKNOWN
+        val computeSelf = {
+            SubstitutedReturn(substituted.returnTy.substitute(TySelfSubstitutor(project, call, selfTy)), false)
+        }
+        if (!cacheable || !isStructural(selfTy))
+            return computeSelf().returnTy
+        return getOrCompute(memo.returnTypes, SubstitutionKey(sigKey, args, selfTy), "self", computeSelf).returnTy
+    }
+
+    private fun isStructural(ty: ITy): Boolean {
+        val probe = StructuralProbe()
+        ty.accept(probe)
+        return probe.structural
+    }
+
+    private fun isStructural(sig: IFunSignature, args: List<ITy>): Boolean {
+        return isStructural(sig.returnTy)
+                && sig.varargTy?.let { isStructural(it) } != false
+                && sig.params.all { isStructural(it.ty) }
+                && args.all { isStructural(it) }
+    }
+
+    private fun <K, V> getOrCompute(map: LruMap<K, V>, key: K, kind: String, compute: () -> V): V {
+        synchronized(map) { map[key] }?.let {
+            LuaInferProfiler.cacheHit(LuaInferProfiler.Category.SUBSTITUTION, kind)
+            return it
+        }
+        LuaInferProfiler.cacheMiss(LuaInferProfiler.Category.SUBSTITUTION, kind)
+        // compute outside of the lock, substitution may infer other calls
+        val value = LuaInferProfiler.measure(LuaInferProfiler.Category.SUBSTITUTION, kind) { compute() }
+        synchronized(map) { map[key] = value }
+        return value
+    }
+
+    companion object {
+        private const val MAX_SIZE = 2048
+
+        fun getInstance(project: Project): GenericSubstitutionCache {
+            return ServiceManager.getService(project, GenericSubstitutionCache::class.java)
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.lua.ty
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.stubs.StubIndexKey
+import com.tarantoollua.intellij.lua.psi.search.LuaShortNamesManager
+import com.tarantoollua.intellij.lua.search.InferDependencies
+import com.tarantoollua.intellij.lua.search.LuaFileChangeTracker
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.index.StubKeys
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Project level registry of the metadata of declared classes and aliases, looked up once per name.
+ *
+ * [TyClass] instances are created all the time by inference and deserialization,
+ * they read their super class and alias name from here instead of going to the index each time.
+ * Entries are kept by declaring file: when lua files change, see [LuaFileChangeTracker],
+ * only the entries declared by those files are dropped, with the names that were not declared since any file may declare them.
+ * Only lookups in the default scope are registered.
+ */
+class LuaClassRegistry(val project: Project) {
+
+    /**
+     * @param file file declaring the class, null if the name is not declared or the file is not on disk
+     */
+    class ClassInfo(val className: String,
+                    val declared: Boolean,
+                    val superClassName: String?,
+                    val aliasName: String?,
+                    val flags: Int,
+                    val file: VirtualFile?) {
+        /**
+         * shared type of the declared class
+         */
+        val type: TyClass by lazy { TySerializedClass(className, className, superClassName, aliasName, flags) }
+    }
+
+    /**
+     * @param type null if the name is not an alias
+     */
+    class AliasInfo(val type: ITy?, val file: VirtualFile?)
+
+    /**
+     * entries by name, with the names declared by each file
+     */
+    private class Entries<T : Any>(private val fileOf: (T) -> VirtualFile?) {
+        private val entries = ConcurrentHashMap<String, T>()
+        private val namesByFile = ConcurrentHashMap<VirtualFile, MutableSet<String>>()
+        // not declared, or declared by a file that is not on disk
+        private val unknownFile: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+        operator fun get(name: String): T? = entries[name]
+
+        /**
+         * @return the entry registered for [name], [info] if there was none
+         */
+        fun register(name: String, info: T): T {
+            val prev = entries.putIfAbsent(name, info)
+            if (prev != null)
+                return prev
+            val file = fileOf(info)
+            if (file != null)
+                namesByFile.getOrPut(file) { ConcurrentHashMap.newKeySet() }.add(name)
+            else
+                unknownFile.add(name)
+            return info
+        }
+
+        fun drop(files: Collection<VirtualFile>) {
+            files.forEach { file -> namesByFile.remove(file)?.forEach { entries.remove(it) } }
+            unknownFile.forEach { entries.remove(it) }
+            unknownFile.clear()
+        }
+
+        fun clear() {
+            entries.clear()
+            namesByFile.clear()
+            unknownFile.clear()
+        }
+    }
+
+    private val classes = Entries<ClassInfo> { it.file }
+    private val aliases = Entries<AliasInfo> { it.file }
+
+    @Volatile
+    private var syncedTick = LuaFileChangeTracker.getInstance(project).tick
+
+    /**
+     * drop the entries of the files changed since the last call
+     */
+    private fun sync() {
+        val tracker = LuaFileChangeTracker.getInstance(project)
+        if (tracker.lastFileChange <= syncedTick)
+            return
+        synchronized(this) {
+            // read first, a change while dropping is seen by the next call
+            val tick = tracker.tick
+            val changed = tracker.getChangedFiles(syncedTick)
+            if (changed == null) {
+                classes.clear()
+                aliases.clear()
+            } else {
+                classes.drop(changed)
+                aliases.drop(changed)
+            }
+            syncedTick = tick
+        }
+    }
+
+    private fun isRegistered(context: SearchContext) = context.isDefaultScope && !context.isDumb
+
+    /**
+     * @return null if [className] is not declared
+     */
+    fun getClass(className: String, context: SearchContext): ClassInfo? {
+        val info = if (isRegistered(context)) {
+            sync()
+            classes[className] ?: classes.register(className, createClassInfo(className, context))
+        } else createClassInfo(className, context)
+        recordDependency(StubKeys.CLASS, className, info.declared, info.file)
+        return if (info.declared) info else null
+    }
+
+    /**
+     * @return type of the `---@alias` named [name], null if there is none
+     */
+    fun getAliasType(name: String, context: SearchContext): ITy? {
+        val info = if (isRegistered(context)) {
+            sync()
+            aliases[name] ?: aliases.register(name, createAliasInfo(name, context))
+        } else createAliasInfo(name, context)
+        recordDependency(StubKeys.ALIAS, name, info.type != null, info.file)
+        return info.type
+    }
+
+    /**
+     * a value using a declared name depends on the file declaring it,
+     * a name that is not declared yet may be declared by any file
+     */
+    private fun recordDependency(index: StubIndexKey<String, *>, name: String, declared: Boolean, file: VirtualFile?) {
+        if (declared && file != null)
+            InferDependencies.recordFile(file)
+        else
+            InferDependencies.recordLookupFiles(index, name, emptySet())
+    }
+
+    private fun createClassInfo(className: String, context: SearchContext): ClassInfo {
+        val classDef = LuaShortNamesManager.getInstance(project).findClass(className, context)
+                ?: return ClassInfo(className, false, null, null, 0, null)
+        val type = classDef.type
+        return ClassInfo(className, true, type.superClassName, type.aliasName, type.flags, classDef.containingFile?.virtualFile)
+    }
+
+    private fun createAliasInfo(name: String, context: SearchContext): AliasInfo {
+        val alias = LuaShortNamesManager.getInstance(project).findAlias(name, context)
+        return AliasInfo(alias?.type, alias?.containingFile?.virtualFile)
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaClassRegistry {
+            return ServiceManager.getService(project, LuaClassRegistry::class.java)
+        }
+    }
+}
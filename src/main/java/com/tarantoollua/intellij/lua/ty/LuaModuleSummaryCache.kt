@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.ty
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.project.Project
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import com.tarantoollua.intellij.lua.search.InferDependencies
+import com.tarantoollua.intellij.lua.search.SearchContext
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Project level cache of the types returned by lua files, the type of `require "x"`.
+ *
+ * A summary keeps the [InferDependencies] recorded while inferring it: the files it read,
+ * the index keys it looked up with the files contributing to them and, transitively,
+ * the dependencies of the modules it required and of the cached types it used.
+ * It is checked when read, so a change of a file only drops the summaries depending on it
+ * and a new declaration only drops the summaries that looked up its name.
+ * Summaries that failed to resolve a required module are dropped on any change of a lua file.
+ * Only summaries inferred in the default scope are kept.
+ */
+class LuaModuleSummaryCache(val project: Project) {
+
+    class Summary(val type: ITy, val dependencies: InferDependencies)
+
+    private val summaries = ConcurrentHashMap<LuaPsiFile, Summary>()
+
+    /**
+     * type returned by [file], computed by [compute] if there is no summary yet
+     */
+    fun getExportType(file: LuaPsiFile, context: SearchContext, compute: () -> ITy): ITy {
+        if (!context.isDefaultScope || context.isDumb)
+            return compute()
+
+        val kind = file.name
+        val cached = getSummary(file)
+        if (cached != null) {
+            LuaInferProfiler.cacheHit(LuaInferProfiler.Category.MODULE_SUMMARY, kind)
+            // the requiring value depends on everything this one depends on
+            InferDependencies.recordAll(cached.dependencies)
+            return cached.type
+        }
+        LuaInferProfiler.cacheMiss(LuaInferProfiler.Category.MODULE_SUMMARY, kind)
+
+        val (result, dependencies) = InferDependencies.record(project) {
+            InferDependencies.recordFile(file)
+            LuaInferProfiler.measure(LuaInferProfiler.Category.MODULE_SUMMARY, kind) {
+                context.computeTracked(compute)
+            }
+        }
+        val (type, complete) = result
+        if (complete)
+            summaries[file] = Summary(type, dependencies)
+        return type
+    }
+
+    /**
+     * @return null if there is no summary of [file] or if it is stale
+     */
+    fun getSummary(file: LuaPsiFile): Summary? {
+        val summary = summaries[file] ?: return null
+        if (!file.isValid || !summary.dependencies.isValid(project)) {
+            summaries.remove(file, summary)
+            return null
+        }
+        return summary
+    }
+
+    fun clear() {
+        summaries.clear()
+    }
+
+    companion object {
+        fun getInstance(project: Project): LuaModuleSummaryCache {
+            return ServiceManager.getService(project, LuaModuleSummaryCache::class.java)
+        }
+    }
+}
@@ -112,8 +112,31 @@ abstract class Ty(override val kind: TyKind) : ITy {
 
     final override var flags: Int = 0
 
+    @Volatile
+    private var renderedName: String? = null
+
     override val displayName: String
-        get() = TyRenderer.SIMPLE.render(this)
+        get() {
+            renderedName?.let { return it }
+            val name = TyRenderer.SIMPLE.render(this)
+            if (isRenderCacheable)
+                renderedName = name
+            return name
+        }
+
+    /**
+     * whether [displayName] can be remembered, false when the type is rendered from PSI that may still change
+     */
+    open val isRenderCacheable: Boolean get() {
+        var cacheable = true
+        acceptChildren(object : TyVisitor() {
+            override fun visitTy(ty: ITy) {
+                if (ty !is Ty || !ty.isRenderCacheable)
+                    cacheable = false
+            }
+        })
+        return cacheable
+    }
 
     fun addFlag(flag: Int) {
         flags = flags or flag
@@ -131,18 +154,21 @@ abstract class Ty(override val kind: TyKind) : ITy {
     }
 
     override fun toString(): String {
-        val list = mutableListOf<String>()
-        TyUnion.each(this) { //尽量不使用Global
-            if (!it.isAnonymous && !(it is ITyClass && it.isGlobal))
-                list.add(it.displayName)
-        }
-        if (list.isEmpty()) { //使用Global
-            TyUnion.each(this) {
-                if (!it.isAnonymous && (it is ITyClass && it.isGlobal))
-                    list.add(it.displayName)
+        val sb = StringBuilder()
+        var globals: StringBuilder? = null
+        TyUnion.each(this) {
+            if (it.isAnonymous)
+                return@each
+            if (it is ITyClass && it.isGlobal) { //使用Global
+                val g = globals ?: StringBuilder().also { b -> globals = b }
+                if (g.isNotEmpty()) g.append('|')
+                g.append(it.displayName)
+            } else { //尽量不使用Global
+                if (sb.isNotEmpty()) sb.append('|')
+                sb.append(it.displayName)
             }
         }
-        return list.joinToString("|")
+        return if (sb.isEmpty()) globals?.toString() ?: "" else sb.toString()
     }
 
     override fun subTypeOf(other: ITy, context: SearchContext, strict: Boolean): Boolean {
@@ -255,7 +281,7 @@ abstract class Ty(override val kind: TyKind) : ITy {
 
         fun serialize(ty: ITy, stream: StubOutputStream) {
             stream.writeByte(ty.kind.ordinal)
-            stream.writeInt(ty.flags)
+            stream.writeVarInt(ty.flags)
             when(ty) {
                 is ITyPrimitive -> stream.writeByte(ty.primitiveKind.ordinal)
                 else -> {
@@ -267,7 +293,7 @@ abstract class Ty(override val kind: TyKind) : ITy {
 
         fun deserialize(stream: StubInputStream): ITy {
             val kind = getKind(stream.readByte().toInt())
-            val flags = stream.readInt()
+            val flags = stream.readVarInt()
             return when (kind) {
                 TyKind.Primitive -> getPrimitive(stream.readByte())
                 TyKind.Nil -> NIL
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.lua.ty
+
+import com.intellij.psi.stubs.StubInputStream
+import com.intellij.psi.stubs.StubOutputStream
+import com.intellij.util.io.StringRef
+
+/**
+ * Identity of an anonymous type: a table literal, a doc table or a local variable,
+ * identified by the uid of its file and the offset of the defining element.
+ *
+ * [name] keeps the historical string form, so it can still be used as an index key,
+ * but nothing has to parse it back.
+ */
+class TyAnonymousId(val kind: Kind, val fileUid: String, val offset: Int) {
+
+    enum class Kind {
+        Table,
+        DocTable,
+        Local
+    }
+
+    // built on first use, most ids read from the stubs are only compared
+    val name: String by lazy {
+        when (kind) {
+            Kind.Table -> "$fileUid@($offset)table"
+            Kind.DocTable -> "10|$fileUid|$offset"
+            Kind.Local -> "$offset@$fileUid"
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is TyAnonymousId && other.kind == kind && other.offset == offset && other.fileUid == fileUid
+    }
+
+    override fun hashCode(): Int {
+        return (kind.ordinal * 31 + offset) * 31 + fileUid.hashCode()
+    }
+
+    override fun toString(): String = name
+
+    companion object {
+        private val kinds = Kind.values()
+
+        fun serialize(id: TyAnonymousId, stream: StubOutputStream) {
+            stream.writeByte(id.kind.ordinal)
+            stream.writeName(id.fileUid)
+            stream.writeVarInt(id.offset)
+        }
+
+        fun deserialize(stream: StubInputStream): TyAnonymousId {
+            val kind = kinds[stream.readByte().toInt()]
+            val uid = StringRef.toString(stream.readName())
+            return TyAnonymousId(kind, uid, stream.readVarInt())
+        }
+    }
+}
@@ -18,7 +18,7 @@ package com.tarantoollua.intellij.lua.ty
 
 import com.intellij.openapi.project.Project
 import com.intellij.psi.PsiFile
-import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.PsiManager
 import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
 import com.intellij.util.Processor
@@ -28,7 +28,7 @@ import com.tarantoollua.intellij.lua.comment.psi.LuaDocTableDef
 import com.tarantoollua.intellij.lua.comment.psi.LuaDocTagClass
 import com.tarantoollua.intellij.lua.project.LuaSettings
 import com.tarantoollua.intellij.lua.psi.*
-import com.tarantoollua.intellij.lua.psi.search.LuaClassInheritorsSearch
+import com.tarantoollua.intellij.lua.psi.search.LuaClassHierarchy
 import com.tarantoollua.intellij.lua.psi.search.LuaShortNamesManager
 import com.tarantoollua.intellij.lua.search.SearchContext
 
@@ -37,6 +37,10 @@ interface ITyClass : ITy {
     val varName: String
     var superClassName: String?
     var aliasName: String?
+    /**
+     * identity of anonymous types, null for named classes
+     */
+    val anonymousId: TyAnonymousId? get() = null
     fun processAlias(processor: Processor<String>): Boolean
     fun lazyInit(searchContext: SearchContext)
     fun getMemberChain(context: SearchContext): ClassMemberChain
@@ -64,7 +68,7 @@ fun ITyClass.isVisibleInScope(project: Project, contextTy: ITy, visibility: Visi
             if (it == this)
                 isVisible = true
             else if (visibility == Visibility.PROTECTED) {
-                isVisible = LuaClassInheritorsSearch.isClassInheritFrom(GlobalSearchScope.projectScope(project), project, className, it.className)
+                isVisible = LuaClassHierarchy.getInstance(project).isSubClassOf(it.className, className)
             }
         }
         !isVisible
@@ -79,6 +83,7 @@ abstract class TyClass(override val className: String,
 
     final override var aliasName: String? = null
 
+    @Volatile
     private var _lazyInitialized: Boolean = false
 
     override fun equals(other: Any?): Boolean {
@@ -101,6 +106,10 @@ abstract class TyClass(override val className: String,
     }
 
     override fun getMemberChain(context: SearchContext): ClassMemberChain {
+        return ClassMemberChainCache.getInstance(context.project).getChain(this, context)
+    }
+
+    fun buildMemberChain(context: SearchContext): ClassMemberChain {
         val superClazz = getSuperClass(context) as? ITyClass
         val chain = ClassMemberChain(this, superClazz?.getMemberChain(context))
         val manager = LuaShortNamesManager.getInstance(context.project)
@@ -113,9 +122,29 @@ abstract class TyClass(override val className: String,
             true
         })
 
+        // members assigned to `require "mod"` in other files are indexed under @mod, see LuaStubInference
+        val modulePath = getExportingModule(context)
+        if (modulePath != null)
+            manager.getClassMembers(createModuleType(modulePath).className, context).forEach { chain.add(it) }
+
         return chain
     }
 
+    /**
+     * require path of the file declaring this class, if that file returns it
+     */
+    private fun getExportingModule(context: SearchContext): String? {
+        if (isAnonymous || hasFlag(TyFlags.GLOBAL))
+            return null
+        val info = LuaClassRegistry.getInstance(context.project).getClass(className, context) ?: return null
+        val file = info.file ?: return null
+        val psiFile = PsiManager.getInstance(context.project).findFile(file) as? LuaPsiFile ?: return null
+        // recorded by the stub, the returned type is not inferred while building a chain
+        if (psiFile.exportedClassName != className)
+            return null
+        return LuaFileUtil.asRequirePath(context.project, file)
+    }
+
     override fun processMembers(context: SearchContext, processor: (ITyClass, LuaClassMember) -> Unit, deep: Boolean) {
         val chain = getMemberChain(context)
         chain.process(deep, processor)
@@ -136,18 +165,21 @@ abstract class TyClass(override val className: String,
     }
 
     override fun lazyInit(searchContext: SearchContext) {
+        // class types are shared between threads through the caches, no lock is held while reading the indexes:
+        // concurrent inits read the same values and the volatile write publishes them
         if (!_lazyInitialized) {
-            _lazyInitialized = true
             doLazyInit(searchContext)
+            _lazyInitialized = true
         }
     }
 
     open fun doLazyInit(searchContext: SearchContext) {
-        val classDef = LuaShortNamesManager.getInstance(searchContext.project).findClass(className, searchContext)
-        if (classDef != null && aliasName == null) {
-            val tyClass = classDef.type
-            aliasName = tyClass.aliasName
-            superClassName = tyClass.superClassName
+        val info = LuaClassRegistry.getInstance(searchContext.project).getClass(className, searchContext) ?: return
+        synchronized(this) {
+            if (aliasName == null) {
+                aliasName = info.aliasName
+                superClassName = info.superClassName
+            }
         }
     }
 
@@ -155,7 +187,7 @@ abstract class TyClass(override val className: String,
         lazyInit(context)
         val clsName = superClassName
         if (clsName != null && clsName != className) {
-            return Ty.getBuiltin(clsName) ?: LuaShortNamesManager.getInstance(context.project).findClass(clsName, context)?.type
+            return Ty.getBuiltin(clsName) ?: LuaClassRegistry.getInstance(context.project).getClass(clsName, context)?.type
         }
         return null
     }
@@ -165,8 +197,16 @@ abstract class TyClass(override val className: String,
         if (other == Ty.TABLE) return true
         if (super.subTypeOf(other, context, strict)) return true
 
+        if (other !is ITyClass) return false
         // Lazy init for superclass
-        this.doLazyInit(context)
+        lazyInit(context)
+        // super classes are declared by `---@class`, their types have no flags
+        if (context.isDefaultScope && !context.isDumb) {
+            val superName = superClassName
+            if (other.flags != 0 || superName == null || superName == className || Ty.getBuiltin(superName) != null)
+                return false
+            return other.className == superName || LuaClassHierarchy.getInstance(context.project).isSubClassOf(superName, other.className)
+        }
         // Check if any of the superclasses are type
         var isSubType = false
         processSuperClass(this, context) { superType ->
@@ -186,8 +226,8 @@ abstract class TyClass(override val className: String,
 
         fun createAnonymousType(nameDef: LuaNameDef): TyClass {
             val stub = nameDef.stub
-            val tyName = stub?.anonymousType ?: getAnonymousType(nameDef)
-            return createSerializedClass(tyName, nameDef.name, null, null, TyFlags.ANONYMOUS)
+            val id = stub?.anonymousId ?: getAnonymousTypeId(nameDef)
+            return TySerializedClass(id, nameDef.name, TyFlags.ANONYMOUS)
         }
 
         fun createGlobalType(nameExpr: LuaNameExpr, store: Boolean): ITy {
@@ -205,6 +245,30 @@ abstract class TyClass(override val className: String,
             return g
         }
 
+        /**
+         * a.b => $a.b, stores the members assigned through the path of a global
+         */
+        fun createGlobalFieldType(owner: ITyClass, fieldName: String): TyClass {
+            val path = "${owner.varName}.$fieldName"
+            return createSerializedClass(getGlobalTypeName(path), path, null, null, TyFlags.GLOBAL)
+        }
+
+        /**
+         * require("a.b") => @a.b, stores the members assigned to the result of a require
+         */
+        fun createModuleType(path: String): TyClass {
+            val moduleName = path.replace('/', '.')
+            return createSerializedClass("@$moduleName", moduleName, null, null, TyFlags.GLOBAL)
+        }
+
+        /**
+         * true for the types of [createGlobalFieldType] and [createModuleType],
+         * they only own members and are never the type of a value
+         */
+        fun isSymbolicOwner(className: String): Boolean {
+            return className.startsWith('@') || (className.startsWith('$') && className.contains('.'))
+        }
+
         fun processSuperClass(start: ITyClass, searchContext: SearchContext, processor: (ITyClass) -> Boolean): Boolean {
             val processedName = mutableSetOf<String>()
             var cur: ITy? = start
@@ -248,11 +312,19 @@ open class TySerializedClass(name: String,
         this.flags = flags
     }
 
+    final override var anonymousId: TyAnonymousId? = null
+        private set
+
+    constructor(id: TyAnonymousId, varName: String, flags: Int, supper: String? = null, alias: String? = null)
+            : this(id.name, varName, supper, alias, flags) {
+        anonymousId = id
+    }
+
     override fun recoverAlias(context: SearchContext, aliasSubstitutor: TyAliasSubstitutor): ITy {
         if (this.isAnonymous || this.isGlobal)
             return this
-        val alias = LuaShortNamesManager.getInstance(context.project).findAlias(className, context)
-        return alias?.type?.substitute(aliasSubstitutor) ?: this
+        val aliasTy = LuaClassRegistry.getInstance(context.project).getAliasType(className, context)
+        return aliasTy?.substitute(aliasSubstitutor) ?: this
     }
 }
 
@@ -264,14 +336,6 @@ fun createSerializedClass(name: String,
                           supper: String? = null,
                           alias: String? = null,
                           flags: Int = 0): TyClass {
-    val list = name.split("|")
-    if (list.size == 3) {
-        val type = list[0].toInt()
-        if (type == 10) {
-            return TySerializedDocTable(name)
-        }
-    }
-
     return TySerializedClass(name, varName, supper, alias, flags)
 }
 
@@ -282,17 +346,20 @@ private val PsiFile.uid: String get() {
     return name
 }
 
-fun getTableTypeName(table: LuaTableExpr): String {
+fun getTableTypeId(table: LuaTableExpr): TyAnonymousId {
     val stub = table.stub
     if (stub != null)
-        return stub.tableTypeName
+        return stub.tableTypeId
 
-    val fileName = table.containingFile.uid
-    return "$fileName@(${table.node.startOffset})table"
+    return TyAnonymousId(TyAnonymousId.Kind.Table, table.containingFile.uid, table.node.startOffset)
 }
 
-fun getAnonymousType(nameDef: LuaNameDef): String {
-    return "${nameDef.node.startOffset}@${nameDef.containingFile.uid}"
+fun getTableTypeName(table: LuaTableExpr): String {
+    return getTableTypeId(table).name
+}
+
+fun getAnonymousTypeId(nameDef: LuaNameDef): TyAnonymousId {
+    return TyAnonymousId(TyAnonymousId.Kind.Local, nameDef.containingFile.uid, nameDef.node.startOffset)
 }
 
 fun getGlobalTypeName(text: String): String {
@@ -303,7 +370,10 @@ fun getGlobalTypeName(nameExpr: LuaNameExpr): String {
     return getGlobalTypeName(nameExpr.name)
 }
 
-class TyTable(val table: LuaTableExpr) : TyClass(getTableTypeName(table)) {
+class TyTable private constructor(val table: LuaTableExpr, override val anonymousId: TyAnonymousId) : TyClass(anonymousId.name) {
+
+    constructor(table: LuaTableExpr) : this(table, getTableTypeId(table))
+
     init {
         this.flags = TyFlags.ANONYMOUS or TyFlags.ANONYMOUS_TABLE
     }
@@ -325,16 +395,21 @@ class TyTable(val table: LuaTableExpr) : TyClass(getTableTypeName(table)) {
     }
 }
 
-fun getDocTableTypeName(table: LuaDocTableDef): String {
+fun getDocTableTypeId(table: LuaDocTableDef): TyAnonymousId {
     val stub = table.stub
     if (stub != null)
-        return stub.className
+        return stub.tableTypeId
 
-    val fileName = table.containingFile.uid
-    return "10|$fileName|${table.node.startOffset}"
+    return TyAnonymousId(TyAnonymousId.Kind.DocTable, table.containingFile.uid, table.node.startOffset)
 }
 
-class TyDocTable(val table: LuaDocTableDef) : TyClass(getDocTableTypeName(table)) {
+class TyDocTable private constructor(val table: LuaDocTableDef, override val anonymousId: TyAnonymousId) : TyClass(anonymousId.name) {
+
+    constructor(table: LuaDocTableDef) : this(table, getDocTableTypeId(table))
+
+    // fields are rendered from the doc PSI
+    override val isRenderCacheable: Boolean get() = false
+
     override fun doLazyInit(searchContext: SearchContext) {}
 
     override fun processMembers(context: SearchContext, processor: (ITyClass, LuaClassMember) -> Unit, deep: Boolean) {
@@ -348,7 +423,7 @@ class TyDocTable(val table: LuaDocTableDef) : TyClass(getDocTableTypeName(table)
     }
 }
 
-class TySerializedDocTable(name: String) : TySerializedClass(name) {
+class TySerializedDocTable(id: TyAnonymousId) : TySerializedClass(id, id.name, 0) {
     override fun recoverAlias(context: SearchContext, aliasSubstitutor: TyAliasSubstitutor): ITy {
         return this
     }
@@ -356,19 +431,26 @@ class TySerializedDocTable(name: String) : TySerializedClass(name) {
 
 object TyClassSerializer : TySerializer<ITyClass>() {
     override fun deserializeTy(flags: Int, stream: StubInputStream): ITyClass {
-        val className = stream.readName()
-        val varName = stream.readName()
-        val superName = stream.readName()
-        val aliasName = stream.readName()
-        return createSerializedClass(StringRef.toString(className),
-                StringRef.toString(varName),
-                StringRef.toString(superName),
-                StringRef.toString(aliasName),
-                flags)
+        val id = if (stream.readBoolean()) TyAnonymousId.deserialize(stream) else null
+        if (id?.kind == TyAnonymousId.Kind.DocTable)
+            return TySerializedDocTable(id)
+        val className = if (id == null) StringRef.toString(stream.readName()) else id.name
+        val varName = StringRef.toString(stream.readName())
+        val superName = StringRef.toString(stream.readName())
+        val aliasName = StringRef.toString(stream.readName())
+        if (id != null)
+            return TySerializedClass(id, varName, flags, superName, aliasName)
+        return createSerializedClass(className, varName, superName, aliasName, flags)
     }
 
     override fun serializeTy(ty: ITyClass, stream: StubOutputStream) {
-        stream.writeName(ty.className)
+        val id = ty.anonymousId
+        stream.writeBoolean(id != null)
+        if (id != null) {
+            TyAnonymousId.serialize(id, stream)
+            if (id.kind == TyAnonymousId.Kind.DocTable)
+                return
+        } else stream.writeName(ty.className)
         stream.writeName(ty.varName)
         stream.writeName(ty.superClassName)
         stream.writeName(ty.aliasName)
@@ -282,6 +282,11 @@ abstract class TyFunction : Ty(TyKind.Function), ITyFunction {
         return code
     }
 
+    override val isRenderCacheable: Boolean get() {
+        val sig = mainSignature
+        return (sig.returnTy as? Ty)?.isRenderCacheable == true && sig.params.all { (it.ty as? Ty)?.isRenderCacheable == true }
+    }
+
     override fun subTypeOf(other: ITy, context: SearchContext, strict: Boolean): Boolean {
         if (super.subTypeOf(other, context, strict) || other == FUNCTION)
             return true // Subtype of function primitive.
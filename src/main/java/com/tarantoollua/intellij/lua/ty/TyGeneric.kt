@@ -83,6 +83,9 @@ abstract class TyGeneric : Ty(TyKind.Generic), ITyGeneric {
         visitor.visitGeneric(this)
     }
 
+    override val isRenderCacheable: Boolean
+        get() = (base as? Ty)?.isRenderCacheable == true && params.all { (it as? Ty)?.isRenderCacheable == true }
+
     override fun substitute(substitutor: ITySubstitutor): ITy {
         return TySerializedGeneric(
                 params.map { it.substitute(substitutor) }.toTypedArray(),
@@ -123,7 +126,7 @@ class TySerializedGeneric(override val params: Array<ITy>, override val base: IT
 object TyGenericSerializer : TySerializer<ITyGeneric>() {
     override fun deserializeTy(flags: Int, stream: StubInputStream): ITyGeneric {
         val base = Ty.deserialize(stream)
-        val size = stream.readByte()
+        val size = stream.readVarInt()
         val params = mutableListOf<ITy>()
         for (i in 0 until size) {
             params.add(Ty.deserialize(stream))
@@ -133,7 +136,7 @@ object TyGenericSerializer : TySerializer<ITyGeneric>() {
 
     override fun serializeTy(ty: ITyGeneric, stream: StubOutputStream) {
         Ty.serialize(ty.base, stream)
-        stream.writeByte(ty.params.size)
+        stream.writeVarInt(ty.params.size)
         ty.params.forEach { Ty.serialize(it, stream) }
     }
 }
\ No newline at end of file
@@ -26,8 +26,22 @@ interface ITyRenderer {
 
 open class TyRenderer : TyVisitor(), ITyRenderer {
 
+    /**
+     * builder reused by [render] on the current thread, null while it is in use by an outer render
+     */
+    private val reusableBuilder = ThreadLocal<StringBuilder>()
+
     override fun render(ty: ITy): String {
-        return buildString { render(ty, this) }
+        val sb = reusableBuilder.get() ?: StringBuilder()
+        reusableBuilder.set(null)
+        try {
+            render(ty, sb)
+            return sb.toString()
+        } finally {
+            sb.setLength(0)
+            if (sb.capacity() <= MAX_REUSED_CAPACITY)
+                reusableBuilder.set(sb)
+        }
     }
 
     override fun render(ty: ITy, sb: StringBuilder) {
@@ -39,9 +53,12 @@ open class TyRenderer : TyVisitor(), ITyRenderer {
                     is TyUnknown -> sb.append(renderType(Constants.WORD_ANY))
                     is TyNil -> sb.append(renderType(Constants.WORD_NIL))
                     is ITyGeneric -> {
-                        val list = mutableListOf<String>()
-                        ty.params.forEach { list.add(it.displayName) }
-                        sb.append("${ty.base.displayName}<${list.joinToString(", ")}>")
+                        sb.append(ty.base.displayName).append('<')
+                        ty.params.forEachIndexed { index, param ->
+                            if (index > 0) sb.append(", ")
+                            sb.append(param.displayName)
+                        }
+                        sb.append('>')
                     }
                     is TyParameter -> {
 
@@ -54,18 +71,32 @@ open class TyRenderer : TyVisitor(), ITyRenderer {
             }
 
             override fun visitClass(clazz: ITyClass) {
-                sb.append(renderClass(clazz))
+                if (clazz is TyDocTable)
+                    renderDocTable(clazz, sb)
+                else
+                    sb.append(renderClass(clazz))
             }
 
             override fun visitUnion(u: TyUnion) {
-                val list = mutableSetOf<String>()
+                val unionStart = sb.length
+                var rendered: MutableSet<String>? = null
                 u.acceptChildren(object : TyVisitor() {
                     override fun visitTy(ty: ITy) {
-                        val s = render(ty)
-                        if (s.isNotEmpty()) list.add(s)
+                        val start = sb.length
+                        if (rendered != null) sb.append('|')
+                        val childStart = sb.length
+                        render(ty, sb)
+                        if (sb.length == childStart) {
+                            sb.setLength(start)
+                            return
+                        }
+                        val set = rendered ?: mutableSetOf<String>().also { rendered = it }
+                        if (!set.add(sb.substring(childStart)))
+                            sb.setLength(start)
                     }
                 })
-                sb.append(if (list.isEmpty()) Constants.WORD_ANY else list.joinToString("|"))
+                if (sb.length == unionStart)
+                    sb.append(Constants.WORD_ANY)
             }
 
             override fun visitFun(f: ITyFunction) {
@@ -79,26 +110,44 @@ open class TyRenderer : TyVisitor(), ITyRenderer {
             }
 
             override fun visitTuple(tuple: TyTuple) {
-                val list = tuple.list.map { render(it) }
-                if (list.size <= 1) sb.append(list.joinToString(", "))
-                else sb.append("(${list.joinToString(", ")})")
+                val list = tuple.list
+                if (list.size > 1) sb.append('(')
+                list.forEachIndexed { index, ty ->
+                    if (index > 0) sb.append(", ")
+                    render(ty, sb)
+                }
+                if (list.size > 1) sb.append(')')
             }
         })
     }
 
     override fun renderSignature(sb: StringBuilder, signature: IFunSignature) {
-        val sig = signature.params.map { "${it.name}: ${render(it.ty)}" }
-        sb.append("(${sig.joinToString(", ")}): ")
+        sb.append('(')
+        signature.params.forEachIndexed { index, param ->
+            if (index > 0) sb.append(", ")
+            sb.append(param.name).append(": ")
+            render(param.ty, sb)
+        }
+        sb.append("): ")
         render(signature.returnTy, sb)
     }
 
+    private fun renderDocTable(table: TyDocTable, sb: StringBuilder) {
+        sb.append("{ ")
+        var first = true
+        table.table.tableFieldList.forEach {
+            val ty = it.ty ?: return@forEach
+            if (!first) sb.append(", ")
+            first = false
+            sb.append(it.name).append(": ")
+            render(ty.getType(), sb)
+        }
+        sb.append(" }")
+    }
+
     open fun renderClass(clazz: ITyClass): String {
         return when {
-            clazz is TyDocTable -> {
-                val list = mutableListOf<String>()
-                clazz.table.tableFieldList.forEach { it.ty?.let { ty-> list.add("${it.name}: ${render(ty.getType())}") } }
-                "{ ${list.joinToString(", ")} }"
-            }
+            clazz is TyDocTable -> buildString { renderDocTable(clazz, this) }
             clazz.hasFlag(TyFlags.ANONYMOUS_TABLE) -> renderType(Constants.WORD_TABLE)
             clazz.isAnonymous -> "[local ${clazz.varName}]"
             clazz.isGlobal -> "[global ${clazz.varName}]"
@@ -111,6 +160,8 @@ open class TyRenderer : TyVisitor(), ITyRenderer {
     }
 
     companion object {
+        private const val MAX_REUSED_CAPACITY = 4096
+
         val SIMPLE: ITyRenderer = TyRenderer()
     }
-}
\ No newline at end of file
+}
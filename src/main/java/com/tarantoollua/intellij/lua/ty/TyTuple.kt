@@ -74,14 +74,14 @@ class TyTuple(val list: List<ITy>) : Ty(TyKind.Tuple) {
 
 object TyTupleSerializer : TySerializer<TyTuple>() {
     override fun deserializeTy(flags: Int, stream: StubInputStream): TyTuple {
-        val size = stream.readByte().toInt()
+        val size = stream.readVarInt()
         val list = mutableListOf<ITy>()
         for (i in 0 until size) list.add(Ty.deserialize(stream))
         return TyTuple(list)
     }
 
     override fun serializeTy(ty: TyTuple, stream: StubOutputStream) {
-        stream.writeByte(ty.list.size)
+        stream.writeVarInt(ty.list.size)
         ty.list.forEach { Ty.serialize(it, stream) }
     }
 }
\ No newline at end of file
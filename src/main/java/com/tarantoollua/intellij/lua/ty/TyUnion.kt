@@ -20,34 +20,41 @@ import com.intellij.psi.stubs.StubInputStream
 import com.intellij.psi.stubs.StubOutputStream
 import com.tarantoollua.intellij.lua.search.SearchContext
 
-class TyUnion : Ty(TyKind.Union) {
-    private val childSet = mutableSetOf<ITy>()
+/**
+ * Immutable union of two or more distinct types.
+ *
+ * Instances are created through [TyUnion.union] only and never change once built,
+ * so cached types can be shared safely.
+ */
+class TyUnion private constructor(private val children: Array<ITy>) : Ty(TyKind.Union) {
 
-    fun getChildTypes() = childSet
+    // order independent, unions with the same members in another order are equal
+    private val hash: Int = children.fold(0) { h, ty -> h + ty.hashCode() }
 
-    val size:Int
-        get() = childSet.size
+    // small unions are scanned linearly, a set is only built for the large ones
+    private val lookup: Set<ITy>? = if (children.size > SMALL_SIZE) children.toHashSet() else null
 
-    fun append(ty: ITy): TyUnion {
-        if (ty is TyUnion) {
-            ty.childSet.forEach { addChild(it) }
-        }
-        else addChild(ty)
-        return this
-    }
+    fun getChildTypes(): List<ITy> = children.asList()
+
+    val size:Int
+        get() = children.size
 
-    private fun addChild(ty: ITy): Boolean {
-        return childSet.add(ty)
+    operator fun contains(ty: ITy): Boolean {
+        return lookup?.contains(ty) ?: children.contains(ty)
     }
 
     override fun subTypeOf(other: ITy, context: SearchContext, strict: Boolean): Boolean {
-        return super.subTypeOf(other, context, strict) || childSet.any { type -> type.subTypeOf(other, context, strict) }
+        return super.subTypeOf(other, context, strict) || children.any { type -> type.subTypeOf(other, context, strict) }
     }
 
     override fun substitute(substitutor: ITySubstitutor): ITy {
-        val u = TyUnion()
-        childSet.forEach { u.append(it.substitute(substitutor)) }
-        return u
+        var changed = false
+        val list = children.map { child ->
+            val ty = child.substitute(substitutor)
+            if (ty !== child) changed = true
+            ty
+        }
+        return if (changed) union(list) else this
     }
 
     override fun accept(visitor: ITyVisitor) {
@@ -55,17 +62,19 @@ class TyUnion : Ty(TyKind.Union) {
     }
 
     override fun acceptChildren(visitor: ITyVisitor) {
-        childSet.forEach { it.accept(visitor) }
+        children.forEach { it.accept(visitor) }
     }
 
     override fun equals(other: Any?): Boolean {
-        return other is TyUnion && other.hashCode() == hashCode()
+        if (this === other) return true
+        return other is TyUnion
+                && other.hash == hash
+                && other.children.size == children.size
+                && children.all { other.contains(it) }
     }
 
     override fun hashCode(): Int {
-        var code = 0
-        childSet.forEach { code = code * 31 + it.hashCode() }
-        return code
+        return hash
     }
 
     companion object {
@@ -85,10 +94,8 @@ class TyUnion : Ty(TyKind.Union) {
 
         fun process(ty: ITy, process: (ITy) -> Boolean) {
             if (ty is TyUnion) {
-                // why nullable ???
-                val arr: Array<ITy?> = ty.childSet.toTypedArray()
-                for (child in arr) {
-                    if (child != null && !process(child))
+                for (child in ty.children) {
+                    if (!process(child))
                         break
                 }
             } else process(ty)
@@ -105,7 +112,7 @@ class TyUnion : Ty(TyKind.Union) {
         @Suppress("unused")
         fun eachPerfect(ty: ITy, process: (ITy) -> Boolean) {
             if (ty is TyUnion) {
-                val list = ty.childSet.sorted()
+                val list = ty.children.sorted()
                 for (iTy in list) {
                     if (!process(iTy))
                         break
@@ -117,18 +124,31 @@ class TyUnion : Ty(TyKind.Union) {
             return when {
                 isInvalid(t1) -> t2
                 isInvalid(t2) -> t1
-                t1 is TyUnion -> t1.append(t2)
-                t2 is TyUnion -> t2.append(t1)
-                else -> {
-                    val u = TyUnion()
-                    u.addChild(t1)
-                    u.addChild(t2)
-                    //if t1 == t2
-                    if (u.childSet.size == 1) t1 else u
-                }
+                t1 == t2 -> t1
+                t1 is TyUnion -> merge(t1, t2)
+                t2 is TyUnion -> merge(t2, t1)
+                else -> TyUnion(arrayOf(t1, t2))
             }
         }
 
+        fun union(list: Iterable<ITy>): ITy {
+            var ty: ITy = Ty.UNKNOWN
+            list.forEach { ty = union(ty, it) }
+            return ty
+        }
+
+        /**
+         * @return [u] itself if it already contains every member of [ty]
+         */
+        private fun merge(u: TyUnion, ty: ITy): ITy {
+            val added = if (ty is TyUnion) ty.children.filter { it !in u } else if (ty in u) emptyList() else listOf(ty)
+            if (added.isEmpty())
+                return u
+            return TyUnion(u.children + added)
+        }
+
+        private const val SMALL_SIZE = 8
+
         fun getPerfectClass(ty: ITy): ITyClass? {
             var clazz: ITyClass? = null
             var anonymous: ITyClass? = null
@@ -148,18 +168,19 @@ class TyUnion : Ty(TyKind.Union) {
     }
 }
 
-object TyUnionSerializer : TySerializer<TyUnion>() {
-    override fun serializeTy(ty: TyUnion, stream: StubOutputStream) {
-        stream.writeInt(ty.size)
-        TyUnion.each(ty) { Ty.serialize(it, stream) }
+object TyUnionSerializer : TySerializer<ITy>() {
+    override fun serializeTy(ty: ITy, stream: StubOutputStream) {
+        val union = ty as TyUnion
+        stream.writeVarInt(union.size)
+        TyUnion.each(union) { Ty.serialize(it, stream) }
     }
 
-    override fun deserializeTy(flags: Int, stream: StubInputStream): TyUnion {
-        val union = TyUnion()
-        val size = stream.readInt()
+    override fun deserializeTy(flags: Int, stream: StubInputStream): ITy {
+        val size = stream.readVarInt()
+        val list = ArrayList<ITy>(size)
         for (i in 0 until size) {
-            union.append(Ty.deserialize(stream))
+            list.add(Ty.deserialize(stream))
         }
-        return union
+        return TyUnion.union(list)
     }
-}
\ No newline at end of file
+}
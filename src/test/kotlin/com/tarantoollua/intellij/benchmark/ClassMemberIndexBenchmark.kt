@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.stubs.StubIndex
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tarantoollua.intellij.lua.stubs.index.StubKeys
+
+/**
+ * Members loaded by the lookups of every key of the member index over the Tarantool library,
+ * with the string keys and with the hash code keys the index used before.
+ */
+class ClassMemberIndexBenchmark : LuaBenchmarkBase() {
+
+    fun `test lookup counts`() {
+        addStdLibrary()
+        val context = SearchContext.get(project)
+        val keys = StubIndex.getInstance().getAllKeys(StubKeys.CLASS_MEMBER, project)
+                .filter { LuaClassMemberIndex.getMembers(it, context).isNotEmpty() }
+        val counts = keys.associateWith { LuaClassMemberIndex.getMembers(it, context).size }
+
+        // an int key returned the members of every key with the same hash code
+        val byHash = mutableMapOf<Int, Int>()
+        counts.forEach { (key, count) -> byHash.merge(key.hashCode(), count, Int::plus) }
+        val loaded = counts.values.sum()
+        val loadedByHash = counts.keys.sumOf { byHash.getValue(it.hashCode()) }
+
+        report("keys", keys.size)
+        report("class keys", keys.count { !it.contains('*') })
+        report("members loaded, string keys", loaded)
+        report("members loaded, hash code keys", loadedByHash)
+        report("false positives of hash code keys", loadedByHash - loaded)
+
+        measure("lookup of every key") {
+            keys.forEach { LuaClassMemberIndex.getMembers(it, context) }
+        }
+    }
+}
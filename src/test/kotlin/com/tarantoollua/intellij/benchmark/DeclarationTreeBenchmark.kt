@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFileFactory
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.psi.LuaDeclarationTree
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+
+/**
+ * Typing latency of the declaration tree in a large file: each keystroke updates the tree
+ * by rebuilding the edited function, against building the tree of the whole file.
+ */
+class DeclarationTreeBenchmark : LuaBenchmarkBase() {
+
+    private fun createLargeFile(functions: Int): String {
+        val sb = StringBuilder("local M = {}\n")
+        for (i in 0 until functions) {
+            sb.append("function M.fn$i(a, b)\n")
+            sb.append("    local c = a + b\n")
+            sb.append("    return c\n")
+            sb.append("end\n")
+        }
+        sb.append("function M.last(p)\n    <caret>\n    return p\nend\nreturn M\n")
+        return sb.toString()
+    }
+
+    fun `test typing in a large file`() {
+        val text = createLargeFile(5000)
+        myFixture.configureByText("large.lua", text)
+        val documentManager = PsiDocumentManager.getInstance(project)
+        LuaDeclarationTree.get(myFixture.file)
+
+        measure("keystroke, update") {
+            myFixture.type("p = p\n")
+            documentManager.commitAllDocuments()
+            val ref = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameExpr::class.java).last { it.name == "p" }
+            LuaDeclarationTree.get(myFixture.file).find(ref)
+        }
+
+        measure("keystroke, full build") {
+            val file = PsiFileFactory.getInstance(project).createFileFromText("copy.lua", LuaLanguage.INSTANCE, myFixture.file.text)
+            val ref = PsiTreeUtil.findChildrenOfType(file, LuaNameExpr::class.java).last { it.name == "p" }
+            LuaDeclarationTree.get(file).find(ref)
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.PsiFile
+import com.tarantoollua.intellij.test.LuaTestBase
+import java.io.File
+
+/**
+ * Benchmarks are run by the `benchmark` gradle task, never with the unit tests.
+ * They print their numbers instead of asserting on them.
+ */
+abstract class LuaBenchmarkBase : LuaTestBase() {
+
+    /**
+     * adds the lua files of the bundled Tarantool library to the project
+     */
+    protected fun addStdLibrary(): List<PsiFile> {
+        val dir = File("src/main/resources/std/Tarantool")
+        return dir.walkTopDown().filter { it.extension == "lua" }.map {
+            myFixture.addFileToProject("std/${it.relativeTo(dir).path}", it.readText())
+        }.toList()
+    }
+
+    protected fun report(name: String, value: Any) {
+        println("[benchmark] ${javaClass.simpleName}.$name: $value")
+    }
+
+    /**
+     * runs [action] [warmup] times, then reports the average time of [times] runs
+     */
+    protected fun measure(name: String, times: Int = 20, warmup: Int = 5, action: () -> Unit) {
+        repeat(warmup) { action() }
+        val start = System.nanoTime()
+        repeat(times) { action() }
+        val average = (System.nanoTime() - start) / times
+        report(name, String.format("%.3f ms/op", average / 1_000_000.0))
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.PsiElement
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaCallExpr
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.search.GuardType
+import com.tarantoollua.intellij.lua.search.RecursionGuardSet
+import com.tarantoollua.intellij.lua.search.SearchContext
+
+/**
+ * Guard checks of deeply nested inferences, with the hashed guard set and with the list scanned
+ * on every check as SearchContext used to do, and the inference of deep call chains.
+ */
+class RecursionGuardBenchmark : LuaBenchmarkBase() {
+
+    private class LinearGuards {
+        val list = mutableListOf<Pair<PsiElement, String?>>()
+
+        fun isGuarded(psi: PsiElement, globalName: String?): Boolean {
+            return list.any { it.first == psi || (globalName != null && it.second == globalName) }
+        }
+    }
+
+    private fun createGlobalChain(depth: Int): String {
+        val sb = StringBuilder("g0 = 1\n")
+        for (i in 1..depth) {
+            sb.append("g$i = g${i - 1}\n")
+        }
+        return sb.toString()
+    }
+
+    private fun createCallChain(depth: Int): String {
+        val sb = StringBuilder("function f0() return 1 end\n")
+        for (i in 1..depth) {
+            sb.append("function f$i() return f${i - 1}() end\n")
+        }
+        sb.append("print(f$depth())\n")
+        return sb.toString()
+    }
+
+    fun `test guard checks`() {
+        for (depth in listOf(50, 300, 1000)) {
+            myFixture.configureByText("chain$depth.lua", createGlobalChain(depth))
+            val names = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameExpr::class.java).toList()
+            val globalNames = names.map { RecursionGuardSet().globalNameOf(it, GuardType.GlobalName) }
+
+            // every level of a nested inference checks a few elements before entering the next one
+            measure("linear scan, depth $depth") {
+                val linear = LinearGuards()
+                for (i in names.indices) {
+                    for (j in maxOf(0, i - 8)..i) linear.isGuarded(names[j], globalNames[j])
+                    linear.list.add(Pair(names[i], globalNames[i]))
+                }
+            }
+            measure("hashed set, depth $depth") {
+                val set = RecursionGuardSet()
+                for (i in names.indices) {
+                    for (j in maxOf(0, i - 8)..i) set.isGuarded(names[j], globalNames[j])
+                    set.enter(names[i], globalNames[i])
+                }
+            }
+        }
+    }
+
+    fun `test deep call chain`() {
+        for (depth in listOf(50, 200)) {
+            myFixture.configureByText("calls$depth.lua", createCallChain(depth))
+            val call = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaCallExpr::class.java).last()
+            measure("infer call chain, depth $depth", times = 10, warmup = 2) {
+                SearchContext.invalidateCache(project)
+                SearchContext.inferIsolated(call)
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.tarantoollua.intellij.lua.ty.*
+
+/**
+ * Rendering of large unions and deeply nested generics,
+ * with [TyRenderer.SIMPLE] every time and with the cached [ITy.displayName].
+ */
+class RenderBenchmark : LuaBenchmarkBase() {
+
+    private fun bigUnion(size: Int): ITy {
+        return TyUnion.union((0 until size).map { TySerializedClass("Class$it") })
+    }
+
+    private fun bigGeneric(depth: Int): ITy {
+        var ty: ITy = Ty.STRING
+        repeat(depth) {
+            ty = TySerializedGeneric(arrayOf(Ty.NUMBER, ty, TyArray(ty)), TySerializedClass("Map"))
+        }
+        return ty
+    }
+
+    fun `test render large unions and generics`() {
+        val unions = (0 until 200).map { bigUnion(200) }
+        val generics = (0 until 200).map { bigGeneric(8) }
+        report("length of a union", unions.first().displayName.length)
+        report("length of a generic", generics.first().displayName.length)
+
+        measure("render 200 unions of 200 classes") {
+            unions.forEach { TyRenderer.SIMPLE.render(it) }
+        }
+        measure("displayName of 200 unions of 200 classes") {
+            unions.forEach { it.displayName }
+        }
+        measure("render 200 generics of depth 8") {
+            generics.forEach { TyRenderer.SIMPLE.render(it) }
+        }
+        measure("displayName of 200 generics of depth 8") {
+            generics.forEach { it.displayName }
+        }
+    }
+}
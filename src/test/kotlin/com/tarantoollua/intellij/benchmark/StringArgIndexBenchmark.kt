@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.PsiFileFactory
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.psi.*
+import com.tarantoollua.intellij.lua.stubs.index.LuaStringArgIndex
+import java.io.File
+
+/**
+ * Indexing throughput of [LuaStringArgIndex] over the Tarantool library:
+ * the lexer based indexer, and the indexer before it that parsed the file and walked the calls.
+ */
+class StringArgIndexBenchmark : LuaBenchmarkBase() {
+
+    // the indexer before, collecting the arguments from the PSI
+    private fun collectFromPsi(text: String): Int {
+        val file = PsiFileFactory.getInstance(project).createFileFromText("test.lua", LuaLanguage.INSTANCE, text)
+        var count = 0
+        PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).forEach { call ->
+            call.argList.forEach { arg ->
+                if (call.expr.name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String && arg.stringValue.length in 2..1024)
+                    count++
+            }
+        }
+        return count
+    }
+
+    private fun throughput(name: String, bytes: Long, times: Int, action: () -> Unit) {
+        val start = System.nanoTime()
+        repeat(times) { action() }
+        val seconds = (System.nanoTime() - start) / 1_000_000_000.0
+        report(name, String.format("%.1f MB/s", bytes * times / seconds / (1024 * 1024)))
+    }
+
+    fun `test index std library`() {
+        val dir = File("src/main/resources/std/Tarantool")
+        val texts = dir.walkTopDown().filter { it.extension == "lua" }.map { it.readText() }.toList()
+        val bytes = texts.sumOf { it.length.toLong() }
+        val maps = texts.map { LuaStringArgIndex.collect(it) }
+
+        report("files", texts.size)
+        report("chars", bytes)
+        report("keys", maps.sumOf { it.size })
+        report("arguments, lexer", maps.sumOf { map -> map.values.sumOf { it.args.size } })
+        report("arguments, psi", texts.sumOf { collectFromPsi(it) })
+
+        measure("lexer indexer") {
+            texts.forEach { LuaStringArgIndex.collect(it) }
+        }
+        measure("psi indexer") {
+            texts.forEach { collectFromPsi(it) }
+        }
+        throughput("lexer indexer throughput", bytes, 20) {
+            texts.forEach { LuaStringArgIndex.collect(it) }
+        }
+        throughput("psi indexer throughput", bytes, 20) {
+            texts.forEach { collectFromPsi(it) }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.stubs.Stub
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.lang.LuaParserDefinition
+import com.tarantoollua.intellij.lua.psi.LuaIndexExpr
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import com.tarantoollua.intellij.lua.psi.assignStat
+import com.tarantoollua.intellij.lua.stubs.LuaStubInference
+
+/**
+ * Stub building of the Tarantool library: the whole stub trees,
+ * and the syntactic inference of the owners of the assigned index expressions alone.
+ * The files are parsed before measuring, only the stub pass is timed.
+ */
+class StubIndexingBenchmark : LuaBenchmarkBase() {
+
+    private fun allStubs(stub: Stub): List<Stub> {
+        return listOf(stub) + stub.childrenStubs.flatMap { allStubs(it) }
+    }
+
+    fun `test build stubs of std library`() {
+        val files = addStdLibrary().filterIsInstance<LuaPsiFile>()
+        // load the trees, parsing is not part of the stub pass
+        files.forEach { it.node }
+        val exprs = files.flatMap { file ->
+            PsiTreeUtil.findChildrenOfType(file, LuaIndexExpr::class.java).filter { it.assignStat != null }
+        }
+        val builder = LuaParserDefinition.FILE.builder
+
+        report("files", files.size)
+        report("bytes", files.sumOf { it.textLength })
+        report("stubs", files.sumOf { allStubs((it as PsiFileImpl).calcStubTree().root).size })
+        report("assigned index expressions", exprs.size)
+
+        measure("build stub trees") {
+            files.forEach { builder.buildStubTree(it) }
+        }
+        measure("infer owners of assigned index expressions") {
+            exprs.forEach { LuaStubInference.inferParent(it) }
+        }
+        measure("infer exported classes") {
+            files.forEach { LuaStubInference.inferExportedClass(it) }
+        }
+    }
+}
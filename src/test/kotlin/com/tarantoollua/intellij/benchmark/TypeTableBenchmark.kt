@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.benchmark
+
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.stubs.IStubElementType
+import com.intellij.psi.stubs.SerializationManagerEx
+import com.intellij.psi.stubs.Stub
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.stubs.StubOutputStream
+import com.tarantoollua.intellij.lua.stubs.LuaFileStub
+import com.tarantoollua.intellij.lua.stubs.LuaStubTypeTable
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+/**
+ * Stub sizes of the Tarantool library with the types written inline and with the type table,
+ * and the time to deserialize the stubs of the whole library.
+ */
+class TypeTableBenchmark : LuaBenchmarkBase() {
+
+    private fun allStubs(stub: Stub): List<Stub> {
+        return listOf(stub) + stub.childrenStubs.flatMap { allStubs(it) }
+    }
+
+    /**
+     * bytes written by the child stubs of [file] and by [table], the types are written inline if [table] is null
+     */
+    private fun serializedSize(file: LuaFileStub, table: LuaStubTypeTable?): Int {
+        val out = ByteArrayOutputStream()
+        val stream = StubOutputStream(out, LuaStubTypeTable.LocalNames())
+        file.typeTable = table
+        LuaStubTypeTable.serialize(table, stream)
+        allStubs(file).drop(1).forEach {
+            @Suppress("UNCHECKED_CAST")
+            val type = (it as StubElement<*>).stubType as IStubElementType<StubElement<*>, *>
+            type.serialize(it, stream)
+        }
+        return out.size()
+    }
+
+    fun `test std library`() {
+        val stubs = addStdLibrary().map { (it as PsiFileImpl).calcStubTree().root as LuaFileStub }
+
+        val inlineSize = stubs.sumOf { serializedSize(it, null) }
+        val tables = stubs.map { LuaStubTypeTable.create(it) }
+        val tableSize = stubs.zip(tables).sumOf { (stub, table) -> serializedSize(stub, table) }
+        report("files", stubs.size)
+        report("stubs", stubs.sumOf { allStubs(it).size })
+        report("types in tables", tables.sumOf { it.size })
+        report("bytes, inline types", inlineSize)
+        report("bytes, type table", tableSize)
+        report("saved", String.format("%.1f %%", 100.0 * (inlineSize - tableSize) / inlineSize))
+
+        val manager = SerializationManagerEx.getInstanceEx()
+        val serialized = stubs.map {
+            val out = ByteArrayOutputStream()
+            manager.serialize(it, out)
+            out.toByteArray()
+        }
+        report("bytes, serialized files", serialized.sumOf { it.size })
+        measure("deserialize std library") {
+            serialized.forEach { manager.deserialize(ByteArrayInputStream(it)) }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.generic
+
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaCallExpr
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.lua.ty.ITyClass
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class SubstitutionCacheTest : LuaTestBase() {
+
+    private fun inferArgs(): List<ITy> {
+        val call = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaCallExpr::class.java)
+                .last { (it.expr as? LuaNameExpr)?.name == "print" }
+        return call.argList.map { SearchContext.inferIsolated(it) }
+    }
+
+    fun `test same signature with different arguments`() {
+        myFixture.configureByText("generic.lua", """
+            ---@generic T
+            ---@param p T
+            ---@return T
+            local function id(p) return p end
+
+            local s1 = id("str")
+            local n1 = id(1)
+            local s2 = id("other")
+            local n2 = id(2)
+            print(s1, n1, s2, n2)
+        """.trimIndent())
+        assertEquals(listOf(Ty.STRING, Ty.NUMBER, Ty.STRING, Ty.NUMBER), inferArgs())
+    }
+
+    fun `test lambdas that only differ in return type`() {
+        myFixture.configureByText("lambda.lua", """
+            ---@generic T
+            ---@param p T
+            ---@return T
+            local function id(p) return p end
+
+            local f1 = id(function() return "str" end)
+            local f2 = id(function() return 1 end)
+            print(f1(), f2())
+        """.trimIndent())
+        assertEquals(listOf(Ty.STRING, Ty.NUMBER), inferArgs())
+    }
+
+    fun `test same signature with different self`() {
+        myFixture.configureByText("self.lua", """
+            ---@class A
+            local A = {}
+
+            ---@return self
+            function A:create() end
+
+            ---@class B : A
+            local B = {}
+
+            local a = A:create()
+            local b = B:create()
+            local a2 = A:create()
+            print(a, b, a2)
+        """.trimIndent())
+        val names = inferArgs().map { (it as ITyClass).className }
+        assertEquals(listOf("A", "B", "A"), names)
+    }
+}
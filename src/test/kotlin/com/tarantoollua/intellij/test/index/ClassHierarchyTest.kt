@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.tarantoollua.intellij.lua.psi.search.LuaClassHierarchy
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class ClassHierarchyTest : LuaTestBase() {
+
+    fun `test ancestors`() {
+        myFixture.configureByText("test.lua", """
+            ---@class A : table
+            ---@class B : A
+            ---@class C : B
+            ---@class D
+        """)
+        val hierarchy = LuaClassHierarchy.getInstance(project)
+        assertEquals(setOf("B", "A"), hierarchy.getAncestors("C"))
+        assertEquals(emptySet<String>(), hierarchy.getAncestors("D"))
+        assertTrue(hierarchy.isSubClassOf("C", "A"))
+        assertFalse(hierarchy.isSubClassOf("A", "C"))
+
+        val context = SearchContext.get(project)
+        assertTrue(Ty.create("C").subTypeOf(Ty.create("A"), context, true))
+        assertFalse(Ty.create("A").subTypeOf(Ty.create("C"), context, true))
+        assertFalse(Ty.create("D").subTypeOf(Ty.create("A"), context, true))
+    }
+
+    fun `test cycles`() {
+        myFixture.configureByText("test.lua", """
+            ---@class A : C
+            ---@class B : A
+            ---@class C : B
+            ---@class D : C
+        """)
+        val hierarchy = LuaClassHierarchy.getInstance(project)
+        assertTrue(hierarchy.isCyclic("A"))
+        assertFalse(hierarchy.isCyclic("D"))
+        assertEquals(setOf("A", "B", "C"), hierarchy.getAncestors("D"))
+    }
+
+    private fun edit(file: PsiFile, text: String) {
+        val document = PsiDocumentManager.getInstance(project).getDocument(file)!!
+        WriteCommandAction.runWriteCommandAction(project) {
+            document.insertString(document.textLength, text)
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+    }
+
+    fun `test only changed files are read again`() {
+        val a = myFixture.addFileToProject("a.lua", """
+            ---@class A
+            ---@class B : A
+        """.trimIndent())
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val hierarchy = LuaClassHierarchy.getInstance(project)
+        assertEquals(setOf("A"), hierarchy.getAncestors("B"))
+        val version = hierarchy.version
+
+        // no declaration changed, the ancestors computed so far are kept
+        edit(other, "local y = 2\n")
+        assertEquals(version, hierarchy.version)
+
+        edit(other, "---@class C : B\nlocal c = {}\n")
+        assertTrue(hierarchy.version > version)
+        assertEquals(setOf("B", "A"), hierarchy.getAncestors("C"))
+
+        edit(a, "---@class A : C\nlocal a = {}\n")
+        assertTrue(hierarchy.isCyclic("A"))
+    }
+}
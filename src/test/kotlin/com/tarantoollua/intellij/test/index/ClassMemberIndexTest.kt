@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.util.Processor
+import com.tarantoollua.intellij.lua.psi.LuaClassMember
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class ClassMemberIndexTest : LuaTestBase() {
+
+    // "Aa" and "BB" have the same hash code, so did "Aa*x" and "BB*x" as int keys
+    private val code = """
+        ---@class Aa
+        ---@field x number
+        local a = {}
+
+        ---@class BB
+        ---@field x string
+        ---@field y string
+        local b = {}
+    """
+
+    fun `test no false positives`() {
+        myFixture.configureByText("test.lua", code)
+        val context = SearchContext.get(project)
+        val byHash = "Aa*x".hashCode() == "BB*x".hashCode()
+        assertTrue(byHash)
+
+        val members = mutableListOf<LuaClassMember>()
+        LuaClassMemberIndex.process("Aa", "x", context, Processor {
+            members.add(it)
+            true
+        }, false)
+        assertEquals(1, members.size)
+    }
+
+    fun `test members of class`() {
+        myFixture.configureByText("test.lua", code)
+        val context = SearchContext.get(project)
+        val names = LuaClassMemberIndex.getMembers("BB", context).mapNotNull { it.name }
+        assertEquals(setOf("x", "y"), names.toSet())
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.LuaClassRegistry
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.lua.ty.TySerializedClass
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class ClassRegistryTest : LuaTestBase() {
+
+    fun `test lookup once per name`() {
+        myFixture.configureByText("test.lua", """
+            ---@class A
+            ---@class B : A
+        """)
+        val registry = LuaClassRegistry.getInstance(project)
+        val context = SearchContext.get(project)
+        val info = registry.getClass("B", context)
+        assertNotNull(info)
+        assertEquals("A", info!!.superClassName)
+        assertSame(info, registry.getClass("B", context))
+        assertNull(registry.getClass("C", context))
+
+        // serialized types of the same class share the entry
+        val ty = TySerializedClass("B")
+        assertEquals(Ty.create("A"), ty.getSuperClass(context))
+    }
+
+    fun `test entries dropped after edit`() {
+        myFixture.configureByText("test.lua", """
+            ---@class A
+            ---@class B : A
+            <caret>
+        """.trimIndent())
+        val registry = LuaClassRegistry.getInstance(project)
+        val before = registry.getClass("B", SearchContext.get(project))
+        assertNull(registry.getClass("C", SearchContext.get(project)))
+
+        myFixture.type("---@class C : B\n")
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+
+        val context = SearchContext.get(project)
+        assertNotSame(before, registry.getClass("B", context))
+        assertEquals("B", registry.getClass("C", context)?.superClassName)
+    }
+
+    fun `test entries of unchanged files kept`() {
+        myFixture.addFileToProject("a.lua", """
+            ---@class A
+            ---@class B : A
+        """.trimIndent())
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val registry = LuaClassRegistry.getInstance(project)
+        val before = registry.getClass("B", SearchContext.get(project))
+        assertNotNull(before)
+        assertNull(registry.getClass("C", SearchContext.get(project)))
+
+        val document = PsiDocumentManager.getInstance(project).getDocument(other)!!
+        WriteCommandAction.runWriteCommandAction(project) {
+            document.insertString(document.textLength, "---@class C : B\nlocal c = {}\n")
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+
+        val context = SearchContext.get(project)
+        assertSame(before, registry.getClass("B", context))
+        // a name that was not declared may be declared by any file
+        assertEquals("B", registry.getClass("C", context)?.superClassName)
+    }
+}
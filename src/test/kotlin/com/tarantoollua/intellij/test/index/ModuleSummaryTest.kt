@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.stubs.StubUpdatingIndex
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.indexing.FileBasedIndex
+import com.tarantoollua.intellij.lua.psi.LuaCallExpr
+import com.tarantoollua.intellij.lua.psi.LuaExpr
+import com.tarantoollua.intellij.lua.psi.LuaPsiFile
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.LuaModuleSummaryCache
+import com.tarantoollua.intellij.lua.ty.TyUnknown
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class ModuleSummaryTest : LuaTestBase() {
+
+    private fun inferRequires(file: PsiFile) {
+        PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).forEach { SearchContext.inferIsolated(it) }
+    }
+
+    private fun edit(file: PsiFile, text: String) {
+        val document = PsiDocumentManager.getInstance(project).getDocument(file)!!
+        WriteCommandAction.runWriteCommandAction(project) {
+            document.insertString(document.textLength, text)
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+    }
+
+    fun `test only dependent summaries are dropped`() {
+        val a = myFixture.addFileToProject("a.lua", """
+            local M = {}
+            function M.f() end
+            return M
+        """.trimIndent()) as LuaPsiFile
+        val b = myFixture.addFileToProject("b.lua", "return require('a')") as LuaPsiFile
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val main = myFixture.addFileToProject("main.lua", "local b = require('b')\n")
+
+        val cache = LuaModuleSummaryCache.getInstance(project)
+        inferRequires(main)
+        val summaryA = cache.getSummary(a)
+        val summaryB = cache.getSummary(b)
+        assertNotNull(summaryA)
+        assertNotNull(summaryB)
+        assertFalse(summaryB!!.type is TyUnknown)
+        assertTrue(summaryB.dependencies.readFiles.contains(a.virtualFile))
+
+        edit(other, "local y = 2\n")
+        assertSame(summaryA, cache.getSummary(a))
+        assertSame(summaryB, cache.getSummary(b))
+
+        edit(a, "local z = 3\n")
+        assertNull(cache.getSummary(a))
+        assertNull(cache.getSummary(b))
+    }
+
+    fun `test summary of a global kept when another file adds members`() {
+        val a = myFixture.addFileToProject("a.lua", """
+            Foo = {}
+            return Foo
+        """.trimIndent()) as LuaPsiFile
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val main = myFixture.addFileToProject("main.lua", "local a = require('a')\n")
+
+        val cache = LuaModuleSummaryCache.getInstance(project)
+        inferRequires(main)
+        val summary = cache.getSummary(a)
+        assertNotNull(summary)
+
+        // members of the global are looked up through its type, not stored in the summary
+        edit(other, "function Foo.x() end\n")
+        FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, project, GlobalSearchScope.allScope(project))
+        assertSame(summary, cache.getSummary(a))
+    }
+
+    fun `test summary dropped when a member it looked up is added`() {
+        myFixture.addFileToProject("g.lua", "Foo = {}\n")
+        val a = myFixture.addFileToProject("a.lua", "return Foo.x\n") as LuaPsiFile
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val main = myFixture.addFileToProject("main.lua", "local a = require('a')\n")
+
+        val cache = LuaModuleSummaryCache.getInstance(project)
+        inferRequires(main)
+        val summary = cache.getSummary(a)
+        assertNotNull(summary)
+
+        edit(other, "local y = 2\n")
+        FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, project, GlobalSearchScope.allScope(project))
+        assertSame(summary, cache.getSummary(a))
+
+        edit(other, "function Foo.x() end\n")
+        FileBasedIndex.getInstance().ensureUpToDate(StubUpdatingIndex.INDEX_ID, project, GlobalSearchScope.allScope(project))
+        assertNull(cache.getSummary(a))
+    }
+
+    fun `test cached types read while computing a summary are dependencies`() {
+        val a = myFixture.addFileToProject("a.lua", """
+            local M = {}
+            function M.f() end
+            return M
+        """.trimIndent()) as LuaPsiFile
+        val main = myFixture.addFileToProject("main.lua", "local a = require('a')\n")
+
+        // infer the module first, the summary then reads its types from the cache
+        PsiTreeUtil.findChildrenOfType(a, LuaExpr::class.java).forEach { SearchContext.inferIsolated(it) }
+        val cache = LuaModuleSummaryCache.getInstance(project)
+        inferRequires(main)
+        val summary = cache.getSummary(a)
+        assertNotNull(summary)
+        assertTrue(summary!!.dependencies.readFiles.contains(a.virtualFile))
+
+        edit(a, "local z = 3\n")
+        assertNull(cache.getSummary(a))
+    }
+
+    fun `test many files requiring the same modules`() {
+        val count = 50
+        val mods = (0 until count).map {
+            myFixture.addFileToProject("mod$it.lua", """
+                local M = {}
+                function M.f$it() end
+                return M
+            """.trimIndent()) as LuaPsiFile
+        }
+        val requires = (0 until count).joinToString("\n") { "local m$it = require('mod$it')" }
+        val users = (0 until 5).map { myFixture.addFileToProject("user$it.lua", requires) }
+        val scratch = myFixture.addFileToProject("scratch.lua", "")
+
+        val cache = LuaModuleSummaryCache.getInstance(project)
+        users.forEach { inferRequires(it) }
+        val summary = cache.getSummary(mods[0])
+        assertNotNull(summary)
+
+        // editing an unrelated file drops the inference cache but not the summaries
+        edit(scratch, "local x = 1\n")
+        users.forEach { inferRequires(it) }
+        assertSame(summary, cache.getSummary(mods[0]))
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.openapi.fileEditor.FileDocumentManager
+import com.intellij.psi.PsiManager
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.tarantoollua.intellij.lua.project.LuaSettings
+import com.tarantoollua.intellij.lua.psi.LuaClassMember
+import com.tarantoollua.intellij.lua.psi.search.LuaShortNamesManager
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.index.LuaClassIndex
+import com.tarantoollua.intellij.lua.stubs.index.LuaOutlineIndex
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class OutlineIndexTest : LuaTestBase() {
+
+    private val source = """
+        ---@module big
+
+        ---@class Schema : Base
+        ---@field public name string
+        ---@field id number
+        local Schema = {}
+
+        ---@class Global
+        Registry = {}
+
+        count = 1
+        local hidden = 2
+        hidden = 3
+
+        function Schema.create() end
+        function Schema:check(a) local inner = 1 end
+        function Registry.add() end
+        function Registry.sub.deep() end
+        function helper() nested = 1 end
+        local function private() end
+        local t = { field = 1 }
+        for i = 1, 2 do loop = i end
+        if x then branch = 1 end
+    """.trimIndent()
+
+    fun `test top level outline from the lexer`() {
+        val outline = LuaOutlineIndex.collect(source)
+        assertEquals(setOf("c:Schema", "c:Global"), outline.keys.filter { it.startsWith("c:") }.toSet())
+        assertEquals(listOf(LuaOutlineIndex.Entry(source.indexOf("Schema : Base"), "Schema", 0)), outline[LuaOutlineIndex.getClassKey("Schema")])
+        assertEquals(LuaClassMember.WORTH_DOC, outline.getValue(LuaOutlineIndex.getMemberKey("Schema", "name")).single().worth)
+        assertEquals(LuaClassMember.WORTH_METHOD_DEF, outline.getValue(LuaOutlineIndex.getMemberKey("big", "helper")).single().worth)
+        assertEquals(LuaClassMember.WORTH_ASSIGN, outline.getValue(LuaOutlineIndex.getMemberKey("big", "count")).single().worth)
+        assertEquals(setOf(
+                "m:Schema*name", "m:Schema*id", "m:Schema*create", "m:Schema*check",
+                "m:big*Registry", "m:big*count", "m:big*helper",
+                "m:\$Registry*add", "m:Global*add", "m:\$Registry.sub*deep"),
+                outline.keys.filter { it.startsWith("m:") && it.contains('*') }.toSet())
+    }
+
+    fun `test too large files are found through the outline`() {
+        val settings = LuaSettings.instance
+        val threshold = settings.tooLargerFileThreshold
+        settings.tooLargerFileThreshold = 1
+        try {
+            val text = StringBuilder(source)
+            while (text.length < 2048)
+                text.append("\n-- padding")
+            myFixture.addFileToProject("big.lua", text.toString())
+            val context = SearchContext.get(project)
+            val manager = LuaShortNamesManager.getInstance(project)
+
+            // no child stubs
+            assertNull(LuaClassIndex.find("Schema", context))
+            assertNotNull(manager.findClass("Schema", context))
+            assertEquals(setOf("name", "id", "create", "check"), manager.getClassMembers("Schema", context).map { it.name }.toSet())
+            assertEquals(setOf("Registry", "count", "helper"), manager.getClassMembers("big", context).map { it.name }.toSet())
+            assertEquals(setOf("add"), manager.getClassMembers("\$Registry", context).map { it.name }.toSet())
+        } finally {
+            settings.tooLargerFileThreshold = threshold
+        }
+    }
+
+    fun `test outline entries do not parse the file`() {
+        val settings = LuaSettings.instance
+        val threshold = settings.tooLargerFileThreshold
+        settings.tooLargerFileThreshold = 1
+        try {
+            val text = StringBuilder(source)
+            while (text.length < 2048)
+                text.append("\n-- padding")
+            val file = myFixture.addFileToProject("big.lua", text.toString()).virtualFile
+            val psiManager = PsiManager.getInstance(project)
+            psiManager.dropPsiCaches()
+            val context = SearchContext.get(project)
+            val manager = LuaShortNamesManager.getInstance(project)
+
+            val members = manager.getClassMembers("Schema", context).associateBy { it.name }
+            assertEquals(LuaClassMember.WORTH_DOC, members.getValue("name").worth)
+            assertEquals(LuaClassMember.WORTH_METHOD_DEF, members.getValue("check").worth)
+            assertEquals(LuaClassMember.WORTH_ASSIGN, manager.getClassMembers("big", context).first { it.name == "count" }.worth)
+            assertEquals("Schema", manager.findClass("Schema", context)?.name)
+            assertNull((psiManager.findFile(file) as PsiFileImpl).treeElement)
+            // names and kinds come from the index, the text is not loaded either
+            assertNull(FileDocumentManager.getInstance().getCachedDocument(file))
+
+            // the type is read from the PSI
+            assertEquals(Ty.NUMBER, members.getValue("id").guessType(context))
+            assertEquals("Base", manager.findClass("Schema", context)?.type?.superClassName)
+        } finally {
+            settings.tooLargerFileThreshold = threshold
+        }
+    }
+
+    fun `test outline of a large file`() {
+        val text = StringBuilder()
+        for (i in 0 until 2000) {
+            text.append("---@class C$i\n---@field f$i number\nC$i = {}\n")
+            text.append("function C$i.get(a) if a then return { value = a } end return nil end\n")
+        }
+        val outline = LuaOutlineIndex.collect(text)
+
+        assertEquals(2000, outline.keys.count { it.startsWith("c:") })
+        assertEquals(2000, outline.keys.count { it.startsWith("m:") && it.endsWith("*get") })
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.openapi.application.WriteAction
+import com.intellij.psi.PsiFile
+import com.intellij.psi.search.FilenameIndex
+import com.intellij.psi.search.ProjectAndLibrariesScope
+import com.tarantoollua.intellij.lua.ext.LuaFileFuzzyResolver
+import com.tarantoollua.intellij.lua.psi.LuaFileManager
+import com.tarantoollua.intellij.lua.stubs.index.LuaPathSuffixIndex
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class PathSuffixIndexTest : LuaTestBase() {
+
+    private val scope get() = ProjectAndLibrariesScope(project)
+
+    fun `test files ranked by path length`() {
+        val short = myFixture.addFileToProject("b/c/init.lua", "")
+        val long = myFixture.addFileToProject("lib/x/b/c/init.lua", "")
+        myFixture.addFileToProject("lib/xb/c/init2.lua", "")
+        val other = myFixture.addFileToProject("lib/abc/init.lua", "")
+
+        assertEquals(listOf(short.virtualFile, long.virtualFile), LuaPathSuffixIndex.findFiles(project, "c/init.lua", scope))
+        assertEquals(listOf(long.virtualFile), LuaPathSuffixIndex.findFiles(project, "x/b/c/init.lua", scope))
+        // segments are matched whole, abc/init.lua does not end with the segment c
+        assertEquals(3, LuaPathSuffixIndex.findFiles(project, "init.lua", scope).size)
+        assertFalse(other.virtualFile in LuaPathSuffixIndex.findFiles(project, "c/init.lua", scope))
+        // cut by a lua traceback
+        assertEquals(listOf(long.virtualFile), LuaPathSuffixIndex.findFiles(project, "...ib/x/b/c/init.lua", scope))
+
+        assertEquals(short.virtualFile, LuaFileFuzzyResolver().find(project, "c/init", LuaFileManager.getInstance().extensions))
+    }
+
+    fun `test deep paths`() {
+        val deep = myFixture.addFileToProject("a/b/c/d/e/f/g/h/i/j/k.lua", "")
+        assertEquals(listOf(deep.virtualFile), LuaPathSuffixIndex.findFiles(project, "b/c/d/e/f/g/h/i/j/k.lua", scope))
+        assertTrue(LuaPathSuffixIndex.findFiles(project, "x/c/d/e/f/g/h/i/j/k.lua", scope).isEmpty())
+    }
+
+    fun `test paths checked after a directory rename`() {
+        val file = myFixture.addFileToProject("old/x/init.lua", "")
+        assertEquals(listOf(file.virtualFile), LuaPathSuffixIndex.findFiles(project, "old/x/init.lua", scope))
+
+        WriteAction.runAndWait<Throwable> { file.virtualFile.parent.parent.rename(this, "new") }
+        assertTrue(LuaPathSuffixIndex.findFiles(project, "old/x/init.lua", scope).isEmpty())
+        assertEquals(listOf(file.virtualFile), LuaPathSuffixIndex.findFiles(project, "new/x/init.lua", scope))
+    }
+
+    fun `test same files as the file name index with common names`() {
+        val size = 300
+        for (i in 0 until size) {
+            myFixture.addFileToProject("rocks/rock$i/init.lua", "")
+            myFixture.addFileToProject("rocks/rock$i/config.lua", "")
+        }
+        val paths = (0 until size).map { "rock$it/init.lua" }
+
+        // the fuzzy resolver before, comparing the canonical path of every file with the name
+        fun findByName(shortUrl: String): PsiFile? {
+            var perfect: PsiFile? = null
+            var perfectMatch = Int.MAX_VALUE
+            for (file in FilenameIndex.getFilesByName(project, shortUrl.substringAfterLast('/'), scope)) {
+                val path = file.virtualFile.canonicalPath
+                if (path != null && perfectMatch > path.length && path.endsWith(shortUrl)) {
+                    perfect = file
+                    perfectMatch = path.length
+                }
+            }
+            return perfect
+        }
+
+        paths.forEach { assertEquals(findByName(it)?.virtualFile, LuaPathSuffixIndex.findFiles(project, it, scope).first()) }
+    }
+}
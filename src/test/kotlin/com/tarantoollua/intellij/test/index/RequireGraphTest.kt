@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.tarantoollua.intellij.lua.psi.search.LuaRequireGraph
+import com.tarantoollua.intellij.lua.stubs.index.LuaRequireIndex
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class RequireGraphTest : LuaTestBase() {
+
+    fun `test require calls from the lexer`() {
+        val paths = LuaRequireIndex.collect("""
+            local b = require "b"
+            local c = require('lib/c')
+            local d = require ( [[d]] ) -- require("in.comment")
+            local x = obj.require("not.a.module")
+            local y = require("e" .. suffix)
+            local z = require(name)
+        """.trimIndent())
+        assertEquals(setOf("b", "lib.c", "d"), paths.keys)
+    }
+
+    fun `test forward and reverse dependencies`() {
+        val b = myFixture.addFileToProject("b.lua", "return {}")
+        val c = myFixture.addFileToProject("c.lua", "local b = require('b')\nreturn {}")
+        val a = myFixture.addFileToProject("a.lua", "local b = require 'b'\nlocal c = require 'c'\nlocal m = require 'missing'")
+        val graph = LuaRequireGraph.getInstance(project)
+
+        assertEquals(setOf("b", "c", "missing"), graph.getRequiredPaths(a.virtualFile))
+        assertEquals(setOf(b, c), graph.getDependencies(a).toSet())
+        assertEquals(setOf(a, c), graph.getDependents(b).toSet())
+        assertEquals(setOf(a), graph.getTransitiveDependents(c).toSet())
+        assertTrue(graph.getDependents(a).isEmpty())
+
+        myFixture.addFileToProject("d.lua", "require 'a'")
+        assertEquals(setOf("a.lua", "c.lua", "d.lua"), graph.getTransitiveDependents(b).map { it.name }.toSet())
+    }
+
+    fun `test edges of an edited file`() {
+        val b = myFixture.addFileToProject("b.lua", "return {}")
+        val c = myFixture.addFileToProject("c.lua", "return {}")
+        val a = myFixture.configureByText("a.lua", "local b = require 'b'\n<caret>")
+        val graph = LuaRequireGraph.getInstance(project)
+        assertEquals(setOf(b), graph.getDependencies(a).toSet())
+
+        myFixture.type("local c = require 'c'\n")
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+        assertEquals(setOf("b", "c"), graph.getRequiredPaths(a.virtualFile))
+        assertEquals(setOf(b, c), graph.getDependencies(a).toSet())
+        assertEquals(setOf(a), graph.getDependents(c).toSet())
+    }
+
+    fun `test queries on many modules`() {
+        val size = 300
+        val files = mutableListOf<PsiFile>()
+        for (i in 0 until size) {
+            val sb = StringBuilder()
+            for (j in 1..5) sb.append("local m$j = require('mod${(i + j * 7) % size}')\n")
+            sb.append("return {}\n")
+            files.add(myFixture.addFileToProject("mod$i.lua", sb.toString()))
+        }
+        val graph = LuaRequireGraph.getInstance(project)
+
+        var edges = 0
+        files.forEach { edges += graph.getDependents(it).size + graph.getDependencies(it).size }
+        assertEquals(size * 5 * 2, edges)
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.index
+
+import com.intellij.psi.PsiFileFactory
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.io.DataInputOutputUtil
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.psi.*
+import com.tarantoollua.intellij.lua.stubs.index.LuaStringArgIndex
+import com.tarantoollua.intellij.lua.stubs.index.LuaStringArgIndex.LuaCallArg
+import com.tarantoollua.intellij.lua.stubs.index.LuaStringArgIndex.LuaCallOccurrence
+import com.tarantoollua.intellij.test.LuaTestBase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+class StringArgIndexTest : LuaTestBase() {
+
+    // the indexer before, collecting the arguments from the PSI
+    private fun collectFromPsi(text: String): Map<String, LuaCallOccurrence> {
+        val file = PsiFileFactory.getInstance(project).createFileFromText("test.lua", LuaLanguage.INSTANCE, text)
+        val map = mutableMapOf<String, LuaCallOccurrence>()
+        PsiTreeUtil.findChildrenOfType(file, LuaCallExpr::class.java).forEach { call ->
+            val isColon = call.isMethodColonCall
+            call.argList.forEachIndexed { index, arg ->
+                val name = call.expr.name
+                if (name != null && arg is LuaLiteralExpr && arg.kind == LuaLiteralKind.String) {
+                    val sv = arg.stringValue
+                    if (sv.length in 2..1024) {
+                        val occ = map.getOrPut(name) { LuaCallOccurrence(mutableListOf()) }
+                        occ.args.add(LuaCallArg(if (isColon) index + 1 else index, sv, arg.node.startOffset))
+                    }
+                }
+            }
+        }
+        return map
+    }
+
+    private fun sorted(map: Map<String, LuaCallOccurrence>): Map<String, List<LuaCallArg>> {
+        return map.mapValues { entry -> entry.value.args.sortedBy { it.offset } }
+    }
+
+    private val source = """
+        local function test(a, b) end
+        test("his1", 'his2')
+        test(1, "his3")
+        obj:method("m1", x)
+        obj.field.call "single"
+        obj:call [[long string]]
+        test(test("inner"), "outer")
+        test("a" .. "concat", ("paren"))
+        local t = { test = "not a call" }
+        function obj:def(p) end
+        -- test("in comment")
+        print(string.format("%s\n", 1))
+    """.trimIndent()
+
+    fun `test same arguments as the psi indexer`() {
+        val lexed = LuaStringArgIndex.collect(source)
+        assertEquals(sorted(collectFromPsi(source)), sorted(lexed))
+        assertEquals(listOf("his1", "his2", "his3", "inner", "outer"), lexed.getValue("test").args.map { it.argString }.sorted())
+        assertEquals(1, lexed.getValue("method").args.single().argIndex)
+        assertEquals(1, lexed.getValue("call").args.single { it.argString == "long string" }.argIndex)
+    }
+
+    fun `test externalizer round trip`() {
+        val externalizer = LuaStringArgIndex().valueExternalizer
+        val args = mutableListOf(LuaCallArg(0, "a".repeat(100_000), 10),
+                LuaCallArg(1, "中文", 100_020),
+                LuaCallArg(2, "ok", 100_040))
+        val bytes = ByteArrayOutputStream()
+        externalizer.save(DataOutputStream(bytes), LuaCallOccurrence(args))
+        val copy = externalizer.read(DataInputStream(ByteArrayInputStream(bytes.toByteArray())))
+        assertEquals(args, copy.args)
+        // sizes are varints
+        val small = ByteArrayOutputStream()
+        externalizer.save(DataOutputStream(small), LuaCallOccurrence(mutableListOf(LuaCallArg(0, "ok", 5))))
+        assertEquals(1 + 1 + 1 + 2 + 1, small.size())
+        assertEquals(1, ByteArrayOutputStream().also { DataInputOutputUtil.writeINT(DataOutputStream(it), 5) }.size())
+    }
+
+    fun `test same arguments on a large file`() {
+        val sb = StringBuilder()
+        while (sb.length < 256 * 1024) {
+            sb.append(source).append('\n')
+        }
+        val text = sb.toString()
+        assertEquals(sorted(collectFromPsi(text)), sorted(LuaStringArgIndex.collect(text)))
+    }
+}
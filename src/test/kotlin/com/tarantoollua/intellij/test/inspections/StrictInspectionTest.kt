@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.inspections
+
+import com.intellij.codeInspection.InspectionManager
+import com.intellij.codeInspection.LocalInspectionToolSession
+import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor
+import com.tarantoollua.intellij.lua.codeInsight.inspection.*
+import com.tarantoollua.intellij.lua.profiler.LuaInferProfiler
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class StrictInspectionTest : LuaTestBase() {
+
+    private fun inspections() = listOf(MatchFunctionSignatureInspection(),
+            AssignTypeInspection(),
+            ReturnTypeInspection(),
+            UndeclaredVariableInspection())
+
+    private fun createFiles(count: Int): List<PsiFile> {
+        myFixture.addFileToProject("lib.lua", """
+            ---@class Lib
+            Lib = {}
+
+            ---@param p1 number
+            ---@param p2 string
+            ---@return number
+            function Lib.call(p1, p2) return p1 end
+        """.trimIndent())
+        return (0 until count).map {
+            myFixture.addFileToProject("file$it.lua", """
+                local n = Lib.call(1, "a")
+                local s = Lib.call(1, 2)
+                Lib.call(n)
+                print(undeclared$it)
+            """.trimIndent())
+        }
+    }
+
+    /**
+     * problems found by [inspections] visiting [file] together
+     */
+    private fun inspect(file: PsiFile, inspections: List<StrictInspection>): List<String> {
+        val holder = ProblemsHolder(InspectionManager.getInstance(project), file, false)
+        val session = LocalInspectionToolSession(file, 0, file.textLength)
+        val visitors = inspections.map {
+            it.inspectionStarted(session, false)
+            it.buildVisitor(holder, false, session)
+        }
+        file.accept(object : PsiRecursiveElementWalkingVisitor() {
+            override fun visitElement(element: PsiElement) {
+                visitors.forEach { element.accept(it) }
+                super.visitElement(element)
+            }
+        })
+        inspections.forEach { it.inspectionFinished(session, holder) }
+        return holder.results.map { it.descriptionTemplate }
+    }
+
+    fun `test shared model finds the same problems as separate runs`() {
+        val files = createFiles(4)
+        files.forEach { file ->
+            // baseline: every inspection infers on its own, models and inference caches are dropped before each one
+            val expected = inspections().flatMap {
+                PsiManager.getInstance(project).dropPsiCaches()
+                inspect(file, listOf(it))
+            }
+            PsiManager.getInstance(project).dropPsiCaches()
+            val actual = inspect(file, inspections())
+            assertEquals(expected.sorted(), actual.sorted())
+            assertTrue(actual.any { it.startsWith("Type mismatch") })
+            assertTrue(actual.any { it.startsWith("Undeclared variable") })
+        }
+    }
+
+    fun `test return types are read from the model`() {
+        val file = myFixture.addFileToProject("ret.lua", """
+            ---@return string
+            local function f(a)
+                if a then return 1 end
+                return "a"
+            end
+        """.trimIndent())
+        val expected = inspect(file, listOf(ReturnTypeInspection()))
+        assertTrue(expected.any { it.startsWith("Type mismatch") })
+
+        LuaInferProfiler.enabled = true
+        try {
+            LuaInferProfiler.reset()
+            // nothing changed, the second run reuses the model of the file
+            assertEquals(expected, inspect(file, listOf(ReturnTypeInspection())))
+            val rows = LuaInferProfiler.snapshot().rows.filter { it.category == LuaInferProfiler.Category.SEMANTIC_MODEL.displayName }
+            assertEquals(2L, rows.sumOf { it.hits })
+            assertEquals(0L, rows.sumOf { it.misses })
+        } finally {
+            LuaInferProfiler.enabled = false
+            LuaInferProfiler.reset()
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.psi
+
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiFileFactory
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.lang.LuaLanguage
+import com.tarantoollua.intellij.lua.psi.LuaDeclarationTree
+import com.tarantoollua.intellij.lua.psi.LuaIndexExpr
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.psi.LuaParamNameDef
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class DeclarationTreeTest : LuaTestBase() {
+
+    private fun createLargeFile(functions: Int): String {
+        val sb = StringBuilder()
+        sb.append("local M = {}\n")
+        for (i in 0 until functions) {
+            sb.append("function M.fn$i(a, b)\n")
+            sb.append("    local c = a + b\n")
+            sb.append("    return c\n")
+            sb.append("end\n")
+        }
+        sb.append("function M.last(p)\n    <caret>\n    return p\nend\nreturn M\n")
+        return sb.toString()
+    }
+
+    private fun findLastParamRef(): LuaNameExpr {
+        val file = myFixture.file
+        return PsiTreeUtil.findChildrenOfType(file, LuaNameExpr::class.java).last { it.name == "p" }
+    }
+
+    // offsets of the declarations found for the names of the file, by the tree of the file and by a tree built from scratch
+    private fun assertSameAsRebuilt() {
+        val file = myFixture.file
+        val rebuilt = PsiFileFactory.getInstance(project).createFileFromText("copy.lua", LuaLanguage.INSTANCE, file.text)
+        fun offsets(file: PsiFile): List<Int?> {
+            val exprs = PsiTreeUtil.findChildrenOfAnyType(file, LuaNameExpr::class.java, LuaIndexExpr::class.java)
+            val tree = LuaDeclarationTree.get(file)
+            return exprs.map { tree.find(it)?.psi?.textOffset }
+        }
+        assertEquals(offsets(rebuilt), offsets(file))
+    }
+
+    fun `test typing in large file`() {
+        myFixture.configureByText("large.lua", createLargeFile(200))
+        val documentManager = PsiDocumentManager.getInstance(project)
+        var tree = LuaDeclarationTree.get(myFixture.file)
+
+        for (i in 0 until 5) {
+            myFixture.type("p = p\n")
+            documentManager.commitAllDocuments()
+            val ref = findLastParamRef()
+            val updated = LuaDeclarationTree.get(myFixture.file)
+            // published as a new tree, the outdated one is not modified
+            assertNotSame(tree, updated)
+            assertTrue(updated.find(ref)?.psi is LuaParamNameDef)
+            tree = updated
+        }
+        assertSameAsRebuilt()
+    }
+
+    fun `test edit of a scope setting outer fields`() {
+        myFixture.configureByText("test.lua", """
+            local M = {}
+            function M.a()
+                M.x = 1<caret>
+            end
+            function M.b()
+                M.x = 2
+                M.y = M.x
+            end
+        """.trimIndent())
+        LuaDeclarationTree.get(myFixture.file)
+        myFixture.type("0")
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+        assertSameAsRebuilt()
+    }
+
+    fun `test declarations after edit`() {
+        myFixture.configureByText("test.lua", """
+            local a = 1
+            local function f(x)
+                <caret>
+            end
+            local b = a
+        """.trimIndent())
+        LuaDeclarationTree.get(myFixture.file)
+        myFixture.type("local y = x\n    print(y)")
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+
+        val tree = LuaDeclarationTree.get(myFixture.file)
+        val names = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameExpr::class.java)
+        assertEquals("y", tree.find(names.first { it.name == "y" })?.name)
+        assertEquals("x", tree.find(names.first { it.name == "x" })?.name)
+        assertEquals("a", tree.find(names.first { it.name == "a" })?.name)
+    }
+
+    fun `test edit in the value of a local`() {
+        myFixture.configureByText("test.lua", """
+            local a = 1
+            local f = function(x)
+                local y = x<caret>
+            end
+            local b = f
+            print(a, b)
+        """.trimIndent())
+        val old = LuaDeclarationTree.get(myFixture.file)
+        myFixture.type(" + a")
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+        assertNotSame(old, LuaDeclarationTree.get(myFixture.file))
+        assertSameAsRebuilt()
+    }
+
+    fun `test scopes in the left side of an assignment`() {
+        myFixture.configureByText("test.lua", """
+            local t = {}
+            t[function() local z = 1 end].x, b = 1, 2
+            print(b)
+        """.trimIndent())
+        val file = myFixture.file
+        val ref = PsiTreeUtil.findChildrenOfType(file, LuaNameExpr::class.java).last { it.name == "b" }
+        val names = mutableListOf<String>()
+        LuaDeclarationTree.get(file).walkUp(ref) {
+            names.add(it.name)
+            true
+        }
+        // the closure is added after `b` but sorted before it
+        assertEquals(listOf("b", "t"), names)
+        assertEquals("b", LuaDeclarationTree.get(file).find(ref)?.name)
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.psi
+
+import com.intellij.openapi.application.WriteAction
+import com.tarantoollua.intellij.lua.ext.ILuaFileResolver
+import com.tarantoollua.intellij.lua.psi.LuaFileManager
+import com.tarantoollua.intellij.lua.psi.LuaFileUtil
+import com.tarantoollua.intellij.lua.psi.resolveRequireFile
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class FileResolveCacheTest : LuaTestBase() {
+
+    fun `test invalidated by file events`() {
+        val util = myFixture.addFileToProject("lib/util.lua", "return {}")
+        assertEquals(util, resolveRequireFile("lib.util", project))
+        assertNull(resolveRequireFile("lib.missing", project))
+        // the file not found is remembered until a file is created
+        assertNull(resolveRequireFile("lib.missing", project))
+
+        val missing = myFixture.addFileToProject("lib/missing.lua", "return {}")
+        assertEquals(missing, resolveRequireFile("lib.missing", project))
+
+        WriteAction.runAndWait<Throwable> { util.virtualFile.rename(this, "renamed.lua") }
+        assertNull(resolveRequireFile("lib.util", project))
+        assertEquals(util, resolveRequireFile("lib.renamed", project))
+
+        WriteAction.runAndWait<Throwable> { missing.virtualFile.delete(this) }
+        assertNull(resolveRequireFile("lib.missing", project))
+    }
+
+    fun `test same files as the resolver`() {
+        val size = 100
+        for (i in 0 until size) {
+            myFixture.addFileToProject("pkg$i/mod$i.lua", "return {}")
+        }
+        // half of the paths do not resolve
+        val paths = (0 until size * 2).map { "pkg${it % size}/mod$it" }
+        val extensions = LuaFileManager.getInstance().extensions
+
+        repeat(2) {
+            paths.forEach { assertEquals(ILuaFileResolver.findLuaFile(project, it, extensions), LuaFileUtil.findFile(project, it)) }
+        }
+        assertEquals(size, paths.count { LuaFileUtil.findFile(project, it) != null })
+    }
+
+    fun `test files found after a lua file is added among other files`() {
+        assertNull(resolveRequireFile("lib.late", project))
+        // not a lua file, the cache is kept
+        myFixture.addFileToProject("lib/late.txt", "")
+        assertNull(resolveRequireFile("lib.late", project))
+
+        val late = myFixture.addFileToProject("lib/late.lua", "return {}")
+        assertEquals(late, resolveRequireFile("lib.late", project))
+    }
+}
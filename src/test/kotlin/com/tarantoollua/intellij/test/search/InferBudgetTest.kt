@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.search
+
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.project.LuaSettings
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.search.LuaInferBudget
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class InferBudgetTest : LuaTestBase() {
+
+    private fun lastName(name: String): LuaNameExpr {
+        return PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameExpr::class.java).last { it.name == name }
+    }
+
+    private fun inferWith(budget: LuaInferBudget, expr: LuaNameExpr): ITy {
+        val context = SearchContext.get(project)
+        return context.withBudget(budget) { SearchContext.infer(expr, context) }
+    }
+
+    private fun createChain(depth: Int): String {
+        val sb = StringBuilder("g0 = 1\n")
+        for (i in 1..depth) {
+            sb.append("g$i = g${i - 1}\n")
+        }
+        return sb.toString()
+    }
+
+    fun `test depth budget`() {
+        myFixture.configureByText("chain.lua", createChain(100))
+        val last = lastName("g100")
+        assertEquals(Ty.UNKNOWN, inferWith(LuaInferBudget(0, 10, 0), last))
+        // the truncated result is not cached
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(last))
+    }
+
+    fun `test node budget`() {
+        myFixture.configureByText("chain.lua", createChain(100))
+        val last = lastName("g100")
+        assertEquals(Ty.UNKNOWN, inferWith(LuaInferBudget(20, 0, 0), last))
+        assertEquals(Ty.NUMBER, inferWith(LuaInferBudget.UNLIMITED, last))
+    }
+
+    fun `test partial union of global assignments`() {
+        val sb = StringBuilder()
+        for (i in 0 until 8) {
+            sb.append("g = ${if (i % 2 == 0) "1" else "'s'"}\n")
+        }
+        sb.append("print(g)\n")
+        myFixture.configureByText("globals.lua", sb.toString())
+        val g = lastName("g")
+
+        val full = inferWith(LuaInferBudget.UNLIMITED, g)
+        assertEquals(Ty.NUMBER.union(Ty.STRING), full)
+
+        val partial = inferWith(LuaInferBudget(3, 0, 0), g)
+        assertTrue(partial == Ty.UNKNOWN || partial.subTypeOf(full, SearchContext.get(project), true))
+    }
+
+    fun `test inspection budget has no time limit`() {
+        val settings = LuaSettings.instance
+        val budget = LuaInferBudget.untimedFromSettings()
+        assertEquals(0L, budget.timeoutMillis)
+        assertEquals(settings.inferMaxNodes, budget.maxNodes)
+        assertEquals(settings.inferMaxDepth, budget.maxDepth)
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tarantoollua.intellij.test.search
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiFile
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class InferCacheTest : LuaTestBase() {
+
+    private fun lastName(file: PsiFile, name: String): LuaNameExpr {
+        return PsiTreeUtil.findChildrenOfType(file, LuaNameExpr::class.java).last { it.name == name }
+    }
+
+    private fun edit(file: PsiFile, text: String) {
+        val document = PsiDocumentManager.getInstance(project).getDocument(file)!!
+        WriteCommandAction.runWriteCommandAction(project) {
+            document.insertString(document.textLength, text)
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+    }
+
+    private fun cached(expr: LuaNameExpr) = SearchContext.get(project).getTypeFromCache(expr)
+
+    fun `test unrelated edit keeps entries`() {
+        val values = myFixture.addFileToProject("values.lua", "gValue = 1\n")
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val main = myFixture.addFileToProject("main.lua", "local v = gValue\nprint(v)\n")
+
+        val v = lastName(main, "v")
+        assertEquals(Ty.NUMBER, SearchContext.infer(v))
+        assertEquals(Ty.NUMBER, cached(v))
+
+        edit(other, "local y = 2\n")
+        assertEquals(Ty.NUMBER, cached(v))
+
+        // a new assignment of the global in another file changes the type
+        edit(other, "gValue = 's'\n")
+        assertEquals(Ty.UNKNOWN, cached(v))
+        SearchContext.infer(v)
+
+        edit(values, "local z = 3\n")
+        assertEquals(Ty.UNKNOWN, cached(v))
+    }
+
+    fun `test unrelated edit keeps member chains`() {
+        val lib = myFixture.addFileToProject("lib.lua", """
+            ---@class Lib
+            ---@field count number
+            local Lib = {}
+        """.trimIndent())
+        val other = myFixture.addFileToProject("other.lua", "local x = 1\n")
+        val main = myFixture.addFileToProject("main.lua", """
+            ---@type Lib
+            local lib
+            local n = lib.count
+            print(n)
+        """.trimIndent())
+
+        val n = lastName(main, "n")
+        assertEquals(Ty.NUMBER, SearchContext.infer(n))
+
+        edit(other, "local y = 2\n")
+        assertEquals(Ty.NUMBER, cached(n))
+
+        edit(lib, "\n---@class Other\n")
+        assertEquals(Ty.UNKNOWN, cached(n))
+        assertEquals(Ty.NUMBER, SearchContext.infer(n))
+    }
+}
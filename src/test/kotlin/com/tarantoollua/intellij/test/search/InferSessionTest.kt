@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.search
+
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaExpr
+import com.tarantoollua.intellij.lua.search.LuaInferSession
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class InferSessionTest : LuaTestBase() {
+
+    fun `test same results as sequential`() {
+        val sb = StringBuilder()
+        sb.append("""
+            ---@class Base
+            ---@field name string
+            local Base = {}
+
+            ---@return Base
+            function Base.new() return setmetatable({}, Base) end
+
+            ---@class Derived : Base
+            local Derived = {}
+
+        """.trimIndent())
+        for (i in 0 until 200) {
+            sb.append("""
+                local a$i = Base.new()
+                local b$i = a$i.name
+                local c$i = { x = $i, y = b$i }
+                function Derived:m$i(p) return self, c$i.x, p or a$i end
+
+            """.trimIndent())
+        }
+        myFixture.configureByText("test.lua", sb.toString())
+        val exprs = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaExpr::class.java).toList()
+
+        val sequential = mutableMapOf<LuaExpr, String>()
+        exprs.forEach { sequential[it] = render(SearchContext.inferIsolated(it)) }
+
+        SearchContext.invalidateCache(project)
+        val session = LuaInferSession(project)
+        assertTrue(session.inferAll(exprs, null))
+        exprs.forEach {
+            assertEquals(it.text, sequential[it], render(session.getResult(it)!!))
+        }
+    }
+
+    private fun render(ty: ITy) = ty.displayName
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.search
+
+import com.intellij.psi.PsiElement
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaNameExpr
+import com.tarantoollua.intellij.lua.search.GuardType
+import com.tarantoollua.intellij.lua.search.RecursionGuardSet
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class RecursionGuardTest : LuaTestBase() {
+
+    private fun createChain(depth: Int): String {
+        val sb = StringBuilder("g0 = 1\n")
+        for (i in 1..depth) {
+            sb.append("g$i = g${i - 1}\n")
+        }
+        return sb.toString()
+    }
+
+    // the guards as a list scanned on every check, as SearchContext used to do
+    private class LinearGuards {
+        val list = mutableListOf<Pair<PsiElement, String?>>()
+
+        fun isGuarded(psi: PsiElement, globalName: String?): Boolean {
+            return list.any { it.first == psi || (globalName != null && it.second == globalName) }
+        }
+    }
+
+    fun `test guard lookup on deep chains`() {
+        val depth = 300
+        myFixture.configureByText("chain.lua", createChain(depth))
+        val names = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameExpr::class.java).toList()
+        val guards = RecursionGuardSet()
+        val globalNames = names.map { guards.globalNameOf(it, GuardType.GlobalName) }
+
+        // every level of a nested inference checks a few elements before entering the next one
+        fun runLinear(): Int {
+            val linear = LinearGuards()
+            var trips = 0
+            for (i in names.indices) {
+                for (j in maxOf(0, i - 8)..i) {
+                    if (linear.isGuarded(names[j], globalNames[j])) trips++
+                }
+                linear.list.add(Pair(names[i], globalNames[i]))
+            }
+            return trips
+        }
+
+        fun runHashed(): Int {
+            val set = RecursionGuardSet()
+            var trips = 0
+            for (i in names.indices) {
+                for (j in maxOf(0, i - 8)..i) {
+                    if (set.isGuarded(names[j], globalNames[j])) trips++
+                }
+                set.enter(names[i], globalNames[i])
+            }
+            return trips
+        }
+
+        assertEquals(runLinear(), runHashed())
+    }
+
+    fun `test deep global chain`() {
+        val depth = 100
+        myFixture.configureByText("chain.lua", createChain(depth))
+        val last = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameExpr::class.java).last { it.name == "g$depth" }
+
+        val ty = SearchContext.inferIsolated(last)
+        assertEquals(Ty.NUMBER, ty)
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.stubs
+
+import com.intellij.psi.impl.DebugUtil
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.stubs.SerializationManagerEx
+import com.intellij.psi.stubs.Stub
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaTableExpr
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.*
+import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tarantoollua.intellij.lua.ty.TyAnonymousId
+import com.tarantoollua.intellij.lua.ty.getTableTypeId
+import com.tarantoollua.intellij.test.LuaTestBase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class AnonymousTypeIdTest : LuaTestBase() {
+
+    private fun roundTrip(stub: Stub): LuaFileStub {
+        val out = ByteArrayOutputStream()
+        SerializationManagerEx.getInstanceEx().serialize(stub, out)
+        return SerializationManagerEx.getInstanceEx().deserialize(ByteArrayInputStream(out.toByteArray())) as LuaFileStub
+    }
+
+    private fun allStubs(stub: Stub): List<Stub> {
+        return listOf(stub) + stub.childrenStubs.flatMap { allStubs(it) }
+    }
+
+    fun `test ids survive serialization`() {
+        val file = myFixture.addFileToProject("test.lua", """
+            local t = { a = 1 }
+            ---@type { x: number }
+            local d
+        """.trimIndent()) as PsiFileImpl
+        val stub = file.calcStubTree().root
+        val copy = roundTrip(stub)
+        assertEquals(DebugUtil.stubTreeToString(stub), DebugUtil.stubTreeToString(copy))
+
+        val stubs = allStubs(copy)
+        val table = stubs.filterIsInstance<LuaTableExprStub>().single().tableTypeId
+        assertEquals(TyAnonymousId.Kind.Table, table.kind)
+        assertEquals(copy.uid, table.fileUid)
+        assertEquals(table, stubs.filterIsInstance<LuaTableFieldStub>().single().typeId)
+
+        val docTable = stubs.filterIsInstance<LuaDocTableDefStub>().single().tableTypeId
+        assertEquals(TyAnonymousId.Kind.DocTable, docTable.kind)
+        assertEquals(docTable, stubs.filterIsInstance<LuaDocTableFieldStub>().single().parentTypeId)
+
+        val locals = stubs.filterIsInstance<LuaNameDefStub>().map { it.anonymousId }
+        assertTrue(locals.all { it.kind == TyAnonymousId.Kind.Local && it.fileUid == copy.uid })
+        assertEquals(locals.size, locals.toSet().size)
+    }
+
+    fun `test members indexed by id name`() {
+        val file = myFixture.addFileToProject("test.lua", "local t = { a = 1, b = 2 }")
+        val table = PsiTreeUtil.findChildOfType(file, LuaTableExpr::class.java)!!
+        val id = getTableTypeId(table)
+        val context = SearchContext.get(project)
+        val names = LuaClassMemberIndex.getMembers(id.name, context).mapNotNull { it.name }
+        assertEquals(setOf("a", "b"), names.toSet())
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.stubs
+
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaNameDef
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.LuaClassMethodStub
+import com.tarantoollua.intellij.lua.stubs.LuaReturnSummary
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class ReturnSummaryTest : LuaTestBase() {
+
+    private val lib = """
+        M = {}
+        function M.num() return 1 end
+        function M.pair() return "a", true end
+        function M:me() return self end
+        function M.mod() return require("other") end
+        function M.dep(t) if t then return t.x end return 2 end
+        ---@return string
+        function M.doc() return 1 end
+    """.trimIndent()
+
+    fun `test summary in stubs`() {
+        val file = myFixture.addFileToProject("lib.lua", lib) as PsiFileImpl
+        val stubs = file.calcStubTree().plainList
+        val methods = stubs.filterIsInstance<LuaClassMethodStub>().associateBy { it.name }
+
+        val num = methods.getValue("num").returnSummary!!
+        assertTrue(num.isSyntactic)
+        assertEquals(Ty.NUMBER, (num.returns[0][0] as LuaReturnSummary.Value.Known).ty)
+
+        assertEquals(2, methods.getValue("pair").returnSummary!!.returns[0].size)
+        assertSame(LuaReturnSummary.Value.Self, methods.getValue("me").returnSummary!!.returns[0][0])
+        assertEquals("other", (methods.getValue("mod").returnSummary!!.returns[0][0] as LuaReturnSummary.Value.Require).path)
+
+        val dep = methods.getValue("dep").returnSummary!!
+        assertFalse(dep.isSyntactic)
+        assertEquals(2, dep.returns.size)
+
+        assertNull(methods.getValue("doc").returnSummary)
+    }
+
+    fun `test infer from summary`() {
+        myFixture.addFileToProject("lib.lua", lib)
+        myFixture.configureByText("main.lua", """
+            local n = M.num()
+            local s, b = M.pair()
+            local x = M.dep()
+        """.trimIndent())
+        val defs = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaNameDef::class.java).associateBy { it.name }
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(defs.getValue("n")))
+        assertEquals(Ty.STRING, SearchContext.inferIsolated(defs.getValue("s")))
+        assertEquals(Ty.BOOLEAN, SearchContext.inferIsolated(defs.getValue("b")))
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(defs.getValue("x")))
+    }
+}
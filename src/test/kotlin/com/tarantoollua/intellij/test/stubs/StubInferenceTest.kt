@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.stubs
+
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.stubs.Stub
+import com.intellij.psi.util.PsiTreeUtil
+import com.tarantoollua.intellij.lua.psi.LuaCallExpr
+import com.tarantoollua.intellij.lua.psi.LuaIndexExpr
+import com.tarantoollua.intellij.lua.psi.assignStat
+import com.tarantoollua.intellij.lua.psi.prefixExpr
+import com.tarantoollua.intellij.lua.search.SearchContext
+import com.tarantoollua.intellij.lua.stubs.LuaFileStub
+import com.tarantoollua.intellij.lua.stubs.LuaIndexExprStub
+import com.tarantoollua.intellij.lua.stubs.LuaStubInference
+import com.tarantoollua.intellij.lua.stubs.index.LuaClassMemberIndex
+import com.tarantoollua.intellij.lua.ty.ITy
+import com.tarantoollua.intellij.lua.ty.ITyClass
+import com.tarantoollua.intellij.lua.ty.Ty
+import com.tarantoollua.intellij.lua.ty.TyClass
+import com.tarantoollua.intellij.lua.ty.TyUnion
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class StubInferenceTest : LuaTestBase() {
+
+    private fun memberNames(className: String): Set<String> {
+        return LuaClassMemberIndex.getMembers(className, SearchContext.get(project)).mapNotNull { it.name }.toSet()
+    }
+
+    private fun allStubs(stub: Stub): List<Stub> {
+        return listOf(stub) + stub.childrenStubs.flatMap { allStubs(it) }
+    }
+
+    private fun classNames(ty: ITy): Set<String> {
+        val names = mutableSetOf<String>()
+        TyUnion.each(ty) { if (it is ITyClass) names.add(it.className) }
+        return names
+    }
+
+    fun `test members indexed from the file only`() {
+        myFixture.addFileToProject("mod.lua", """
+            ---@class Mod
+            local M = {}
+            return M
+        """.trimIndent())
+        myFixture.addFileToProject("test.lua", """
+            ---@class A
+            local A = {}
+            function A:m()
+                self.x = 1
+            end
+            a.b.c = 1
+            _G.g.h = 1
+            local m = require("mod")
+            m.f = 1
+        """.trimIndent())
+
+        assertTrue("x" in memberNames("A"))
+        assertTrue("c" in memberNames("\$a.b"))
+        assertTrue("h" in memberNames("\$g"))
+        assertTrue("f" in memberNames("@mod"))
+        // never taken from the required file while indexing
+        assertFalse("f" in memberNames("Mod"))
+
+        // but still a member of the class the module returns
+        myFixture.configureByText("use.lua", """
+            ---@type Mod
+            local v
+            local x = v.f
+        """.trimIndent())
+        val f = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaIndexExpr::class.java).single { it.name == "f" }
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(f))
+    }
+
+    fun `test symbolic members resolved at query time`() {
+        myFixture.addFileToProject("def.lua", "a.b = {}")
+        val file = myFixture.addFileToProject("use.lua", "a.b.c = 1") as PsiFileImpl
+        val stub = allStubs(file.calcStubTree().root)
+                .filterIsInstance<LuaIndexExprStub>()
+                .single { it.name == "c" }
+        assertEquals(listOf("\$a.b"), stub.classNames.toList())
+
+        myFixture.configureByText("test.lua", "local v = a.b.c")
+        val c = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaIndexExpr::class.java).single { it.name == "c" }
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(c))
+    }
+
+    fun `test symbolic owners are not part of value types`() {
+        myFixture.addFileToProject("mod.lua", """
+            local M = {}
+            return M
+        """.trimIndent())
+        myFixture.addFileToProject("ext.lua", """
+            local m = require("mod")
+            m.f = 1
+            a.b = {}
+            a.b.c = 1
+        """.trimIndent())
+        myFixture.configureByText("test.lua", """
+            local m = require("mod")
+            local x = m.f
+            local y = a.b.c
+        """.trimIndent())
+        val call = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaCallExpr::class.java).single()
+        val exprs = PsiTreeUtil.findChildrenOfType(myFixture.file, LuaIndexExpr::class.java).associateBy { it.name }
+        val ab = exprs.getValue("c").prefixExpr as LuaIndexExpr
+
+        assertTrue(classNames(SearchContext.inferIsolated(call)).none { TyClass.isSymbolicOwner(it) })
+        assertTrue(classNames(SearchContext.inferIsolated(ab)).none { TyClass.isSymbolicOwner(it) })
+        // still consulted when looking the members up
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(exprs.getValue("f")))
+        assertEquals(Ty.NUMBER, SearchContext.inferIsolated(exprs.getValue("c")))
+    }
+
+    fun `test exported class recorded by the file stub`() {
+        val mod = myFixture.addFileToProject("mod.lua", """
+            ---@class Mod
+            local M = {}
+            return M
+        """.trimIndent()) as PsiFileImpl
+        val anonymous = myFixture.addFileToProject("anonymous.lua", """
+            local M = {}
+            return M
+        """.trimIndent()) as PsiFileImpl
+        assertEquals("Mod", (mod.calcStubTree().root as LuaFileStub).exportedClass)
+        assertNull((anonymous.calcStubTree().root as LuaFileStub).exportedClass)
+    }
+
+    private fun createSource(i: Int, size: Int): String {
+        val sb = StringBuilder("---@class C$i\nlocal C$i = {}\nlib$i = {}\n")
+        for (j in 0 until size) {
+            sb.append("function C$i:m$j()\n    self.f$j = $j\n    lib$i.sub.v$j = self.f$j\nend\n")
+            sb.append("local t$j = require(\"mod$j\")\nt$j.x = C$i\n")
+        }
+        sb.append("return C$i\n")
+        return sb.toString()
+    }
+
+    fun `test same self types as the editor inference`() {
+        val files = (0 until 3).map { myFixture.addFileToProject("mod$it.lua", createSource(it, 10)) }
+        val exprs = files.flatMap { file ->
+            PsiTreeUtil.findChildrenOfType(file, LuaIndexExpr::class.java).filter { it.assignStat != null }
+        }
+
+        // the inference that built index stubs before, running the editor inference in dumb mode
+        val full = exprs.map { expr ->
+            classNames(SearchContext.withStub(project, expr.containingFile, Ty.UNKNOWN) { expr.guessParentType(it) })
+        }
+        val syntactic = exprs.map { classNames(LuaStubInference.inferParent(it)) }
+        // the results of require differ, the required files are not read any more
+        exprs.indices.forEach { i ->
+            if (exprs[i].prefixExpr.text == "self")
+                assertEquals(full[i], syntactic[i])
+            assertFalse(exprs[i].text, syntactic[i].isEmpty())
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.tarantoollua.intellij.test.stubs
+
+import com.intellij.psi.impl.DebugUtil
+import com.intellij.psi.impl.source.PsiFileImpl
+import com.intellij.psi.stubs.IStubElementType
+import com.intellij.psi.stubs.SerializationManagerEx
+import com.intellij.psi.stubs.Stub
+import com.intellij.psi.stubs.StubElement
+import com.intellij.psi.stubs.StubOutputStream
+import com.tarantoollua.intellij.lua.stubs.LuaDocTagFieldStub
+import com.tarantoollua.intellij.lua.stubs.LuaFileStub
+import com.tarantoollua.intellij.lua.stubs.LuaStubTypeTable
+import com.tarantoollua.intellij.test.LuaTestBase
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+class TypeTableTest : LuaTestBase() {
+
+    private fun serialize(stub: Stub): ByteArray {
+        val out = ByteArrayOutputStream()
+        SerializationManagerEx.getInstanceEx().serialize(stub, out)
+        return out.toByteArray()
+    }
+
+    private fun deserialize(bytes: ByteArray): Stub {
+        return SerializationManagerEx.getInstanceEx().deserialize(ByteArrayInputStream(bytes))
+    }
+
+    private fun allStubs(stub: Stub): List<Stub> {
+        return listOf(stub) + stub.childrenStubs.flatMap { allStubs(it) }
+    }
+
+    fun `test shared types`() {
+        val file = myFixture.addFileToProject("test.lua", """
+            ---@class A
+            ---@field a string|number
+            ---@field b string|number
+            ---@field c fun(x:A):A
+            ---@field d fun(x:A):A
+        """.trimIndent()) as PsiFileImpl
+        val stub = file.calcStubTree().root
+        val copy = deserialize(serialize(stub)) as LuaFileStub
+
+        assertEquals(2, copy.typeTable?.size)
+        assertEquals(DebugUtil.stubTreeToString(stub), DebugUtil.stubTreeToString(copy))
+        val fields = allStubs(copy).filterIsInstance<LuaDocTagFieldStub>().associateBy { it.name }
+        assertSame(fields.getValue("a").type, fields.getValue("b").type)
+        assertSame(fields.getValue("c").type, fields.getValue("d").type)
+    }
+
+    /**
+     * bytes written by the child stubs of [file] and by [table], the types are written inline if [table] is null
+     */
+    private fun serializedSize(file: LuaFileStub, table: LuaStubTypeTable?): Int {
+        val out = ByteArrayOutputStream()
+        val stream = StubOutputStream(out, LuaStubTypeTable.LocalNames())
+        file.typeTable = table
+        LuaStubTypeTable.serialize(table, stream)
+        allStubs(file).drop(1).forEach {
+            @Suppress("UNCHECKED_CAST")
+            val type = (it as StubElement<*>).stubType as IStubElementType<StubElement<*>, *>
+            type.serialize(it, stream)
+        }
+        return out.size()
+    }
+
+    fun `test std library size`() {
+        val dir = File("src/main/resources/std/Tarantool")
+        val stubs = dir.walkTopDown().filter { it.extension == "lua" }.map {
+            val path = it.relativeTo(dir).path
+            (myFixture.addFileToProject(path, it.readText()) as PsiFileImpl).calcStubTree().root as LuaFileStub
+        }.toList()
+
+        val inlineSize = stubs.sumOf { serializedSize(it, null) }
+        val tableSize = stubs.sumOf { serializedSize(it, LuaStubTypeTable.create(it)) }
+        assertTrue(tableSize <= inlineSize)
+    }
+}
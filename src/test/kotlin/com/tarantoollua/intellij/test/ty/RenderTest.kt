@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017. tarantoolluazx(love.tarantoolluazx@qq.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tarantoollua.intellij.test.ty
+
+import com.tarantoollua.intellij.lua.ty.*
+import com.tarantoollua.intellij.test.LuaTestBase
+
+class RenderTest : LuaTestBase() {
+
+    private fun bigUnion(size: Int): ITy {
+        return TyUnion.union((0 until size).map { TySerializedClass("Class$it") })
+    }
+
+    private fun bigGeneric(depth: Int): ITy {
+        var ty: ITy = Ty.STRING
+        repeat(depth) {
+            ty = TySerializedGeneric(arrayOf(Ty.NUMBER, ty, TyArray(ty)), TySerializedClass("Map"))
+        }
+        return ty
+    }
+
+    fun `test render output`() {
+        val union = TyUnion.union(listOf(Ty.STRING, Ty.NUMBER, TySerializedClass("A")))
+        assertEquals(setOf("string", "number", "A"), union.displayName.split("|").toSet())
+        assertEquals("Map<number, string, string[]>", bigGeneric(1).displayName)
+        assertEquals("(string, number)", TyTuple(listOf(Ty.STRING, Ty.NUMBER)).displayName)
+        assertEquals("A", TyUnion.union(TySerializedClass("A"), TySerializedClass("\$g", "g", flags = TyFlags.GLOBAL)).toString())
+    }
+
+    fun `test display name is cached`() {
+        val union = bigUnion(10)
+        assertSame(union.displayName, union.displayName)
+        val generic = bigGeneric(3)
+        assertSame(generic.displayName, generic.displayName)
+    }
+
+    fun `test display name of large unions and generics`() {
+        val union = bigUnion(200)
+        val generic = bigGeneric(8)
+        assertEquals(TyRenderer.SIMPLE.render(union), union.displayName)
+        assertEquals(TyRenderer.SIMPLE.render(generic), generic.displayName)
+    }
+}